@@ -0,0 +1,197 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import jenkins.model.ArtifactManager;
+import jenkins.model.StandardArtifactManager;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Deletes the artifacts that builds keep outside their directory, for many builds at once, through the
+ * {@link BulkArtifactDeleter}s, with a fallback to {@link Run#deleteArtifacts()} for each build no deleter handles.
+ * Shared by the workers of a purge; the threads are only started when a purge meets such artifacts.
+ */
+final class ArtifactDeletions implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(ArtifactDeletions.class.getName());
+
+    /**
+     * The identity the artifacts are deleted as.
+     */
+    private final Authentication authentication;
+
+    /**
+     * The number of builds per batch.
+     */
+    private final int batchSize;
+
+    /**
+     * The number of batches deleted at the same time.
+     */
+    private final int threads;
+
+    /**
+     * The threads, once started.
+     */
+    @CheckForNull
+    private ExecutorService executor;
+
+    /**
+     * Creates the deletions of a purge.
+     *
+     * @param authentication the identity the artifacts are deleted as.
+     */
+    ArtifactDeletions(Authentication authentication) {
+        this.authentication = authentication;
+        this.batchSize = BulkArtifactDeleter.getDefaultBatchSize();
+        this.threads = BulkArtifactDeleter.getDefaultThreads();
+    }
+
+    /**
+     * Returns whether the artifacts of a build are worth collecting: they are kept outside its directory, and the
+     * build is deleted the way {@link Run#delete()} does it, so it can be removed once they are gone.
+     *
+     * @param run the build.
+     * @return whether its artifacts should be deleted with those of other builds.
+     */
+    static boolean isDeferrable(Run<?, ?> run) {
+        return BulkDeleteScope.canRemove(run) && !(run.getArtifactManager() instanceof StandardArtifactManager);
+    }
+
+    /**
+     * Returns how many builds to collect before deleting their artifacts: enough to keep every thread busy.
+     *
+     * @return how many builds to collect.
+     */
+    int capacity() {
+        return batchSize * threads;
+    }
+
+    /**
+     * Deletes the artifacts of some builds, and waits until they are all done.
+     *
+     * @param runs the builds, whose artifacts are {@linkplain #isDeferrable(Run) deferrable}.
+     * @return why the artifacts of some builds could not be deleted, by build; empty if all of them were.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    Map<Run<?, ?>, IOException> delete(List<Run<?, ?>> runs) throws InterruptedIOException {
+        Map<BulkArtifactDeleter, List<Run<?, ?>>> batches = new LinkedHashMap<>();
+        List<Run<?, ?>> single = new ArrayList<>();
+        for (Run<?, ?> run : runs) {
+            BulkArtifactDeleter deleter = BulkArtifactDeleter.of(run.getArtifactManager());
+            if (deleter == null) {
+                single.add(run);
+            } else {
+                batches.computeIfAbsent(deleter, k -> new ArrayList<>()).add(run);
+            }
+        }
+        Map<Run<?, ?>, IOException> failures = Collections.synchronizedMap(new IdentityHashMap<>());
+        ExecutorService executor = executor();
+        List<Future<?>> futures = new ArrayList<>();
+        for (Map.Entry<BulkArtifactDeleter, List<Run<?, ?>>> entry : batches.entrySet()) {
+            List<Run<?, ?>> list = entry.getValue();
+            for (int start = 0; start < list.size(); start += batchSize) {
+                List<Run<?, ?>> batch = list.subList(start, Math.min(list.size(), start + batchSize));
+                futures.add(executor.submit(() -> deleteBatch(entry.getKey(), batch, failures)));
+            }
+        }
+        for (Run<?, ?> run : single) {
+            futures.add(executor.submit(() -> {
+                try (ACLContext ctx = ACL.as2(authentication)) {
+                    deleteOne(run, failures);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            throw (InterruptedIOException) new InterruptedIOException("Interrupted while deleting artifacts")
+                    .initCause(e);
+        } catch (ExecutionException e) {
+            // the tasks catch what they can throw
+            throw new IllegalStateException(e.getCause());
+        }
+        return failures;
+    }
+
+    /**
+     * Deletes the artifacts of a batch in one call, or one build at a time if that fails.
+     */
+    private void deleteBatch(BulkArtifactDeleter deleter, List<Run<?, ?>> batch,
+                             Map<Run<?, ?>, IOException> failures) {
+        List<ArtifactManager> managers = new ArrayList<>(batch.size());
+        for (Run<?, ?> run : batch) {
+            managers.add(run.getArtifactManager());
+        }
+        try (ACLContext ctx = ACL.as2(authentication)) {
+            try {
+                deleter.delete(managers);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Run<?, ?> run : batch) {
+                    failures.put(run, (IOException) new InterruptedIOException().initCause(e));
+                }
+                return;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, String.format("%s failed to delete the artifacts of %d builds, deleting "
+                        + "them one by one", deleter.getClass().getName(), batch.size()), e);
+            }
+            for (Run<?, ?> run : batch) {
+                deleteOne(run, failures);
+            }
+        }
+    }
+
+    private static void deleteOne(Run<?, ?> run, Map<Run<?, ?>, IOException> failures) {
+        try {
+            run.deleteArtifacts();
+        } catch (IOException e) {
+            failures.put(run, e);
+        } catch (RuntimeException e) {
+            failures.put(run, new IOException(e));
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads,
+                    new NamingThreadFactory(new DaemonThreadFactory(), "PurgeJobHistory artifact deleter"));
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the threads, once every purge worker is done.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.model.Job;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+
+/**
+ * The next build numbers to reset to {@code 1}, held back while the jobs of a subtree are purged and written together
+ * once the traversal leaves it.
+ * {@link Job#updateNextBuildNumber(int)} writes {@code nextBuildNumber} straight away rather than through
+ * {@code save()}, so a {@link hudson.BulkChange} would not hold it back. Instead, only the jobs left without builds
+ * whose next build number is not {@code 1} already are written, so resetting a subtree that is mostly empty, such as
+ * the branches of a multibranch project purged before, costs a write per job that actually changes.
+ * A job is only reset if no build was numbered since its purge started, checked and written under the lock that
+ * {@link Job#assignBuildNumber()} takes, so a build started during the purge never gets a number already used.
+ * A job is only recorded as done in the journal once its build number is reset, so a restart does not lose the reset.
+ */
+final class BuildNumberResets {
+
+    private static final Logger LOGGER = Logger.getLogger(BuildNumberResets.class.getName());
+
+    /**
+     * The jobs purged whose next build number is not reset yet.
+     */
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Receives the jobs that could not be reset.
+     */
+    private final PurgeProgress progress;
+
+    /**
+     * Counts the next build numbers written.
+     */
+    private final PurgeMetrics metrics;
+
+    /**
+     * Records the jobs done, or {@code null} if the purge cannot be resumed.
+     */
+    @CheckForNull
+    private final PurgeJournal journal;
+
+    BuildNumberResets(PurgeProgress progress, PurgeMetrics metrics, @CheckForNull PurgeJournal journal) {
+        this.progress = progress;
+        this.metrics = metrics;
+        this.journal = journal;
+    }
+
+    /**
+     * Queues the reset of a job whose builds were purged. May be called by any worker.
+     *
+     * @param job             the job.
+     * @param nextBuildNumber the next build number of the job when its purge started.
+     */
+    void add(Job<?, ?> job, int nextBuildNumber) {
+        pending.add(new Pending(job, nextBuildNumber));
+    }
+
+    /**
+     * Resets the next build number of the jobs queued so far, on the calling thread.
+     * A job that fails is reported and left out of the journal, and the others are still reset.
+     *
+     * @return the number of next build numbers written.
+     * @throws IOException if the journal could not be written.
+     */
+    int flush() throws IOException {
+        int written = 0;
+        Pending entry;
+        while ((entry = pending.poll()) != null) {
+            Job<?, ?> job = entry.job;
+            try {
+                if (entry.nextBuildNumber != 1 && reset(job, entry.nextBuildNumber)) {
+                    metrics.buildNumberReset();
+                    written++;
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, String.format("Failed to reset the next build number of %s",
+                        job.getFullName()), e);
+                progress.jobFailed(job.getFullName(), e);
+                continue;
+            }
+            if (journal != null) {
+                journal.jobDone(job.getFullName());
+            }
+        }
+        if (written > 0) {
+            LOGGER.log(Level.FINE, "Reset the next build number of {0} jobs", written);
+        }
+        return written;
+    }
+
+    /**
+     * Resets the next build number of a job left without builds, unless a build was numbered since its purge started.
+     */
+    private static boolean reset(Job<?, ?> job, int nextBuildNumber) throws IOException {
+        synchronized (job) {
+            if (job.getNextBuildNumber() != nextBuildNumber || job.getLastBuild() != null) {
+                return false;
+            }
+            job.updateNextBuildNumber(1);
+            return true;
+        }
+    }
+
+    /**
+     * A job waiting for its reset.
+     */
+    private static final class Pending {
+
+        /**
+         * The job.
+         */
+        final Job<?, ?> job;
+
+        /**
+         * The next build number of the job when its purge started.
+         */
+        final int nextBuildNumber;
+
+        Pending(Job<?, ?> job, int nextBuildNumber) {
+            this.job = job;
+            this.nextBuildNumber = nextBuildNumber;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package jenkins.plugins.purgejobhistory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.annotation.CheckForNull;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * What the purge needs to know about a build that is not loaded in memory, read straight from its
+ * {@code build.xml} with a streaming parser instead of unmarshalling a whole {@link hudson.model.Run}.
+ */
+public final class BuildRecord {
+
+    /**
+     * The artifact manager that keeps artifacts inside the build directory.
+     */
+    private static final String STANDARD_ARTIFACT_MANAGER = "jenkins.model.StandardArtifactManager";
+
+    /**
+     * Parsers are thread safe once configured.
+     */
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    /**
+     * The build number.
+     */
+    private final int number;
+
+    /**
+     * Whether the build is marked to be kept forever.
+     */
+    private boolean keepLog;
+
+    /**
+     * Whether the artifacts are kept outside the build directory, so that only the {@link hudson.model.Run} can
+     * delete them.
+     */
+    private boolean externalArtifacts;
+
+    /**
+     * When the build was scheduled, in milliseconds since the epoch.
+     */
+    private long timestamp;
+
+    /**
+     * The name of the build result, or {@code null} if not recorded.
+     */
+    @CheckForNull
+    private String result;
+
+    private BuildRecord(int number) {
+        this.number = number;
+    }
+
+    /**
+     * Lists the numbers of the builds found in a builds directory.
+     * Only the names are looked at, so listing a long history costs no stat per build: a numbered entry that is
+     * not a build has no {@code build.xml}, and {@link #read(File, int)} returns {@code null} for it.
+     *
+     * @param buildDir the builds directory of a job.
+     * @return the build numbers, highest first.
+     * @throws IOException if the directory can not be listed.
+     */
+    public static int[] listBuildNumbers(File buildDir) throws IOException {
+        int[] numbers = new int[64];
+        int size = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(buildDir.toPath())) {
+            for (Path entry : entries) {
+                int number = parseNumber(entry.getFileName().toString());
+                if (number > 0) {
+                    if (size == numbers.length) {
+                        numbers = Arrays.copyOf(numbers, size * 2);
+                    }
+                    numbers[size++] = number;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return new int[0];
+        }
+        numbers = Arrays.copyOf(numbers, size);
+        Arrays.sort(numbers);
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            int swap = numbers[i];
+            numbers[i] = numbers[j];
+            numbers[j] = swap;
+        }
+        return numbers;
+    }
+
+    /**
+     * Reads the record of a build.
+     *
+     * @param buildDir the builds directory of the job.
+     * @param number   the build number.
+     * @return the record, or {@code null} if there is no {@code build.xml}.
+     * @throws IOException if {@code build.xml} can not be read.
+     */
+    @CheckForNull
+    public static BuildRecord read(File buildDir, int number) throws IOException {
+        File buildXml = new File(new File(buildDir, Integer.toString(number)), "build.xml");
+        BuildRecord record = new BuildRecord(number);
+        try (InputStream in = Files.newInputStream(buildXml.toPath())) {
+            XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                int depth = 0;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamReader.START_ELEMENT) {
+                        depth++;
+                        if (depth == 2) {
+                            record.readField(reader);
+                            depth--;
+                        }
+                    } else if (event == XMLStreamReader.END_ELEMENT) {
+                        depth--;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to read " + buildXml, e);
+        }
+        return record;
+    }
+
+    /**
+     * Reads a direct child of the root element, leaving the reader on its end tag.
+     */
+    private void readField(XMLStreamReader reader) throws XMLStreamException {
+        String name = reader.getLocalName();
+        if ("keepLog".equals(name)) {
+            keepLog = Boolean.parseBoolean(reader.getElementText().trim());
+        } else if ("timestamp".equals(name)) {
+            try {
+                timestamp = Long.parseLong(reader.getElementText().trim());
+            } catch (NumberFormatException e) {
+                timestamp = 0;
+            }
+        } else if ("result".equals(name)) {
+            result = reader.getElementText().trim();
+        } else if ("artifactManager".equals(name)) {
+            String type = reader.getAttributeValue(null, "class");
+            externalArtifacts = type != null && !STANDARD_ARTIFACT_MANAGER.equals(type);
+            skipElement(reader);
+        } else {
+            skipElement(reader);
+        }
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamReader.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamReader.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static int parseNumber(String name) {
+        if (name.isEmpty() || name.length() > 9) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Returns the build number.
+     *
+     * @return the build number.
+     */
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * Returns whether the build is marked to be kept forever.
+     *
+     * @return whether the build is marked to be kept forever.
+     */
+    public boolean isKeepLog() {
+        return keepLog;
+    }
+
+    /**
+     * Returns when the build was scheduled.
+     *
+     * @return when the build was scheduled, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the name of the build result.
+     *
+     * @return the name of the build result, or {@code null} if not recorded.
+     */
+    @CheckForNull
+    public String getResult() {
+        return result;
+    }
+
+    /**
+     * Returns whether the artifacts are kept outside the build directory.
+     *
+     * @return whether the artifacts are kept outside the build directory.
+     */
+    public boolean hasExternalArtifacts() {
+        return externalArtifacts;
+    }
+}
@@ -0,0 +1,59 @@
+package jenkins.plugins.purgejobhistory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+
+/**
+ * Removes builds by renaming their directory into a trash area on the same file system, instead of deleting
+ * every file before returning. {@link BuildTrashReaper} deletes the trash later, including after a restart.
+ * Only builds that {@link BulkDeleteScope#canRemove(hudson.model.Run) can be removed in steps} go to the trash: the
+ * others may do more on {@link hudson.model.Run#delete()}, so they are deleted that way.
+ */
+public final class BuildTrash {
+
+    private static final Logger LOGGER = Logger.getLogger(BuildTrash.class.getName());
+
+    /**
+     * The name of the trash directory in {@code $JENKINS_HOME}.
+     */
+    static final String TRASH_DIR = "purge-job-history-trash";
+
+    private BuildTrash() {
+    }
+
+    /**
+     * Returns the trash directory.
+     *
+     * @return the trash directory.
+     */
+    static File getRoot() {
+        return new File(Jenkins.get().getRootDir(), TRASH_DIR);
+    }
+
+    /**
+     * Moves a directory to the trash.
+     *
+     * @param dir the directory.
+     * @return {@code true} if the directory was moved, {@code false} if it can not be moved atomically.
+     * @throws IOException if something went wrong.
+     */
+    static boolean moveToTrash(File dir) throws IOException {
+        Path root = getRoot().toPath();
+        Files.createDirectories(root);
+        try {
+            Files.move(dir.toPath(), root.resolve(UUID.randomUUID().toString()), StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (AtomicMoveNotSupportedException e) {
+            LOGGER.log(Level.FINE, String.format("Can not move %s to %s atomically", dir, root), e);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the build directories moved to the trash by {@link BuildTrash}, on a low priority thread.
+ * Runs periodically, so trash left behind by a restart is reclaimed too.
+ * Deletions are paced by a {@link PurgeThrottle} with the default limits.
+ */
+@Extension
+public class BuildTrashReaper extends AsyncPeriodicWork {
+
+    /**
+     * Creates the reaper.
+     */
+    public BuildTrashReaper() {
+        super("Purge Job History trash reaper");
+    }
+
+    /**
+     * Starts emptying the trash now, unless it is already being emptied.
+     */
+    static void wakeUp() {
+        ExtensionList.lookupSingleton(BuildTrashReaper.class).run();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(10);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        File[] entries = BuildTrash.getRoot().listFiles();
+        if (entries == null || entries.length == 0) {
+            return;
+        }
+        Thread thread = Thread.currentThread();
+        int priority = thread.getPriority();
+        thread.setPriority(Thread.MIN_PRIORITY);
+        PurgeThrottle throttle = new PurgeThrottle(0, 0);
+        try {
+            for (File entry : entries) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                listener.getLogger().println("Deleting " + entry);
+                throttle.beforeBuild();
+                throttle.deleteRecursive(entry);
+            }
+        } finally {
+            thread.setPriority(priority);
+        }
+    }
+}
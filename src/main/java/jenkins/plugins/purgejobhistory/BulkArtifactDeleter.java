@@ -0,0 +1,85 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import java.io.IOException;
+import java.util.List;
+import javax.annotation.CheckForNull;
+import jenkins.model.ArtifactManager;
+import jenkins.util.SystemProperties;
+
+/**
+ * Deletes the artifacts of many builds at once, for an {@link ArtifactManager} that keeps them outside the build
+ * directory, such as in an object store where one request can remove the objects of a whole batch of builds.
+ * <p>
+ * A purge collects the builds it deletes whose artifacts are kept elsewhere, and hands their managers to the deleter
+ * that {@linkplain #handles(ArtifactManager) handles} them, in batches of {@link #getDefaultBatchSize()}, with
+ * {@link #getDefaultThreads()} batches in flight at once. Managers that no deleter handles are deleted one by one by
+ * {@link ArtifactManager#delete()}, on the same threads. A build is only removed once its artifacts are gone.
+ */
+public abstract class BulkArtifactDeleter implements ExtensionPoint {
+
+    /**
+     * The system property giving the number of builds whose artifacts are deleted per batch.
+     */
+    public static final String BATCH_SIZE_PROPERTY = BulkArtifactDeleter.class.getName() + ".batchSize";
+
+    /**
+     * The system property giving the number of batches deleted at the same time.
+     */
+    public static final String THREADS_PROPERTY = BulkArtifactDeleter.class.getName() + ".threads";
+
+    /**
+     * Returns whether this deleter can delete the artifacts of a manager.
+     *
+     * @param manager the artifact manager of a build, never a {@link jenkins.model.StandardArtifactManager}.
+     * @return whether this deleter can delete its artifacts.
+     */
+    public abstract boolean handles(ArtifactManager manager);
+
+    /**
+     * Deletes the artifacts of a batch of builds, as {@link ArtifactManager#delete()} would for each of them.
+     * If this throws, the purge falls back to deleting the artifacts of the batch one build at a time, so deleting
+     * artifacts which are already gone must not be an error.
+     *
+     * @param managers the artifact managers of the builds, all {@linkplain #handles(ArtifactManager) handled} by this
+     *                 deleter.
+     * @throws IOException          if the batch could not be deleted.
+     * @throws InterruptedException if interrupted.
+     */
+    public abstract void delete(List<ArtifactManager> managers) throws IOException, InterruptedException;
+
+    /**
+     * Returns the deleter handling an artifact manager.
+     *
+     * @param manager the artifact manager.
+     * @return the first deleter handling it, or {@code null} if none does.
+     */
+    @CheckForNull
+    public static BulkArtifactDeleter of(ArtifactManager manager) {
+        for (BulkArtifactDeleter deleter : ExtensionList.lookup(BulkArtifactDeleter.class)) {
+            if (deleter.handles(manager)) {
+                return deleter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of builds whose artifacts are deleted per batch.
+     *
+     * @return the number of builds whose artifacts are deleted per batch.
+     */
+    public static int getDefaultBatchSize() {
+        return Math.max(1, SystemProperties.getInteger(BATCH_SIZE_PROPERTY, 100));
+    }
+
+    /**
+     * Returns the number of batches deleted at the same time.
+     *
+     * @return the number of batches deleted at the same time.
+     */
+    public static int getDefaultThreads() {
+        return Math.max(1, SystemProperties.getInteger(THREADS_PROPERTY, 4));
+    }
+}
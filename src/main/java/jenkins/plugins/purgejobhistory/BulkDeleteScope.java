@@ -0,0 +1,167 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Util;
+import hudson.model.Job;
+import hudson.model.PermalinkProjectAction.Permalink;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.StandardArtifactManager;
+import jenkins.model.lazy.LazyBuildMixIn;
+
+/**
+ * Deletes many builds of one job, holding back what {@link Run#delete()} does around each deletion until the scope
+ * is closed, or every {@link #getLimit()} builds.
+ * <p>
+ * {@link Run#delete()} notifies {@link RunListener#onDeleted(Run)} for each build, and the listener of the built-in
+ * permalinks then looks for the next last build, last successful build and so on, and rewrites the
+ * {@code permalinks} file, each time the newest build is deleted. Deleting a long history from the newest build down
+ * thus walks back and rewrites the file once per build. Within a scope, builds are removed from their job and from
+ * disk the way {@link Run#delete()} does it, but the permalinks of the job are only resolved again once, from the
+ * builds left, when the scope is closed; then the listeners are notified of every build removed, which by then no
+ * longer moves any permalink. Listeners thus learn of a deletion after the build directory is gone.
+ * <p>
+ * Builds of jobs that do not load their builds lazily, and builds whose class overrides {@link Run#delete()}, are
+ * deleted by {@link Run#delete()} right away.
+ * A scope is meant for a single thread.
+ */
+public final class BulkDeleteScope implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(BulkDeleteScope.class.getName());
+
+    /**
+     * Whether builds of a class are deleted by {@link Run#delete()} itself.
+     */
+    private static final ClassValue<Boolean> INHERITS_DELETE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("delete").getDeclaringClass() == Run.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    /**
+     * The number of builds held before the listeners are notified, when not specified.
+     */
+    static final int DEFAULT_LIMIT = 1000;
+
+    /**
+     * The job.
+     */
+    private final Job<?, ?> job;
+
+    /**
+     * The number of builds held before the listeners are notified, which bounds the memory they take.
+     */
+    private final int limit;
+
+    /**
+     * The builds removed whose listeners are not notified yet, in the order they were removed.
+     */
+    private final List<Run<?, ?>> removed = new ArrayList<>();
+
+    /**
+     * Opens a scope.
+     *
+     * @param job   the job.
+     * @param limit the number of builds held before the listeners are notified.
+     */
+    BulkDeleteScope(Job<?, ?> job, int limit) {
+        this.job = job;
+        this.limit = Math.max(1, limit);
+    }
+
+    /**
+     * Returns whether a build can be removed in steps within a scope, rather than by {@link Run#delete()}.
+     *
+     * @param run the build.
+     * @return whether the build can be removed in steps.
+     */
+    public static boolean canRemove(Run<?, ?> run) {
+        return run.getParent() instanceof LazyBuildMixIn.LazyLoadingJob && INHERITS_DELETE.get(run.getClass());
+    }
+
+    /**
+     * Returns the number of builds held before the listeners are notified.
+     *
+     * @return the number of builds held before the listeners are notified.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Deletes a build of the job, as {@link Run#delete()} would but for the listeners and permalinks.
+     *
+     * @param run the build, which must not be running.
+     * @throws IOException if the build could not be deleted.
+     */
+    public void delete(Run<?, ?> run) throws IOException {
+        if (!canRemove(run)) {
+            run.delete();
+            return;
+        }
+        if (!(run.getArtifactManager() instanceof StandardArtifactManager)) {
+            run.deleteArtifacts();
+        }
+        File dir = run.getRootDir();
+        synchronized (run) {
+            // as Run.delete() does, so that the build is gone at once even if the deletion fails halfway
+            File tmp = new File(dir.getParentFile(), "." + dir.getName());
+            if (tmp.exists()) {
+                Util.deleteRecursive(tmp);
+            }
+            Util.deleteRecursive(dir.renameTo(tmp) ? tmp : dir);
+        }
+        removed(run);
+    }
+
+    /**
+     * Unregisters a build whose artifacts and directory are already gone from its job, and holds back the
+     * notification of its listeners.
+     *
+     * @param run a build that {@link #canRemove(Run) can be removed} in steps.
+     */
+    void removed(Run<?, ?> run) {
+        ((LazyBuildMixIn.LazyLoadingJob) job).getLazyBuildMixIn().removeRun(run);
+        removed.add(run);
+        if (removed.size() >= limit) {
+            notifyListeners();
+        }
+    }
+
+    /**
+     * Resolves the permalinks of the job again, once, then notifies the listeners of the builds removed so far.
+     */
+    private void notifyListeners() {
+        if (removed.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        for (Permalink permalink : job.getPermalinks()) {
+            permalink.resolve(job);
+        }
+        for (Run<?, ?> run : removed) {
+            RunListener.fireDeleted(run);
+        }
+        LOGGER.log(Level.FINE, "Notified the deletion of {0} builds of {1} in {2} ms", new Object[] {removed.size(),
+                job.getFullName(), (System.nanoTime() - start) / 1_000_000});
+        removed.clear();
+    }
+
+    /**
+     * Notifies the listeners of the builds removed since the last notification.
+     */
+    @Override
+    public void close() {
+        notifyListeners();
+    }
+}
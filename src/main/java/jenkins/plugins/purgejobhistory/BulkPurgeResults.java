@@ -0,0 +1,218 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.model.AbstractItem;
+import hudson.model.Job;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * What a purge of several items did to each of them, adding up the jobs purged below each item.
+ * Also picks the items matched that are to be purged. Fed from {@link PurgeProgress#jobFinished} and
+ * {@link PurgeProgress#jobFailed}, so possibly from several threads.
+ */
+public final class BulkPurgeResults {
+
+    /**
+     * The results, by full name of the item purged, in the order the items were given.
+     */
+    private final Map<String, ItemResult> items = new LinkedHashMap<>();
+
+    /**
+     * The items to purge: those matched that the current user may purge.
+     */
+    private final List<AbstractItem> toPurge = new ArrayList<>();
+
+    /**
+     * Prepares the results of a purge, and records the items matched that are not to be purged: those the current
+     * user may not purge, and those that are not jobs unless the purge recurses.
+     *
+     * @param items   the items matched, none below another one when recursing.
+     * @param recurse whether the purge recurses into folders.
+     */
+    public BulkPurgeResults(List<? extends AbstractItem> items, boolean recurse) {
+        for (AbstractItem item : items) {
+            ItemResult result = new ItemResult(item.getFullName());
+            this.items.put(item.getFullName(), result);
+            if (!PurgeJobHistory.canPurge(item)) {
+                result.skip(Messages.BulkPurgeResults_AccessDenied());
+            } else if (!recurse && !(item instanceof Job)) {
+                result.skip(Messages.BulkPurgeResults_NotAJob());
+            } else {
+                toPurge.add(item);
+            }
+        }
+    }
+
+    /**
+     * Returns the items to purge.
+     *
+     * @return the items matched that are to be purged.
+     */
+    public List<AbstractItem> getItemsToPurge() {
+        return Collections.unmodifiableList(toPurge);
+    }
+
+    /**
+     * Adds up a job that was purged.
+     *
+     * @param fullName the full name of the job.
+     * @param deleted  the number of builds deleted.
+     * @param kept     the number of builds left in place.
+     * @param bytes    the disk space reclaimed.
+     * @param millis   how long the job took.
+     */
+    public void jobFinished(String fullName, int deleted, int kept, long bytes, long millis) {
+        ItemResult result = itemOf(fullName);
+        if (result != null) {
+            synchronized (result) {
+                result.jobs++;
+                result.deleted += deleted;
+                result.kept += kept;
+                result.bytes += bytes;
+                result.millis += millis;
+            }
+        }
+    }
+
+    /**
+     * Records a job whose purge failed.
+     *
+     * @param fullName the full name of the job.
+     * @param cause    why it failed.
+     */
+    public void jobFailed(String fullName, Throwable cause) {
+        ItemResult result = itemOf(fullName);
+        if (result != null) {
+            synchronized (result) {
+                result.jobsFailed++;
+                if (result.error == null) {
+                    result.error = fullName + ": " + cause;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the item a job was purged as part of: the job itself, or its closest enclosing folder given.
+     */
+    @CheckForNull
+    private ItemResult itemOf(String fullName) {
+        for (String name = fullName; ; name = name.substring(0, name.lastIndexOf('/'))) {
+            ItemResult result = items.get(name);
+            if (result != null || name.indexOf('/') < 0) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Returns the result of each item as a JSON array, in the order the items were given.
+     * Each element has the {@code item}, its {@code status} ({@code purged}, {@code failed} or {@code skipped}),
+     * and the {@code jobs}, {@code jobsFailed}, {@code deleted}, {@code kept}, {@code bytes} and {@code millis} adding
+     * up the jobs purged below it, with the first {@code error} if any.
+     *
+     * @return the results as JSON.
+     */
+    public JSONArray toJSON() {
+        JSONArray array = new JSONArray();
+        for (ItemResult result : items.values()) {
+            array.add(result.toJSON());
+        }
+        return array;
+    }
+
+    /**
+     * The result of an item.
+     */
+    private static final class ItemResult {
+
+        /**
+         * The full name of the item.
+         */
+        private final String fullName;
+
+        /**
+         * The number of jobs purged.
+         */
+        private int jobs;
+
+        /**
+         * The number of jobs whose purge failed.
+         */
+        private int jobsFailed;
+
+        /**
+         * The number of builds deleted.
+         */
+        private long deleted;
+
+        /**
+         * The number of builds left in place.
+         */
+        private long kept;
+
+        /**
+         * The disk space reclaimed.
+         */
+        private long bytes;
+
+        /**
+         * The time the jobs took, added up.
+         */
+        private long millis;
+
+        /**
+         * Whether the item was not purged at all.
+         */
+        private boolean skipped;
+
+        /**
+         * The first error, if any.
+         */
+        @CheckForNull
+        private String error;
+
+        /**
+         * Creates the result of an item, before it is purged.
+         *
+         * @param fullName the full name of the item.
+         */
+        ItemResult(String fullName) {
+            this.fullName = fullName;
+        }
+
+        /**
+         * Records that the item is not purged.
+         *
+         * @param reason why it is not purged.
+         */
+        void skip(String reason) {
+            skipped = true;
+            error = reason;
+        }
+
+        /**
+         * Returns the result as JSON.
+         *
+         * @return the result as JSON.
+         */
+        synchronized JSONObject toJSON() {
+            return new JSONObject()
+                    .element("item", fullName)
+                    .element("status", skipped ? "skipped" : jobsFailed > 0 ? "failed" : "purged")
+                    .element("jobs", jobs)
+                    .element("jobsFailed", jobsFailed)
+                    .element("deleted", deleted)
+                    .element("kept", kept)
+                    .element("bytes", bytes)
+                    .element("millis", millis)
+                    .element("error", error);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.util.AtomicFileWriter;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Remembers the disk usage of build directories, so that estimating a purge does not walk every file of every
+ * build each time. An entry is trusted as long as the modification times of the directory and of its
+ * {@code build.xml} have not changed.
+ * The index is kept in {@code $JENKINS_HOME/purge-job-history-sizes.txt}, one {@code size stamp files path} line
+ * per build directory.
+ */
+@Extension
+public class DiskUsageIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(DiskUsageIndex.class.getName());
+
+    /**
+     * The name of the index file in {@code $JENKINS_HOME}.
+     */
+    static final String INDEX_FILE = "purge-job-history-sizes.txt";
+
+    /**
+     * The number of build directories measured at the same time by {@link #prefetch(Collection)}.
+     */
+    private static final int PREFETCH_THREADS =
+            Math.max(1, SystemProperties.getInteger(DiskUsageIndex.class.getName() + ".prefetchThreads", 4));
+
+    /**
+     * The threads measuring build directories, shared by every purge and stopped when idle.
+     */
+    private final ThreadPoolExecutor prefetcher;
+
+    /**
+     * The size, stamp and file count of build directories, by absolute path. Loaded on first use.
+     */
+    private volatile Map<String, long[]> entries;
+
+    /**
+     * Whether {@link #entries} changed since it was last saved.
+     */
+    private volatile boolean dirty;
+
+    /**
+     * Creates the index.
+     */
+    public DiskUsageIndex() {
+        prefetcher = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "PurgeJobHistory disk usage"));
+        prefetcher.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the index.
+     *
+     * @return the index.
+     */
+    public static DiskUsageIndex get() {
+        return ExtensionList.lookupSingleton(DiskUsageIndex.class);
+    }
+
+    /**
+     * Returns the disk usage of a build directory, walking it only if it changed since it was last measured.
+     *
+     * @param dir the build directory.
+     * @return the number of bytes used by the files below the directory.
+     */
+    public long sizeOf(File dir) {
+        return entryOf(dir)[0];
+    }
+
+    private long[] entryOf(File dir) {
+        Map<String, long[]> entries = getEntries();
+        String path = dir.getAbsolutePath();
+        long stamp = stampOf(dir);
+        if (stamp == 0) {
+            // deleted behind our back, by log rotation or a user
+            if (entries.remove(path) != null) {
+                dirty = true;
+            }
+            return new long[3];
+        }
+        long[] entry = entries.get(path);
+        if (entry != null && entry[1] == stamp) {
+            return entry;
+        }
+        long[] usage = measure(dir);
+        entry = new long[] {usage[0], stamp, usage[1]};
+        entries.put(path, entry);
+        dirty = true;
+        return entry;
+    }
+
+    /**
+     * Returns the last known disk usage of a directory without walking it, for directories already moved away.
+     *
+     * @param dir the former path of the build directory.
+     * @return the number of bytes last measured, or {@code 0} if unknown.
+     */
+    public long cachedSizeOf(File dir) {
+        long[] entry = getEntries().get(dir.getAbsolutePath());
+        return entry == null ? 0 : entry[0];
+    }
+
+    /**
+     * Returns the last known number of files in a directory without walking it, for directories deleted by code that
+     * does not count them.
+     *
+     * @param dir the build directory.
+     * @return the number of regular files last counted below the directory, or {@code 0} if unknown.
+     */
+    public long cachedFileCountOf(File dir) {
+        long[] entry = getEntries().get(dir.getAbsolutePath());
+        return entry == null ? 0 : entry[2];
+    }
+
+    /**
+     * Measures the build directories not measured yet, on a few threads of their own, so that the disk usage of a
+     * whole chunk of builds costs about as long as the largest of them without taking the common pool.
+     * If interrupted, returns early with the interrupt flag set, leaving the others to be measured on lookup.
+     *
+     * @param dirs the build directories.
+     */
+    public void prefetch(Collection<File> dirs) {
+        if (dirs.size() <= 1) {
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(dirs.size());
+        for (File dir : dirs) {
+            futures.add(prefetcher.submit(() -> sizeOf(dir)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // measuring is best effort, and catches what it can throw
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Forgets a deleted build directory.
+     *
+     * @param dir the build directory.
+     */
+    public void remove(File dir) {
+        if (getEntries().remove(dir.getAbsolutePath()) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the index if it changed. Deleted directories are dropped as they are {@link #remove(File) removed} or
+     * looked up, so writing does not touch them.
+     *
+     * @throws IOException if the index can not be written.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        Map<String, long[]> entries = getEntries();
+        AtomicFileWriter writer = new AtomicFileWriter(getFile().toPath(), StandardCharsets.UTF_8);
+        try {
+            PrintWriter out = new PrintWriter(writer);
+            for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+                out.print(entry.getValue()[0]);
+                out.print(' ');
+                out.print(entry.getValue()[1]);
+                out.print(' ');
+                out.print(entry.getValue()[2]);
+                out.print(' ');
+                out.println(entry.getKey());
+            }
+            out.flush();
+            writer.commit();
+        } finally {
+            writer.abort();
+        }
+    }
+
+    /**
+     * Writes the index if it changed, logging failures.
+     */
+    void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the disk usage index", e);
+        }
+    }
+
+    private Map<String, long[]> getEntries() {
+        Map<String, long[]> entries = this.entries;
+        if (entries == null) {
+            synchronized (this) {
+                entries = this.entries;
+                if (entries == null) {
+                    entries = load();
+                    this.entries = entries;
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static Map<String, long[]> load() {
+        Map<String, long[]> entries = new ConcurrentHashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(getFile().toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split(" ", 4);
+                if (fields.length < 4) {
+                    continue;
+                }
+                try {
+                    entries.put(fields[3], new long[] {Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2])});
+                } catch (NumberFormatException e) {
+                    LOGGER.fine(String.format("Ignoring malformed disk usage entry: %s", line));
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // nothing measured yet
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load the disk usage index, starting afresh", e);
+        }
+        return entries;
+    }
+
+    /**
+     * Computes the disk space used by a directory and the number of files in it. Best effort: unreadable entries are
+     * ignored.
+     *
+     * @param dir the directory.
+     * @return the total size of the regular files below {@code dir}, and their number.
+     */
+    static long[] measure(File dir) {
+        final long[] usage = new long[2];
+        try {
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    usage[0] += attrs.size();
+                    usage[1]++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // best effort
+        }
+        return usage;
+    }
+
+    /**
+     * Changes whenever a file is added to or removed from the build directory, or the build record is rewritten.
+     */
+    private static long stampOf(File dir) {
+        return Math.max(dir.lastModified(), new File(dir, "build.xml").lastModified());
+    }
+
+    private static File getFile() {
+        return new File(Jenkins.get().getRootDir(), INDEX_FILE);
+    }
+}
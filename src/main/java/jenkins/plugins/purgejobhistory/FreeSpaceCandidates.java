@@ -0,0 +1,122 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.model.Job;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The builds worth deleting to reclaim some disk space, ranked by size times age so that big old builds go first and
+ * a recent build is only deleted when it is much bigger than the older ones.
+ * Only the best ranked builds whose sizes add up to twice the space wanted are kept, in a heap whose root is the worst
+ * of them, so ranking every build of a large instance takes memory in proportion to the builds deleted, not to the
+ * history. The margin leaves room for builds that turn out to be kept forever, running or not deletable.
+ */
+final class FreeSpaceCandidates {
+
+    /**
+     * Worst ranked first.
+     */
+    private static final Comparator<Candidate> BY_SCORE = Comparator.comparingDouble(candidate -> candidate.score);
+
+    /**
+     * The candidates kept so far, worst ranked at the root.
+     */
+    private final PriorityQueue<Candidate> heap = new PriorityQueue<>(BY_SCORE);
+
+    /**
+     * The space the candidates must add up to, beyond the worst of them.
+     */
+    private final long budget;
+
+    /**
+     * The total size of the candidates in {@link #heap}.
+     */
+    private long total;
+
+    /**
+     * Creates an empty ranking.
+     *
+     * @param wanted the disk space to reclaim.
+     */
+    FreeSpaceCandidates(long wanted) {
+        this.budget = wanted > Long.MAX_VALUE / 2 ? Long.MAX_VALUE : wanted * 2;
+    }
+
+    /**
+     * Ranks a build, dropping the worst candidates no longer needed to reach the budget.
+     *
+     * @param job    the job.
+     * @param number the build number.
+     * @param size   the disk space used by the build.
+     * @param age    how long ago the build directory was last modified, in milliseconds.
+     */
+    void offer(Job<?, ?> job, int number, long size, long age) {
+        if (size <= 0) {
+            return;
+        }
+        Candidate candidate = new Candidate(job, number, size, (double) size * Math.max(1, age));
+        if (total >= budget && heap.comparator().compare(candidate, heap.peek()) <= 0) {
+            return;
+        }
+        heap.add(candidate);
+        total += size;
+        while (total - heap.peek().size >= budget) {
+            total -= heap.poll().size;
+        }
+    }
+
+    /**
+     * Returns whether no build was ranked.
+     *
+     * @return whether no build was ranked.
+     */
+    boolean isEmpty() {
+        return heap.isEmpty();
+    }
+
+    /**
+     * Returns the candidates, best ranked first.
+     *
+     * @return the candidates, best ranked first.
+     */
+    List<Candidate> inOrder() {
+        List<Candidate> list = new ArrayList<>(heap);
+        list.sort(BY_SCORE.reversed());
+        return list;
+    }
+
+    /**
+     * A build worth deleting.
+     */
+    static final class Candidate {
+
+        /**
+         * The job.
+         */
+        final Job<?, ?> job;
+
+        /**
+         * The build number.
+         */
+        final int number;
+
+        /**
+         * The disk space used by the build.
+         */
+        final long size;
+
+        /**
+         * The rank of the build: its size times its age.
+         */
+        final double score;
+
+        Candidate(Job<?, ?> job, int number, long size, double score) {
+            this.job = job;
+            this.number = number;
+            this.size = size;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.AbstractItem;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.model.Jenkins;
+import org.springframework.security.access.AccessDeniedException;
+
+/**
+ * The full names of every item of the instance, kept in memory and in order, so that name patterns are resolved
+ * without walking the item tree each time.
+ * The names are listed once when Jenkins has loaded its items, then kept up to date as items are created, copied,
+ * renamed, moved and deleted.
+ * <p>
+ * Glob patterns are matched against the whole full name: {@code *} matches any part of a name, {@code **} any part
+ * of a full name, slashes included, and {@code ?} a single character other than a slash. Only the names starting with
+ * the literal text before the first wildcard are looked at. Regular expressions must also match the whole full name.
+ */
+@Extension
+public final class ItemNameIndex extends ItemListener {
+
+    private static final Logger LOGGER = Logger.getLogger(ItemNameIndex.class.getName());
+
+    /**
+     * The wildcards of glob patterns.
+     */
+    private static final Pattern WILDCARD = Pattern.compile("[*?]");
+
+    /**
+     * The full names of the items, in order, so that the names below a folder or sharing a prefix are contiguous.
+     */
+    private final NavigableSet<String> names = new ConcurrentSkipListSet<>();
+
+    /**
+     * Whether the names were listed since Jenkins loaded its items.
+     */
+    private volatile boolean loaded;
+
+    /**
+     * Returns the singleton instance.
+     *
+     * @return the singleton instance.
+     */
+    public static ItemNameIndex get() {
+        return ExtensionList.lookupSingleton(ItemNameIndex.class);
+    }
+
+    /**
+     * Returns the full names of the items matching some patterns, whether or not the current user can see them.
+     *
+     * @param patterns the glob patterns or regular expressions.
+     * @param regex    whether the patterns are regular expressions rather than globs.
+     * @return the matching full names, in order.
+     * @throws IllegalArgumentException if a pattern is not a valid regular expression.
+     */
+    public NavigableSet<String> match(Collection<String> patterns, boolean regex) {
+        if (!loaded) {
+            rebuild();
+        }
+        NavigableSet<String> matches = new TreeSet<>();
+        for (String pattern : patterns) {
+            Pattern compiled = regex ? Pattern.compile(pattern) : toRegex(pattern);
+            String prefix = regex ? "" : literalPrefix(pattern);
+            for (String name : names.tailSet(prefix, true)) {
+                if (!name.startsWith(prefix)) {
+                    break;
+                }
+                if (compiled.matcher(name).matches()) {
+                    matches.add(name);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the items matching some patterns that the current user can see.
+     *
+     * @param patterns the glob patterns or regular expressions.
+     * @param regex    whether the patterns are regular expressions rather than globs.
+     * @param recurse  whether to leave out the items below another item matched, which a recursive purge reaches
+     *                 anyway.
+     * @return the matching items, in the order of their full names.
+     * @throws IllegalArgumentException if a pattern is not a valid regular expression.
+     */
+    public List<AbstractItem> findItems(Collection<String> patterns, boolean regex, boolean recurse) {
+        NavigableSet<String> matches = match(patterns, regex);
+        Jenkins jenkins = Jenkins.get();
+        List<AbstractItem> items = new ArrayList<>();
+        for (String name : recurse ? withoutDescendants(matches) : matches) {
+            try {
+                AbstractItem item = jenkins.getItemByFullName(name, AbstractItem.class);
+                if (item != null) {
+                    items.add(item);
+                }
+            } catch (AccessDeniedException e) {
+                // discoverable but not readable, as good as invisible
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Removes the names below another name of the set, whose items a recursive purge reaches anyway.
+     *
+     * @param fullNames the full names.
+     * @return the full names not below another one, in order.
+     */
+    static List<String> withoutDescendants(Set<String> fullNames) {
+        List<String> roots = new ArrayList<>();
+        for (String name : fullNames) {
+            boolean nested = false;
+            for (int slash = name.indexOf('/'); slash > 0 && !nested; slash = name.indexOf('/', slash + 1)) {
+                nested = fullNames.contains(name.substring(0, slash));
+            }
+            if (!nested) {
+                roots.add(name);
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Translates a glob pattern into a regular expression.
+     *
+     * @param glob the glob pattern.
+     * @return the regular expression matching the same full names.
+     */
+    static Pattern toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c != '*' && c != '?') {
+                literal.append(c);
+                continue;
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+            if (c == '?') {
+                regex.append("[^/]");
+            } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append("[^/]*");
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * Returns the text every full name matching a glob pattern starts with.
+     */
+    private static String literalPrefix(String glob) {
+        Matcher wildcard = WILDCARD.matcher(glob);
+        return wildcard.find() ? glob.substring(0, wildcard.start()) : glob;
+    }
+
+    /**
+     * Lists the names of every item again.
+     */
+    private synchronized void rebuild() {
+        Jenkins jenkins = Jenkins.get();
+        List<String> all = new ArrayList<>();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            for (Item item : new ItemTraversal(jenkins.getItems(), true)) {
+                all.add(item.getFullName());
+            }
+        }
+        names.clear();
+        names.addAll(all);
+        loaded = true;
+        LOGGER.fine(String.format("Indexed the names of %d items", all.size()));
+    }
+
+    /**
+     * Returns the names below an item.
+     */
+    private NavigableSet<String> below(String fullName) {
+        // '0' is the character after '/'
+        return names.subSet(fullName + '/', true, fullName + '0', false);
+    }
+
+    /**
+     * Removes a name and the names below it.
+     */
+    private void removeTree(String fullName) {
+        names.remove(fullName);
+        below(fullName).clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onLoaded() {
+        rebuild();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onCreated(Item item) {
+        names.add(item.getFullName());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onCopied(Item src, Item item) {
+        names.add(item.getFullName());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void onDeleted(Item item) {
+        removeTree(item.getFullName());
+    }
+
+    /**
+     * {@inheritDoc}
+     * Moves the names below the item along with it; the items below are notified as well, which then changes
+     * nothing.
+     */
+    @Override
+    public synchronized void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        List<String> moved = new ArrayList<>(below(oldFullName));
+        removeTree(oldFullName);
+        names.add(newFullName);
+        for (String name : moved) {
+            names.add(newFullName + name.substring(oldFullName.length()));
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.annotation.CheckForNull;
+
+/**
+ * Walks an item tree depth first, visiting every item exactly once.
+ * Children are listed one {@link ItemGroup} at a time, when the traversal reaches it, so the cost is linear in the
+ * number of items and the memory is bounded by the depth of the tree, not its size.
+ * Any {@link ItemGroup} is descended into: folders, multibranch projects, organization folders&hellip;
+ */
+public final class ItemTraversal implements Iterable<Item> {
+
+    /**
+     * Orders siblings the way Jenkins and folders store them.
+     */
+    private static final Comparator<Item> BY_NAME = Comparator.comparing(Item::getName, String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * The items to start from.
+     */
+    private final Collection<? extends Item> roots;
+
+    /**
+     * Whether to descend into {@link ItemGroup}s.
+     */
+    private final boolean recurse;
+
+    /**
+     * The path of the item to resume after, or {@code null} to visit the roots in the given order.
+     */
+    @CheckForNull
+    private final String[] resumeAfter;
+
+    /**
+     * Creates a traversal.
+     *
+     * @param roots   the items to start from.
+     * @param recurse whether to descend into {@link ItemGroup}s, otherwise only the roots are visited.
+     */
+    public ItemTraversal(Collection<? extends Item> roots, boolean recurse) {
+        this(roots, recurse, null);
+    }
+
+    private ItemTraversal(Collection<? extends Item> roots, boolean recurse, @CheckForNull String[] resumeAfter) {
+        this.roots = roots;
+        this.recurse = recurse;
+        this.resumeAfter = resumeAfter;
+    }
+
+    /**
+     * Returns a traversal of the same items in a stable order, siblings sorted by name, which starts right after an
+     * item visited by an earlier traversal.
+     * Only the items on the path to that item are looked at to find where to start, so a purge done in slices does
+     * not walk the part of the tree already purged. The item does not have to exist anymore.
+     *
+     * @param fullName the full name of the last item already visited, or {@code null} to start from the beginning.
+     * @return the traversal.
+     */
+    public ItemTraversal inNameOrderAfter(@CheckForNull String fullName) {
+        return new ItemTraversal(roots, recurse, fullName == null ? new String[0] : fullName.split("/"));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Iterator<Item> iterator() {
+        if (resumeAfter != null) {
+            return new OrderedIterator();
+        }
+        return new Iterator<Item>() {
+            private final Deque<Iterator<? extends Item>> stack = new ArrayDeque<>();
+
+            {
+                stack.push(roots.iterator());
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (!stack.isEmpty() && !stack.peek().hasNext()) {
+                    stack.pop();
+                }
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Item next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Item item = stack.peek().next();
+                if (recurse && item instanceof ItemGroup) {
+                    stack.push(((ItemGroup<?>) item).getItems().iterator());
+                }
+                return item;
+            }
+        };
+    }
+
+    private static Iterator<? extends Item> sorted(Collection<? extends Item> items) {
+        List<Item> list = new ArrayList<>(items);
+        list.sort(BY_NAME);
+        return list.iterator();
+    }
+
+    /**
+     * Visits siblings by name, skipping everything up to and including {@link #resumeAfter}.
+     */
+    private final class OrderedIterator implements Iterator<Item> {
+
+        /**
+         * The siblings left to visit at each level, deepest first.
+         */
+        private final Deque<Iterator<? extends Item>> stack = new ArrayDeque<>();
+
+        /**
+         * How many levels of the stack, from the top level, are still on the path to {@link #resumeAfter}.
+         */
+        private int onPath;
+
+        /**
+         * The next item, if already found.
+         */
+        @CheckForNull
+        private Item next;
+
+        OrderedIterator() {
+            stack.push(sorted(roots));
+            onPath = resumeAfter.length > 0 ? 1 : 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                while (!stack.isEmpty() && !stack.peek().hasNext()) {
+                    stack.pop();
+                    onPath = Math.min(onPath, stack.size());
+                }
+                if (stack.isEmpty()) {
+                    return false;
+                }
+                Item item = stack.peek().next();
+                int level = stack.size() - 1;
+                boolean descend = recurse && item instanceof ItemGroup;
+                if (onPath == level + 1) {
+                    int cmp = String.CASE_INSENSITIVE_ORDER.compare(item.getName(), resumeAfter[level]);
+                    if (cmp < 0) {
+                        // visited by the earlier traversal, with everything below it
+                        continue;
+                    }
+                    if (cmp == 0) {
+                        // visited by the earlier traversal, but maybe not everything below it
+                        if (descend) {
+                            stack.push(sorted(((ItemGroup<?>) item).getItems()));
+                            onPath = level < resumeAfter.length - 1 ? level + 2 : level + 1;
+                        }
+                        continue;
+                    }
+                    onPath = level;
+                }
+                if (descend) {
+                    stack.push(sorted(((ItemGroup<?>) item).getItems()));
+                }
+                next = item;
+            }
+            return true;
+        }
+
+        @Override
+        public Item next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Item item = next;
+            next = null;
+            return item;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.security.ACL;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.annotation.CheckForNull;
+import jenkins.model.Jenkins;
+
+/**
+ * Remembers whether the current user may delete the builds of one job, so that purging a long history does not
+ * evaluate the same access control list once per build.
+ * <p>
+ * Builds whose class does not override {@link Run#getACL()} use the access control list of their job, so a single
+ * check of the job answers for all of them. Builds that do override it are checked against their own access control
+ * list, and the answer is remembered per list, so builds sharing the same list are still checked once.
+ * The cache is meant to live as long as the purge of the job, on a single thread and under a single identity.
+ */
+public final class PermissionCache {
+
+    /**
+     * Whether builds of a class use the access control list of their job.
+     */
+    private static final ClassValue<Boolean> INHERITS_JOB_ACL = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return type.getMethod("getACL").getDeclaringClass() == Run.class;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    };
+
+    /**
+     * The job.
+     */
+    private final Job<?, ?> job;
+
+    /**
+     * Whether the user may delete builds of the job, once checked.
+     */
+    @CheckForNull
+    private Boolean jobPermitted;
+
+    /**
+     * Whether the user may delete builds, by the access control lists of builds which have their own.
+     */
+    private final Map<ACL, Boolean> permittedByAcl = new IdentityHashMap<>();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param job the job whose builds are checked.
+     */
+    public PermissionCache(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    /**
+     * Returns whether builds of a class are governed by the access control list of their job.
+     *
+     * @param type the class of the builds.
+     * @return whether builds of this class use the access control list of their job.
+     */
+    public static boolean inheritsJobAcl(Class<?> type) {
+        return INHERITS_JOB_ACL.get(type);
+    }
+
+    /**
+     * Returns whether the current user may delete a build of the job.
+     *
+     * @param run the build.
+     * @return whether the current user may delete the build.
+     */
+    public boolean canDelete(Run<?, ?> run) {
+        if (inheritsJobAcl(run.getClass())) {
+            return canDeleteBuilds();
+        }
+        ACL acl = run.getACL();
+        Boolean permitted = permittedByAcl.get(acl);
+        if (permitted == null) {
+            permitted = acl.hasPermission2(Jenkins.getAuthentication2(), Run.DELETE);
+            permittedByAcl.put(acl, permitted);
+        }
+        return permitted;
+    }
+
+    /**
+     * Returns whether the current user may delete the builds of the job which use its access control list.
+     *
+     * @return whether the current user may delete these builds.
+     */
+    public boolean canDeleteBuilds() {
+        if (jobPermitted == null) {
+            jobPermitted = job.hasPermission(Run.DELETE);
+        }
+        return jobPermitted;
+    }
+}
@@ -0,0 +1,307 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import jenkins.model.Jenkins;
+import jenkins.util.AtmostOneTaskExecutor;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * The audit trail of purges, in {@code $JENKINS_HOME/logs/purge-job-history/audit.log}, one tab separated line
+ * per record, each starting with its time:
+ * <ul>
+ * <li>{@code <time> JOB <job> <user> <deleted> <kept for result> <kept for permission> <kept forever>
+ * <kept building> <bytes> <millis>} once per job purged;</li>
+ * <li>{@code <time> BUILD <job> <number> DELETED|RESULT|PERMISSION|KEEP_FOREVER|BUILDING <bytes>} once per build
+ * deleted or kept, only when {@link #PER_BUILD} is set.</li>
+ * </ul>
+ * Lines are formatted and written by a single background thread, and the file rolls over once it reaches
+ * {@link #MAX_FILE_SIZE}, keeping {@link #MAX_FILES} old files. Dry runs are not audited.
+ */
+@Extension
+public class PurgeAuditLog {
+
+    private static final Logger LOGGER = Logger.getLogger(PurgeAuditLog.class.getName());
+
+    /**
+     * Whether every build deleted or kept is audited, and not only every job.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* non-final for script console */ boolean PER_BUILD =
+            SystemProperties.getBoolean(PurgeAuditLog.class.getName() + ".perBuild");
+
+    /**
+     * The size beyond which the audit log rolls over.
+     */
+    static final long MAX_FILE_SIZE =
+            SystemProperties.getLong(PurgeAuditLog.class.getName() + ".maxFileSize", 10L * 1024 * 1024);
+
+    /**
+     * The number of rolled over files kept.
+     */
+    static final int MAX_FILES =
+            Math.max(1, SystemProperties.getInteger(PurgeAuditLog.class.getName() + ".maxFiles", 5));
+
+    /**
+     * The records not written yet. Producers block when it is full, so that no record is lost.
+     */
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(
+            Math.max(1, SystemProperties.getInteger(PurgeAuditLog.class.getName() + ".queueSize", 8192)));
+
+    /**
+     * The number of records queued so far.
+     */
+    private long queued;
+
+    /**
+     * The number of records written so far.
+     */
+    private long written;
+
+    /**
+     * Writes the records on a pooled thread, one batch at a time.
+     */
+    private final AtmostOneTaskExecutor<Void> writer = new AtmostOneTaskExecutor<>(this::drain);
+
+    /**
+     * Returns the audit log.
+     *
+     * @return the audit log.
+     */
+    public static PurgeAuditLog get() {
+        return ExtensionList.lookupSingleton(PurgeAuditLog.class);
+    }
+
+    /**
+     * Returns the current audit log file.
+     *
+     * @return the current audit log file.
+     */
+    public static File getFile() {
+        return new File(Jenkins.get().getRootDir(), "logs/purge-job-history/audit.log");
+    }
+
+    /**
+     * Audits the purge of a job.
+     *
+     * @param fullName the full name of the job.
+     * @param user     the user purging.
+     * @param deleted  the number of builds deleted.
+     * @param skipped  the number of builds kept, indexed by {@link PurgeMetrics.SkipReason#ordinal()}.
+     * @param bytes    the disk space reclaimed.
+     * @param millis   how long the purge of the job took.
+     * @throws InterruptedIOException if interrupted while the queue is full.
+     */
+    void job(String fullName, String user, int deleted, int[] skipped, long bytes, long millis)
+            throws InterruptedIOException {
+        enqueue(new JobEntry(fullName, user, deleted, skipped.clone(), bytes, millis));
+    }
+
+    /**
+     * Audits a build deleted or kept. Callers should only build the record when {@link #PER_BUILD} is set.
+     *
+     * @param fullName the full name of the job.
+     * @param number   the build number.
+     * @param reason   why the build was kept, or {@code null} if it was deleted.
+     * @param bytes    the disk space reclaimed.
+     * @throws InterruptedIOException if interrupted while the queue is full.
+     */
+    void build(String fullName, int number, @CheckForNull PurgeMetrics.SkipReason reason, long bytes)
+            throws InterruptedIOException {
+        enqueue(new BuildEntry(fullName, number, reason, bytes));
+    }
+
+    /**
+     * Waits until every record audited so far is written.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit    the unit of {@code timeout}.
+     * @return {@code true} if the records were written, {@code false} if the wait timed out.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public synchronized boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long target = queued;
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (written < target) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    private void enqueue(Entry entry) throws InterruptedIOException {
+        synchronized (this) {
+            queued++;
+        }
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                queued--;
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while auditing the purge");
+        } finally {
+            writer.submit();
+        }
+    }
+
+    /**
+     * Writes the queued records, in batches, until there are none left.
+     */
+    private Void drain() {
+        List<Entry> batch = new ArrayList<>();
+        StringBuilder line = new StringBuilder(128);
+        while (queue.drainTo(batch) > 0) {
+            try {
+                File file = getFile();
+                rollIfNeeded(file);
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8))) {
+                    for (Entry entry : batch) {
+                        line.setLength(0);
+                        line.append(Instant.ofEpochMilli(entry.timestamp)).append('\t');
+                        entry.format(line);
+                        out.append(line).append('\n');
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, String.format("Failed to write %d purge audit records", batch.size()), e);
+            }
+            synchronized (this) {
+                written += batch.size();
+                notifyAll();
+            }
+            batch.clear();
+        }
+        return null;
+    }
+
+    private static void rollIfNeeded(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory()) {
+            Files.createDirectories(dir.toPath());
+            return;
+        }
+        if (file.length() < MAX_FILE_SIZE) {
+            return;
+        }
+        for (int i = MAX_FILES - 1; i >= 1; i--) {
+            File older = new File(dir, file.getName() + "." + i);
+            if (older.exists()) {
+                Files.move(older.toPath(), new File(dir, file.getName() + "." + (i + 1)).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file.toPath(), new File(dir, file.getName() + ".1").toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * A line of the audit log, formatted on the writer thread.
+     */
+    private abstract static class Entry {
+
+        /**
+         * When the record was made.
+         */
+        final long timestamp = System.currentTimeMillis();
+
+        /**
+         * The full name of the job.
+         */
+        final String fullName;
+
+        Entry(String fullName) {
+            this.fullName = fullName;
+        }
+
+        /**
+         * Appends the fields after the timestamp.
+         */
+        abstract void format(StringBuilder line);
+    }
+
+    /**
+     * The outcome of the purge of a job.
+     */
+    private static final class JobEntry extends Entry {
+
+        private final String user;
+
+        private final int deleted;
+
+        private final int[] skipped;
+
+        private final long bytes;
+
+        private final long millis;
+
+        JobEntry(String fullName, String user, int deleted, int[] skipped, long bytes, long millis) {
+            super(fullName);
+            this.user = user;
+            this.deleted = deleted;
+            this.skipped = skipped;
+            this.bytes = bytes;
+            this.millis = millis;
+        }
+
+        @Override
+        void format(StringBuilder line) {
+            line.append("JOB\t").append(fullName).append('\t').append(user).append('\t').append(deleted);
+            for (int count : skipped) {
+                line.append('\t').append(count);
+            }
+            line.append('\t').append(bytes).append('\t').append(millis);
+        }
+    }
+
+    /**
+     * The outcome of one build.
+     */
+    private static final class BuildEntry extends Entry {
+
+        private final int number;
+
+        @CheckForNull
+        private final PurgeMetrics.SkipReason reason;
+
+        private final long bytes;
+
+        BuildEntry(String fullName, int number, @CheckForNull PurgeMetrics.SkipReason reason, long bytes) {
+            super(fullName);
+            this.number = number;
+            this.reason = reason;
+            this.bytes = bytes;
+        }
+
+        @Override
+        void format(StringBuilder line) {
+            line.append("BUILD\t").append(fullName).append('\t').append(number).append('\t')
+                    .append(reason == null ? "DELETED" : reason.name()).append('\t').append(bytes);
+        }
+    }
+}
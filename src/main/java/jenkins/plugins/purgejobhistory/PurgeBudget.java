@@ -0,0 +1,104 @@
+package jenkins.plugins.purgejobhistory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a purge should stop before it is done: when someone cancels it through its {@link PurgeProgress},
+ * when the thread that started it is interrupted, as a CLI command is when its client goes away, or when it has
+ * used up its wall clock or CPU time budget.
+ * The purge asks between items and between builds, from any of its threads; the first reason found is recorded in
+ * the progress, so every thread stops at its next check.
+ */
+final class PurgeBudget {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Receives the reason to stop.
+     */
+    private final PurgeProgress progress;
+
+    /**
+     * The thread that started the purge.
+     */
+    private final Thread caller;
+
+    /**
+     * When the time budget runs out, in {@link System#nanoTime()}, if {@link #timeBudgetSeconds} is positive.
+     */
+    private final long deadline;
+
+    /**
+     * The wall clock time budget in seconds, or {@code 0} for no limit.
+     */
+    private final int timeBudgetSeconds;
+
+    /**
+     * The CPU time budget in seconds, or {@code 0} for no limit.
+     */
+    private final int cpuBudgetSeconds;
+
+    /**
+     * The CPU time used by the purging threads so far, in nanoseconds, as of their last check.
+     */
+    private final AtomicLong cpuNanos = new AtomicLong();
+
+    /**
+     * The CPU time of each purging thread at its last check.
+     */
+    private final ThreadLocal<long[]> lastCpuNanos = new ThreadLocal<>();
+
+    /**
+     * Starts the budget of a purge started by the current thread.
+     *
+     * @param options  the settings of the purge.
+     * @param progress the progress of the purge.
+     */
+    PurgeBudget(PurgeOptions options, PurgeProgress progress) {
+        this.progress = progress;
+        this.caller = Thread.currentThread();
+        this.timeBudgetSeconds = options.getTimeBudgetSeconds();
+        this.deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeBudgetSeconds);
+        this.cpuBudgetSeconds = THREADS.isCurrentThreadCpuTimeSupported() ? options.getCpuBudgetSeconds() : 0;
+    }
+
+    /**
+     * Returns whether the purge should stop, recording why in the progress the first time.
+     *
+     * @return whether the purge should stop.
+     */
+    boolean exhausted() {
+        if (progress.isStopped()) {
+            return true;
+        }
+        if (caller.isInterrupted()) {
+            progress.stop(Messages.PurgeBudget_Interrupted());
+        } else if (timeBudgetSeconds > 0 && System.nanoTime() - deadline >= 0) {
+            progress.stop(Messages.PurgeBudget_TimeBudget(timeBudgetSeconds));
+        } else if (cpuBudgetSeconds > 0 && chargeCpu() >= TimeUnit.SECONDS.toNanos(cpuBudgetSeconds)) {
+            progress.stop(Messages.PurgeBudget_CpuBudget(cpuBudgetSeconds));
+        }
+        return progress.isStopped();
+    }
+
+    /**
+     * Adds the CPU time the current thread used since its last check.
+     *
+     * @return the CPU time used by the purge so far, in nanoseconds.
+     */
+    private long chargeCpu() {
+        long now = THREADS.getCurrentThreadCpuTime();
+        long[] last = lastCpuNanos.get();
+        if (last == null) {
+            // the first check of this thread: charge from now on
+            lastCpuNanos.set(new long[] {now});
+            return cpuNanos.get();
+        }
+        long used = now - last[0];
+        last[0] = now;
+        return cpuNanos.addAndGet(Math.max(0, used));
+    }
+}
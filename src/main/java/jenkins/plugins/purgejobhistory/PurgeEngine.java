@@ -0,0 +1,1131 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.AbstractItem;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.PermalinkProjectAction.Permalink;
+import hudson.model.Run;
+import hudson.model.RunMap;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.RunList;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import jenkins.model.Jenkins;
+import jenkins.model.StandardArtifactManager;
+import jenkins.model.lazy.LazyBuildMixIn;
+import jenkins.util.SystemProperties;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Purges the build history below an item, spreading independent {@link Job}s over a bounded pool of workers.
+ * A job is only ever purged by one worker at a time, even when several purges overlap.
+ */
+public class PurgeEngine {
+
+    private static final Logger LOGGER = Logger.getLogger(PurgeEngine.class.getName());
+
+    /**
+     * The system property giving the number of workers when the purge does not specify it.
+     */
+    public static final String PARALLELISM_PROPERTY = PurgeEngine.class.getName() + ".parallelism";
+
+    /**
+     * The system property giving the most workers a purge may ask for.
+     */
+    public static final String MAX_PARALLELISM_PROPERTY = PurgeEngine.class.getName() + ".maxParallelism";
+
+    /**
+     * The system property giving the number of builds handled per chunk by streaming purges.
+     */
+    public static final String CHUNK_SIZE_PROPERTY = PurgeEngine.class.getName() + ".chunkSize";
+
+    /**
+     * Whether workers should be virtual threads when the JVM supports them.
+     */
+    private static final boolean VIRTUAL_THREADS =
+            SystemProperties.getBoolean(PurgeEngine.class.getName() + ".virtualThreads");
+
+    /**
+     * The full names of the jobs being purged right now, by any purge.
+     */
+    private static final Set<String> ACTIVE_JOBS = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The number of bytes in a gigabyte.
+     */
+    private static final long GIGABYTE = 1024L * 1024 * 1024;
+
+    /**
+     * The settings of the purge.
+     */
+    private final PurgeOptions options;
+
+    /**
+     * Receives the progress of the purge.
+     */
+    private final PurgeProgress progress;
+
+    /**
+     * Paces the deletions of all the workers.
+     */
+    private final PurgeThrottle throttle;
+
+    /**
+     * The counters and timers of all purges.
+     */
+    private final PurgeMetrics metrics;
+
+    /**
+     * The audit trail of all purges.
+     */
+    private final PurgeAuditLog audit;
+
+    /**
+     * The identity the workers run as.
+     */
+    private final Authentication authentication;
+
+    /**
+     * Records how far the purge went, or {@code null} if it cannot be resumed.
+     */
+    @CheckForNull
+    private final PurgeJournal journal;
+
+    /**
+     * The next build numbers to reset once the traversal leaves the subtree of their jobs.
+     */
+    private final BuildNumberResets resets;
+
+    /**
+     * Tells when the purge should stop before it is done.
+     */
+    private final PurgeBudget budget;
+
+    /**
+     * Deletes the artifacts kept outside the build directories, for many builds at once.
+     */
+    private final ArtifactDeletions artifacts;
+
+    /**
+     * Creates an engine running as the current user.
+     *
+     * @param options  the settings of the purge.
+     * @param progress receives the progress of the purge.
+     */
+    public PurgeEngine(PurgeOptions options, PurgeProgress progress) {
+        this(options, progress, null);
+    }
+
+    /**
+     * Creates an engine running as the current user, which skips the work a journal records as done and records
+     * the work it does in it.
+     *
+     * @param options  the settings of the purge.
+     * @param progress receives the progress of the purge.
+     * @param journal  the journal, or {@code null} if the purge cannot be resumed.
+     */
+    PurgeEngine(PurgeOptions options, PurgeProgress progress, @CheckForNull PurgeJournal journal) {
+        this.options = options;
+        this.progress = progress;
+        this.metrics = PurgeMetrics.get();
+        this.audit = PurgeAuditLog.get();
+        this.authentication = Jenkins.getAuthentication2();
+        this.journal = journal;
+        this.resets = new BuildNumberResets(progress, metrics, journal);
+        this.budget = new PurgeBudget(options, progress);
+        this.throttle = new PurgeThrottle(options.getBuildsPerSecond(), options.getFilesPerSecond(), budget);
+        this.artifacts = new ArtifactDeletions(authentication);
+    }
+
+    /**
+     * Returns the number of workers used when the purge does not specify it.
+     *
+     * @return the number of workers used when the purge does not specify it.
+     */
+    public static int getDefaultParallelism() {
+        return Math.min(getMaxParallelism(), Math.max(1, SystemProperties.getInteger(PARALLELISM_PROPERTY, 1)));
+    }
+
+    /**
+     * Returns the most workers a purge may ask for, four per processor unless configured otherwise, so that nobody
+     * allowed to purge a single job can make the controller start thousands of threads.
+     *
+     * @return the most workers a purge may ask for.
+     */
+    public static int getMaxParallelism() {
+        return Math.max(1, SystemProperties.getInteger(MAX_PARALLELISM_PROPERTY,
+                4 * Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the number of builds handled per chunk when the purge does not specify it.
+     *
+     * @return the number of builds handled per chunk when the purge does not specify it.
+     */
+    public static int getDefaultChunkSize() {
+        return Math.max(1, SystemProperties.getInteger(CHUNK_SIZE_PROPERTY, 1000));
+    }
+
+    /**
+     * Purges the build history of every item of the instance.
+     *
+     * @throws IOException if something went wrong.
+     */
+    public void purgeAll() throws IOException {
+        LOGGER.info("Purge Build History for All Items. This can take long");
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            LOGGER.warning("Failed to get Jenkins Instance - Quitting");
+            return;
+        }
+        traverse(jenkins.getItems());
+    }
+
+    /**
+     * Purges the build history of an item.
+     *
+     * @param item the item to purge.
+     * @throws IOException if something went wrong.
+     */
+    public void purge(AbstractItem item) throws IOException {
+        LOGGER.info(String.format("Purge started for %s - %s", item.getFullName(), options));
+        traverse(Collections.singleton(item));
+    }
+
+    /**
+     * Purges the build history of several items at once, sharing the workers, throttle and budget of the purge.
+     *
+     * @param items the items to purge, none below another one when recursing.
+     * @throws IOException if something went wrong.
+     */
+    public void purge(Collection<? extends AbstractItem> items) throws IOException {
+        LOGGER.info(String.format("Purge started for %d items - %s", items.size(), options));
+        traverse(items);
+    }
+
+    private void traverse(Collection<? extends Item> roots) throws IOException {
+        metrics.purgeStarted();
+        if (options.getFreeSpaceGigabytes() > 0) {
+            try {
+                purgeUntilFree(roots);
+            } finally {
+                resets.flush();
+                DiskUsageIndex.get().saveQuietly();
+            }
+            return;
+        }
+        Set<Item> subtrees = Collections.newSetFromMap(new IdentityHashMap<>());
+        subtrees.addAll(roots);
+        boolean interrupted = false;
+        try (Workers workers = new Workers()) {
+            for (Item item : new ItemTraversal(roots, options.isRecurse())) {
+                if (budget.exhausted()) {
+                    // keep walking, only to count what is left
+                    if (item instanceof Job && (journal == null || !journal.isDone(item.getFullName()))) {
+                        progress.jobRemaining();
+                    }
+                    continue;
+                }
+                if (subtrees.contains(item)) {
+                    // the traversal left the previous subtree, whose jobs are purged or being purged
+                    resets.flush();
+                }
+                progress.itemScanned();
+                metrics.itemTraversed();
+                if (item instanceof Job) {
+                    if (journal != null && journal.isDone(item.getFullName())) {
+                        LOGGER.fine(String.format("%s was purged before the restart - Skipping", item.getFullName()));
+                        continue;
+                    }
+                    workers.submit((Job) item);
+                } else if (options.isRecurse() && item instanceof ItemGroup) {
+                    LOGGER.info(String.format("Recursing into %s", item.getFullName()));
+                } else {
+                    LOGGER.warning(String.format("%s is not a Job. Skipping.", item.getFullName()));
+                }
+            }
+            // an interrupted caller still waits for the workers to wind down, then gets its interrupt back
+            interrupted = budget.exhausted() && Thread.interrupted();
+            workers.await();
+        } finally {
+            artifacts.close();
+            resets.flush();
+            if (useTrash() && !options.isDryRun()) {
+                BuildTrashReaper.wakeUp();
+            }
+            DiskUsageIndex.get().saveQuietly();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (progress.isStopped()) {
+                LOGGER.info(String.format("Purge stopped: %s - %d jobs remaining", progress.getStopReason(),
+                        progress.getJobsRemaining()));
+            }
+        }
+    }
+
+    private void purgeJob(Job job) throws IOException {
+        String fullName = job.getFullName();
+        if (!ACTIVE_JOBS.add(fullName)) {
+            LOGGER.info(String.format("%s is already being purged - Skipping", fullName));
+            return;
+        }
+        try {
+            LOGGER.log(Level.FINE, options.isDryRun() ? "Estimating builds for {0}" : "Deleting builds for {0}",
+                    fullName);
+            JobPurge purge = new JobPurge(job);
+            if (!purge.run()) {
+                progress.jobRemaining();
+            } else if (options.isReset() && !options.isDryRun()) {
+                resets.add(job, purge.nextBuildNumber);
+            } else if (journal != null) {
+                journal.jobDone(fullName);
+            }
+        } finally {
+            ACTIVE_JOBS.remove(fullName);
+        }
+    }
+
+    /**
+     * Deletes the builds selected below the roots, biggest and oldest first across all jobs, until the file store of
+     * {@code $JENKINS_HOME} has {@link PurgeOptions#getFreeSpaceGigabytes()} usable, or no build is left to delete.
+     * Each pass ranks the builds from their cached sizes, then deletes the best ranked one by one, checking the usable
+     * space after each. Builds already looked at, deleted or not, are left out of the next passes. Jobs are not
+     * handed to workers, so that the deletions follow the ranking.
+     */
+    private void purgeUntilFree(Collection<? extends Item> roots) throws IOException {
+        FileStore store = Files.getFileStore(Jenkins.get().getRootDir().toPath());
+        long target = options.getFreeSpaceGigabytes() * GIGABYTE;
+        long initial = store.getUsableSpace();
+        LOGGER.info(String.format("Purging until %s are free, %s are free now",
+                Functions.humanReadableByteSize(target), Functions.humanReadableByteSize(initial)));
+        Map<Job, JobPurge> purges = new LinkedHashMap<>();
+        Set<String> handled = new HashSet<>();
+        DiskUsageIndex index = DiskUsageIndex.get();
+        try {
+            boolean firstPass = true;
+            while (!budget.exhausted()) {
+                // a dry run frees nothing, so count what it would reclaim instead
+                long usable = options.isDryRun() ? initial + progress.getBytesReclaimed() : store.getUsableSpace();
+                if (usable >= target) {
+                    break;
+                }
+                FreeSpaceCandidates candidates = new FreeSpaceCandidates(target - usable);
+                long now = System.currentTimeMillis();
+                for (Item item : new ItemTraversal(roots, options.isRecurse())) {
+                    if (firstPass) {
+                        progress.itemScanned();
+                        metrics.itemTraversed();
+                    }
+                    if (!(item instanceof Job)) {
+                        continue;
+                    }
+                    Job job = (Job) item;
+                    if (firstPass) {
+                        progress.jobScanned();
+                    }
+                    File buildDir = job.getBuildDir();
+                    int[] numbers = BuildRecord.listBuildNumbers(buildDir);
+                    int[] range = options.getFilter().selectRange(buildDir, numbers);
+                    for (int i = range[0]; i < range[1]; i++) {
+                        if (handled.contains(job.getFullName() + '#' + numbers[i])) {
+                            continue;
+                        }
+                        File dir = new File(buildDir, Integer.toString(numbers[i]));
+                        candidates.offer(job, numbers[i], index.sizeOf(dir), now - dir.lastModified());
+                    }
+                }
+                firstPass = false;
+                boolean deletedAny = false;
+                for (FreeSpaceCandidates.Candidate candidate : candidates.inOrder()) {
+                    if (budget.exhausted()) {
+                        break;
+                    }
+                    usable = options.isDryRun() ? initial + progress.getBytesReclaimed() : store.getUsableSpace();
+                    if (usable >= target) {
+                        break;
+                    }
+                    JobPurge purge = purges.get(candidate.job);
+                    if (purge == null && !purges.containsKey(candidate.job)) {
+                        purge = ACTIVE_JOBS.add(candidate.job.getFullName()) ? new JobPurge(candidate.job) : null;
+                        if (purge == null) {
+                            LOGGER.info(String.format("%s is already being purged - Skipping",
+                                    candidate.job.getFullName()));
+                        }
+                        purges.put(candidate.job, purge);
+                    }
+                    if (purge != null && purge.deleteNumber(candidate.number)) {
+                        deletedAny = true;
+                    }
+                    handled.add(candidate.job.getFullName() + '#' + candidate.number);
+                }
+                if (!deletedAny && !progress.isStopped()) {
+                    LOGGER.warning(String.format("No more builds to delete, only %s are free",
+                            Functions.humanReadableByteSize(store.getUsableSpace())));
+                    break;
+                }
+            }
+        } finally {
+            purges.values().removeIf(purge -> purge == null);
+            for (Map.Entry<Job, JobPurge> entry : purges.entrySet()) {
+                entry.getValue().scope.close();
+                ACTIVE_JOBS.remove(entry.getKey().getFullName());
+            }
+        }
+        for (Map.Entry<Job, JobPurge> entry : purges.entrySet()) {
+            entry.getValue().summarize();
+            if (options.isReset() && !options.isDryRun()) {
+                resets.add(entry.getKey(), entry.getValue().nextBuildNumber);
+            }
+        }
+    }
+
+    /**
+     * Whether deleted builds go to the trash. Not when purging until some space is free, since the trash only
+     * frees the space later.
+     */
+    private boolean useTrash() {
+        return options.isTrash() && options.getFreeSpaceGigabytes() <= 0;
+    }
+
+    private static ThreadFactory workerThreadFactory() {
+        if (VIRTUAL_THREADS) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.log(Level.FINE, "Virtual threads are not available, using platform threads", e);
+            }
+        }
+        return new NamingThreadFactory(new DaemonThreadFactory(), "PurgeJobHistory worker");
+    }
+
+    /**
+     * The purge of the builds of one job, done by a single worker.
+     * It works on a cut of the history taken when it starts: only builds numbered below {@link #cut} are deleted, so
+     * builds started during the purge, and those started after the oldest build still running, are left alone without
+     * being looked at. The purge takes no lock on the job; it only meets new builds on the short locks of the
+     * {@link RunMap} when a build is removed, and those of the job when its next build number is reset.
+     */
+    private final class JobPurge {
+
+        /**
+         * The job.
+         */
+        private final Job job;
+
+        /**
+         * The builds directory of the job.
+         */
+        private final File buildDir;
+
+        /**
+         * The number of builds of this job deleted, or that would be deleted by a dry run.
+         */
+        private int deleted;
+
+        /**
+         * The disk space used by these builds.
+         */
+        private long bytes;
+
+        /**
+         * The lowest build number handled before a restart, or {@code 0}.
+         */
+        private final int watermark;
+
+        /**
+         * Whether the builds of the job may be deleted.
+         */
+        private final PermissionCache permissions;
+
+        /**
+         * The number of builds of this job kept, by {@link PurgeMetrics.SkipReason#ordinal()}.
+         */
+        private final int[] skipped = new int[PurgeMetrics.SkipReason.values().length];
+
+        /**
+         * When the purge of the job started, in {@link System#nanoTime()}.
+         */
+        private final long startNanos = System.nanoTime();
+
+        /**
+         * Whether the purge stopped before handling every build of the job.
+         */
+        private boolean stopped;
+
+        /**
+         * The next build number of the job when the purge started. Every build started since is numbered from here.
+         */
+        final int nextBuildNumber;
+
+        /**
+         * Whether builds whose artifacts are kept elsewhere are collected, to delete their artifacts in batches.
+         * Not when purging until some space is free, which checks the space after each build.
+         */
+        private final boolean deferArtifacts = !options.isDryRun() && options.getFreeSpaceGigabytes() <= 0;
+
+        /**
+         * The builds whose artifacts are still to be deleted before they are removed, newest first.
+         */
+        private final List<Run<?, ?>> deferred = new ArrayList<>();
+
+        /**
+         * The build to record in the journal once the deferred builds are removed, or {@code 0}.
+         */
+        private int deferredWatermark;
+
+        /**
+         * Whether builds were deleted without being loaded, which leaves the permalinks of the job to resolve again.
+         */
+        private boolean deletedUnloaded;
+
+        /**
+         * Holds back the listeners and permalink updates of the builds removed, so that they happen once per chunk.
+         */
+        private final BulkDeleteScope scope;
+
+        /**
+         * Only builds numbered below this are deleted: the oldest build running when the purge started, or
+         * {@link #nextBuildNumber} if none was.
+         */
+        private final int cut;
+
+        JobPurge(Job job) {
+            this.job = job;
+            this.buildDir = job.getBuildDir();
+            this.permissions = new PermissionCache(job);
+            this.watermark = journal == null ? 0 : journal.getWatermark(job.getFullName());
+            // read first, so that a build starting while the running builds are looked at is above the cut anyway
+            this.nextBuildNumber = job.getNextBuildNumber();
+            this.cut = oldestRunning(nextBuildNumber);
+            this.scope = new BulkDeleteScope(job, options.getChunkSize() > 0 ? options.getChunkSize()
+                    : getDefaultChunkSize());
+        }
+
+        /**
+         * Returns the number of the oldest build running. Running builds are always in memory, so only the builds
+         * loaded are looked at, without loading any from disk.
+         *
+         * @param next the next build number, returned if no build is running.
+         */
+        private int oldestRunning(int next) {
+            Collection<?> builds = job instanceof LazyBuildMixIn.LazyLoadingJob
+                    ? ((LazyBuildMixIn.LazyLoadingJob) job).getLazyBuildMixIn()._getRuns().getLoadedBuilds().values()
+                    : job.getBuilds();
+            int oldest = next;
+            for (Object build : builds) {
+                Run run = (Run) build;
+                if (run.getNumber() < oldest && run.isBuilding()) {
+                    oldest = run.getNumber();
+                }
+            }
+            if (oldest < next) {
+                LOGGER.log(Level.FINE, "{0} #{1} is running - only purging the builds before it",
+                        new Object[] {job.getFullName(), oldest});
+            }
+            return oldest;
+        }
+
+        /**
+         * Purges the builds of the job, unless the purge is asked to stop.
+         *
+         * @return whether every build was handled.
+         */
+        boolean run() throws IOException {
+            try {
+                return purge();
+            } finally {
+                scope.close();
+            }
+        }
+
+        private boolean purge() throws IOException {
+            progress.jobScanned();
+            RetentionFilter filter = options.getFilter();
+            if (!options.isStreaming() && filter.isEmpty() && watermark == 0) {
+                if (options.isDryRun()) {
+                    int[] numbers = BuildRecord.listBuildNumbers(buildDir);
+                    this.prefetchSizes(numbers, 0, numbers.length);
+                }
+                this.deleteBuilds(job.getBuilds());
+            } else {
+                int[] numbers = BuildRecord.listBuildNumbers(buildDir);
+                int[] range = filter.selectRange(buildDir, numbers);
+                while (range[0] < range[1] && numbers[range[0]] >= cut) {
+                    range[0]++;
+                }
+                if (watermark > 0) {
+                    LOGGER.info(String.format("Resuming %s below build #%d", job.getFullName(), watermark));
+                    while (range[0] < range[1] && numbers[range[0]] >= watermark) {
+                        range[0]++;
+                    }
+                }
+                if (options.isStreaming() && job instanceof LazyBuildMixIn.LazyLoadingJob) {
+                    this.deleteBuildsStreaming(numbers, range[0], range[1]);
+                } else {
+                    if (options.isDryRun()) {
+                        this.prefetchSizes(numbers, range[0], range[1]);
+                    }
+                    for (int i = range[0]; i < range[1] && !stopping(); i++) {
+                        Run run = load(numbers[i]);
+                        if (run != null) {
+                            deleteBuild(run);
+                        }
+                        handled(numbers[i]);
+                    }
+                }
+            }
+            flushDeferred();
+            if (options.isDryRun() && deleted > 0) {
+                progress.jobEstimated(job.getFullName(), deleted, bytes);
+            }
+            summarize();
+            return !stopped;
+        }
+
+        /**
+         * Whether the purge was asked to stop, checked before each build.
+         */
+        private boolean stopping() {
+            if (!stopped && budget.exhausted()) {
+                LOGGER.info(String.format("Stopping the purge of %s: %s", job.getFullName(),
+                        progress.getStopReason()));
+                stopped = true;
+            }
+            return stopped;
+        }
+
+        /**
+         * Deletes one build, if it is still there and may be deleted.
+         *
+         * @return whether the build was deleted.
+         */
+        boolean deleteNumber(int number) throws IOException {
+            if (number >= cut) {
+                return false;
+            }
+            Run run = load(number);
+            if (run == null) {
+                return false;
+            }
+            int before = deleted;
+            deleteBuild(run);
+            return deleted > before;
+        }
+
+        /**
+         * Logs one line for the whole job, and audits it.
+         */
+        private void summarize() throws IOException {
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            int kept = 0;
+            StringBuilder reasons = new StringBuilder();
+            for (PurgeMetrics.SkipReason reason : PurgeMetrics.SkipReason.values()) {
+                int count = skipped[reason.ordinal()];
+                if (count > 0) {
+                    kept += count;
+                    reasons.append(reasons.length() == 0 ? " (" : ", ").append(count).append(' ')
+                            .append(reason.name().toLowerCase(Locale.ENGLISH));
+                }
+            }
+            if (reasons.length() > 0) {
+                reasons.append(')');
+            }
+            LOGGER.info(String.format("%s %d builds of %s, reclaiming %s, and kept %d%s in %d ms",
+                    options.isDryRun() ? "Would delete" : "Deleted", deleted, job.getFullName(),
+                    Functions.humanReadableByteSize(bytes), kept, reasons, millis));
+            progress.jobFinished(job.getFullName(), deleted, kept, bytes, millis);
+            if (!options.isDryRun()) {
+                audit.job(job.getFullName(), authentication.getName(), deleted, skipped, bytes, millis);
+            }
+        }
+
+        /**
+         * Measures the builds {@code numbers[from, to)} in parallel ahead of a dry run going through them one by one.
+         */
+        private void prefetchSizes(int[] numbers, int from, int to) {
+            List<File> dirs = new ArrayList<>(to - from);
+            for (int i = from; i < to; i++) {
+                dirs.add(new File(buildDir, Integer.toString(numbers[i])));
+            }
+            DiskUsageIndex.get().prefetch(dirs);
+        }
+
+        private void deleteBuilds(RunList runList) throws IOException {
+            Iterator iterator = runList.iterator();
+            while (!stopping()) {
+                long start = System.nanoTime();
+                if (!iterator.hasNext()) {
+                    break;
+                }
+                Run run = (Run) iterator.next();
+                metrics.runLoaded(System.nanoTime() - start);
+                if (run.getNumber() >= cut) {
+                    // newest first, so only the few builds since the cut are skipped
+                    continue;
+                }
+                deleteBuild(run);
+                handled(run.getNumber());
+            }
+        }
+
+        /**
+         * Walks the build numbers found on disk rather than the {@link RunList}, so that builds which are not in
+         * memory are deleted from their {@link BuildRecord} without being loaded.
+         * Builds in memory, and thus all running builds, still go through the {@link Run} API.
+         * Builds are handled in descending chunks of {@link PurgeOptions#getChunkSize()}, and the references of a
+         * chunk are dropped before the next one is resolved, so the heap used by a purge does not grow with the
+         * history.
+         * The run listeners are not told of the builds deleted without loading them, but the permalinks of the job
+         * are resolved again once at the end, so that none is left pointing at such a build.
+         */
+        private void deleteBuildsStreaming(int[] numbers, int from, int to) throws IOException {
+            try {
+                deleteChunks(numbers, from, to);
+            } finally {
+                if (deletedUnloaded) {
+                    for (Permalink permalink : job.getPermalinks()) {
+                        permalink.resolve(job);
+                    }
+                }
+            }
+        }
+
+        private void deleteChunks(int[] numbers, int from, int to) throws IOException {
+            RunMap runMap = ((LazyBuildMixIn.LazyLoadingJob) job).getLazyBuildMixIn()._getRuns();
+            int chunkSize = options.getChunkSize() > 0 ? options.getChunkSize() : getDefaultChunkSize();
+            List<Object> chunk = new ArrayList<>(Math.max(0, Math.min(chunkSize, to - from)));
+            List<File> dirs = new ArrayList<>(chunk.size());
+            Boolean skipLoading = null;
+            for (int start = from; start < to && !stopping(); start += chunkSize) {
+                int end = Math.min(to, start + chunkSize);
+                for (int i = start; i < end; i++) {
+                    dirs.add(new File(buildDir, Integer.toString(numbers[i])));
+                    Run run = (Run) runMap.getLoadedBuilds().get(numbers[i]);
+                    if (run != null) {
+                        chunk.add(run);
+                        continue;
+                    }
+                    if (skipLoading == null) {
+                        skipLoading = canSkipLoading();
+                    }
+                    BuildRecord record = skipLoading ? read(numbers[i]) : null;
+                    if (record == null || record.hasExternalArtifacts()) {
+                        run = load(numbers[i]);
+                        if (run != null) {
+                            chunk.add(run);
+                        }
+                        continue;
+                    }
+                    chunk.add(record);
+                }
+                if (options.isDryRun()) {
+                    // deletions measure the builds as they delete them
+                    DiskUsageIndex.get().prefetch(dirs);
+                }
+                for (Object build : chunk) {
+                    if (stopping()) {
+                        break;
+                    }
+                    if (build instanceof Run) {
+                        deleteBuild((Run) build);
+                        handled(((Run) build).getNumber());
+                    } else {
+                        deleteRecord(runMap, (BuildRecord) build);
+                        handled(((BuildRecord) build).getNumber());
+                    }
+                }
+                chunk.clear();
+                dirs.clear();
+            }
+        }
+
+        @CheckForNull
+        private Run load(int number) {
+            long start = System.nanoTime();
+            Run run = job.getBuildByNumber(number);
+            metrics.runLoaded(System.nanoTime() - start);
+            return run;
+        }
+
+        @CheckForNull
+        private BuildRecord read(int number) throws IOException {
+            long start = System.nanoTime();
+            BuildRecord record = BuildRecord.read(buildDir, number);
+            metrics.recordRead(System.nanoTime() - start);
+            return record;
+        }
+
+        private void deleteRecord(RunMap runMap, BuildRecord record) throws IOException {
+            if (!options.getFilter().matchesResult(record.getResult())) {
+                skipped(record.getNumber(), PurgeMetrics.SkipReason.RESULT);
+                return;
+            }
+            if (!options.isForce() && record.isKeepLog()) {
+                LOGGER.log(Level.FINE, "Build {0} #{1} is kept forever - Skipping",
+                        new Object[] {job.getFullName(), record.getNumber()});
+                skipped(record.getNumber(), PurgeMetrics.SkipReason.KEEP_FOREVER);
+                return;
+            }
+            deleteUnloaded(runMap, record.getNumber());
+        }
+
+        /**
+         * Whether the builds of the job may be deleted without loading them: the current user may delete builds of
+         * the job, and its builds do not override the access control list of their job.
+         */
+        private boolean canSkipLoading() {
+            long start = System.nanoTime();
+            boolean permitted = permissions.canDeleteBuilds();
+            metrics.permissionChecked(System.nanoTime() - start);
+            if (!permitted) {
+                return false;
+            }
+            Run sample = job.getLastBuild();
+            return sample != null && PermissionCache.inheritsJobAcl(sample.getClass());
+        }
+
+        private void deleteUnloaded(RunMap runMap, int number) throws IOException {
+            File dir = new File(buildDir, Integer.toString(number));
+            DiskUsageIndex index = DiskUsageIndex.get();
+            if (options.isDryRun()) {
+                deleted(number, index.sizeOf(dir), 0);
+                return;
+            }
+            LOGGER.log(Level.FINE, "Deleting build {0} #{1}", new Object[] {job.getFullName(), number});
+            if (!throttle.beforeBuild()) {
+                return;
+            }
+            long size;
+            long nanos;
+            long start = System.nanoTime();
+            if (useTrash() && BuildTrash.moveToTrash(dir)) {
+                nanos = System.nanoTime() - start;
+                size = index.cachedSizeOf(dir);
+            } else {
+                // same dance as Run.delete(), so that the build is gone at once even if the deletion fails halfway
+                File tmp = new File(buildDir, "." + number);
+                if (tmp.exists()) {
+                    Util.deleteRecursive(tmp);
+                }
+                boolean renamed = dir.renameTo(tmp);
+                nanos = System.nanoTime() - start;
+                long[] usage = throttle.deleteRecursive(renamed ? tmp : dir);
+                nanos += usage[0];
+                size = usage[1];
+            }
+            index.remove(dir);
+            deletedUnloaded = true;
+            Run loaded = (Run) runMap.getLoadedBuilds().get(number);
+            if (loaded != null) {
+                // loaded by someone else while we were deleting it
+                runMap.removeValue(loaded);
+            }
+            deleted(number, size, nanos);
+        }
+
+        private void deleteBuild(Run run) throws IOException {
+            if (!options.getFilter().matchesResult(run.getResult())) {
+                skipped(run.getNumber(), PurgeMetrics.SkipReason.RESULT);
+                return;
+            }
+            long start = System.nanoTime();
+            boolean permitted = permissions.canDelete(run);
+            metrics.permissionChecked(System.nanoTime() - start);
+            if (!permitted) {
+                LOGGER.log(Level.FINE, "Access denied for deleting {0} - Skipping", run);
+                skipped(run.getNumber(), PurgeMetrics.SkipReason.PERMISSION);
+                return;
+            }
+            boolean force = options.isForce();
+            if (!force && run.isKeepLog()) {
+                LOGGER.log(Level.FINE, "Build {0} is kept forever - Skipping", run);
+                skipped(run.getNumber(), PurgeMetrics.SkipReason.KEEP_FOREVER);
+                return;
+            }
+            if( !run.isBuilding()) {
+                deleteRun(run);
+            } else {
+                skipped(run.getNumber(), PurgeMetrics.SkipReason.BUILDING);
+            }
+        }
+
+        private void deleteRun(Run run) throws IOException {
+            File dir = run.getRootDir();
+            DiskUsageIndex index = DiskUsageIndex.get();
+            if (options.isDryRun()) {
+                deleted(run.getNumber(), index.sizeOf(dir), 0);
+                return;
+            }
+            LOGGER.log(Level.FINE, "Deleting build {0}", run);
+            if (!throttle.beforeBuild()) {
+                return;
+            }
+            if (deferArtifacts && ArtifactDeletions.isDeferrable(run)) {
+                deferred.add(run);
+                if (deferred.size() >= artifacts.capacity()) {
+                    flushDeferred();
+                }
+                return;
+            }
+            if (BulkDeleteScope.canRemove(run)) {
+                if (!(run.getArtifactManager() instanceof StandardArtifactManager)) {
+                    run.deleteArtifacts();
+                }
+                removeBuild(run);
+                return;
+            }
+            // Run.delete() walks the directory on its own: only count what the index already knows of it
+            long size = index.cachedSizeOf(dir);
+            long nanos = delete(run, index.cachedFileCountOf(dir));
+            index.remove(dir);
+            deleted(run.getNumber(), size, nanos);
+        }
+
+        /**
+         * Deletes the artifacts of the builds collected so far, then removes the builds whose artifacts are gone.
+         * The builds whose artifacts could not be deleted are left alone, and the job fails as
+         * {@link Run#delete()} would have.
+         */
+        private void flushDeferred() throws IOException {
+            if (deferred.isEmpty()) {
+                return;
+            }
+            List<Run<?, ?>> runs = new ArrayList<>(deferred);
+            deferred.clear();
+            Map<Run<?, ?>, IOException> failures = artifacts.delete(runs);
+            IOException failure = null;
+            for (Run<?, ?> run : runs) {
+                IOException e = failures.get(run);
+                if (e == null) {
+                    removeBuild(run);
+                } else if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (deferredWatermark > 0) {
+                int number = deferredWatermark;
+                deferredWatermark = 0;
+                handled(number);
+            }
+        }
+
+        /**
+         * Removes a build whose artifacts are already deleted, as the rest of {@link Run#delete()} would, leaving the
+         * listeners and permalinks to the {@link #scope}.
+         */
+        private void removeBuild(Run<?, ?> run) throws IOException {
+            File dir = run.getRootDir();
+            DiskUsageIndex index = DiskUsageIndex.get();
+            long size;
+            long nanos;
+            // out of the job before its directory goes, so that a failure cannot leave it there without one
+            scope.removed(run);
+            long start = System.nanoTime();
+            synchronized (run) {
+                if (useTrash() && BuildTrash.moveToTrash(dir)) {
+                    nanos = System.nanoTime() - start;
+                    size = index.cachedSizeOf(dir);
+                } else {
+                    File tmp = new File(dir.getParentFile(), "." + dir.getName());
+                    if (tmp.exists()) {
+                        Util.deleteRecursive(tmp);
+                    }
+                    boolean renamed = dir.renameTo(tmp);
+                    nanos = System.nanoTime() - start;
+                    long[] usage = throttle.deleteRecursive(renamed ? tmp : dir);
+                    nanos += usage[0];
+                    size = usage[1];
+                }
+            }
+            index.remove(dir);
+            deleted(run.getNumber(), size, nanos);
+        }
+
+        /**
+         * Deletes a build the usual way, and accounts for its files with the throttle.
+         *
+         * @return how long the deletion took, in nanoseconds.
+         */
+        private long delete(Run run, long files) throws IOException {
+            long start = System.nanoTime();
+            run.delete();
+            long nanos = System.nanoTime() - start;
+            throttle.afterDelete(files, nanos);
+            return nanos;
+        }
+
+        private void deleted(int number, long size, long nanos) throws IOException {
+            deleted++;
+            bytes += size;
+            progress.buildDeleted(size);
+            if (!options.isDryRun()) {
+                metrics.buildDeleted(size, nanos);
+                if (PurgeAuditLog.PER_BUILD) {
+                    audit.build(job.getFullName(), number, null, size);
+                }
+            }
+        }
+
+        /**
+         * Records in the journal that the builds down to this one have been handled.
+         */
+        private void handled(int number) throws IOException {
+            if (stopping()) {
+                // the build may have been left alone on the way out: look at it again when resuming
+                return;
+            }
+            if (!deferred.isEmpty()) {
+                // not before the builds above it are actually removed
+                deferredWatermark = number;
+                return;
+            }
+            if (journal != null) {
+                journal.watermark(job.getFullName(), number);
+            }
+        }
+
+        private void skipped(int number, PurgeMetrics.SkipReason reason) throws IOException {
+            skipped[reason.ordinal()]++;
+            progress.buildSkipped();
+            metrics.buildSkipped(reason);
+            if (PurgeAuditLog.PER_BUILD && !options.isDryRun()) {
+                audit.build(job.getFullName(), number, reason, 0);
+            }
+        }
+    }
+
+    /**
+     * Hands jobs to at most {@link PurgeOptions#getParallelism()} workers, blocking the traversal while all are busy.
+     * With a single worker, jobs are purged on the calling thread. A job that fails does not stop the others.
+     */
+    private final class Workers implements AutoCloseable {
+
+        /**
+         * The number of workers.
+         */
+        private final int parallelism;
+
+        /**
+         * One permit per idle worker.
+         */
+        private final Semaphore idle;
+
+        /**
+         * The threads, or {@code null} when purging on the calling thread.
+         */
+        @CheckForNull
+        private final ExecutorService executor;
+
+        /**
+         * The first failure of a worker, rethrown once every job has been handled.
+         */
+        private final AtomicReference<IOException> failure = new AtomicReference<>();
+
+        Workers() {
+            // options resumed from a journal were not checked against the current limit
+            this.parallelism = options.getParallelism() > 0
+                    ? Math.min(options.getParallelism(), getMaxParallelism()) : getDefaultParallelism();
+            this.idle = new Semaphore(parallelism);
+            this.executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism, workerThreadFactory()) : null;
+        }
+
+        void submit(final Job job) throws IOException {
+            if (executor == null) {
+                run(job);
+                return;
+            }
+            try {
+                idle.acquire();
+            } catch (InterruptedException e) {
+                throw (IOException) new InterruptedIOException("Interrupted while waiting for a worker").initCause(e);
+            }
+            try {
+                executor.execute(() -> {
+                    try (ACLContext ctx = ACL.as2(authentication)) {
+                        run(job);
+                    } catch (InterruptedIOException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        idle.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                idle.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Purges a job, recording its failure so that the other jobs are still purged.
+         * Only an interruption stops the purge at once.
+         */
+        private void run(Job job) throws InterruptedIOException {
+            try {
+                purgeJob(job);
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, String.format("Failed to purge %s", job.getFullName()), e);
+                progress.jobFailed(job.getFullName(), e);
+                failure.compareAndSet(null, e instanceof IOException ? (IOException) e : new IOException(e));
+            }
+        }
+
+        void await() throws IOException {
+            try {
+                idle.acquire(parallelism);
+                idle.release(parallelism);
+            } catch (InterruptedException e) {
+                throw (IOException) new InterruptedIOException("Interrupted while waiting for workers").initCause(e);
+            }
+            IOException e = failure.get();
+            if (e != null) {
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+}
@@ -23,23 +23,24 @@
  */
 package jenkins.plugins.purgejobhistory;
 
-import com.cloudbees.hudson.plugins.folder.Folder;
 import hudson.Extension;
+import hudson.Functions;
 import hudson.cli.CLICommand;
 import hudson.model.*;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import hudson.security.Permission;
-import hudson.util.RunList;
-import jenkins.model.Jenkins;
+import javax.annotation.CheckForNull;
+import net.sf.json.JSONObject;
 import org.acegisecurity.AccessDeniedException;
-import org.jenkinsci.plugins.workflow.job.WorkflowJob;
-import org.jenkinsci.plugins.workflow.multibranch.WorkflowMultiBranchProject;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 
@@ -51,6 +52,30 @@ public class PurgeJobHistory extends CLICommand {
 
     private static final Logger LOGGER = Logger.getLogger(PurgeJobHistory.class.getName());
 
+    /**
+     * The exit code when some jobs could not be purged, the others having been purged.
+     */
+    public static final int PARTIAL_FAILURE = 16;
+
+    /**
+     * The exit code when the purge stopped early, on interrupt or out of budget, leaving some jobs to purge.
+     */
+    public static final int STOPPED = 17;
+
+    /**
+     * How the progress of the purge is printed.
+     */
+    public enum OutputFormat {
+        /**
+         * A human readable line per job, then a summary.
+         */
+        TEXT,
+        /**
+         * A JSON object per line: one per job, one per failure, then a summary.
+         */
+        JSON
+    }
+
     /**
      * Follows the progress of the operation
      */
@@ -73,10 +98,139 @@ public class PurgeJobHistory extends CLICommand {
     @Option(name = "-R", usage = "Recurse into sub-folders/sub-jobs")
     public boolean recurse = false;
 
+    /**
+     * The number of jobs purged in parallel.
+     */
+    @Option(name = "-p", aliases = "--parallelism", metaVar = "N",
+            usage = "Number of jobs to purge in parallel. Defaults to the "
+                    + "jenkins.plugins.purgejobhistory.PurgeEngine.parallelism system property, or 1. At most "
+                    + "jenkins.plugins.purgejobhistory.PurgeEngine.maxParallelism, or 4 per processor.")
+    public int parallelism = 0;
+
+    /**
+     * Move builds to the trash and delete them in the background.
+     */
+    @Option(name = "-t", aliases = "--trash",
+            usage = "Move builds to a trash directory and delete them in the background. Much faster for builds "
+                    + "with many files, as long as $JENKINS_HOME and the builds are on the same file system.")
+    public boolean trash = false;
+
+    /**
+     * Delete builds that are not in memory without loading them.
+     */
+    @Option(name = "-s", aliases = "--streaming",
+            usage = "Delete builds that are not loaded in memory straight from disk, without loading them. "
+                    + "Run listeners are not notified of such deletions; the permalinks of each job are "
+                    + "updated once it is done.")
+    public boolean streaming = false;
+
+    /**
+     * The number of builds handled per chunk by streaming purges.
+     */
+    @Option(name = "-b", aliases = "--batch-size", metaVar = "N",
+            usage = "With -s, the number of builds held in memory at once. Defaults to the "
+                    + "jenkins.plugins.purgejobhistory.PurgeEngine.chunkSize system property, or 1000.")
+    public int batchSize = 0;
+
+    /**
+     * Only report what would be deleted.
+     */
+    @Option(name = "-n", aliases = "--dry-run",
+            usage = "Delete nothing, only list how many builds would be deleted from each job and how much space "
+                    + "that would reclaim.")
+    public boolean dryRun = false;
+
+    /**
+     * The number of builds deleted per second.
+     */
+    @Option(name = "--builds-per-second", metaVar = "N", usage = "Delete at most N builds per second.")
+    public int buildsPerSecond = 0;
+
+    /**
+     * The number of files deleted per second.
+     */
+    @Option(name = "--files-per-second", metaVar = "N", usage = "Delete at most N files per second.")
+    public int filesPerSecond = 0;
+
+    /**
+     * The free disk space wanted, in gigabytes.
+     */
+    @Option(name = "--until-free", metaVar = "GB",
+            usage = "Delete the biggest and oldest builds first, across all jobs, and stop once the file system of "
+                    + "JENKINS_HOME has GB gigabytes free.")
+    public int freeSpaceGigabytes = 0;
+
+    /**
+     * The wall clock time after which the purge stops, in seconds.
+     */
+    @Option(name = "--time-budget", metaVar = "SECONDS",
+            usage = "Stop cleanly after SECONDS seconds, reporting the jobs left to purge. Interrupting the "
+                    + "command stops it the same way.")
+    public int timeBudgetSeconds = 0;
+
+    /**
+     * The CPU time after which the purge stops, in seconds.
+     */
+    @Option(name = "--cpu-budget", metaVar = "SECONDS",
+            usage = "Stop cleanly once the purge has used SECONDS seconds of CPU time.")
+    public int cpuBudgetSeconds = 0;
+
+    /**
+     * Only delete builds older than this many days.
+     */
+    @Option(name = "--older-than-days", metaVar = "DAYS", usage = "Only delete builds started more than DAYS days ago.")
+    public int olderThanDays = 0;
+
+    /**
+     * Keep this many of the most recent builds.
+     */
+    @Option(name = "--keep-last", metaVar = "N", usage = "Keep the N most recent builds of each job.")
+    public int keepLast = 0;
+
+    /**
+     * Only delete builds with these results.
+     */
+    @Option(name = "--results", metaVar = "RESULTS",
+            usage = "Only delete builds with one of these comma separated results, e.g. FAILURE,ABORTED.")
+    public String results;
+
+    /**
+     * Only delete builds numbered this or higher.
+     */
+    @Option(name = "--from", metaVar = "NUMBER", usage = "Only delete builds numbered NUMBER or higher.")
+    public int fromBuild = 0;
+
+    /**
+     * Only delete builds numbered this or lower.
+     */
+    @Option(name = "--to", metaVar = "NUMBER", usage = "Only delete builds numbered NUMBER or lower.")
+    public int toBuild = 0;
+
+    /**
+     * How the progress is printed.
+     */
+    @Option(name = "--format", metaVar = "FORMAT",
+            usage = "How to print the progress as each job is purged: TEXT, or JSON for one JSON object per line.")
+    public OutputFormat format = OutputFormat.TEXT;
+
+    /**
+     * Patterns over the full names of the items to purge, instead of a single item.
+     */
+    @Option(name = "--match", metaVar = "PATTERN",
+            usage = "Purge every item whose full name matches PATTERN instead of a single item, e.g. 'team-*/pr-*'. "
+                    + "* matches within a name, ** across folders. May be repeated.")
+    public List<String> patterns = new ArrayList<>();
+
+    /**
+     * Whether the patterns are regular expressions.
+     */
+    @Option(name = "--regex", usage = "Read the --match patterns as regular expressions rather than globs.")
+    public boolean regex = false;
+
     /**
      * The source item.
      */
-    @Argument(metaVar = "item", usage = "Name of the job whose history should be purged", required = true)
+    @Argument(metaVar = "item", usage = "Name of the job whose history should be purged, unless --match is given")
     public AbstractItem item;
 
     /**
@@ -92,8 +246,164 @@ public class PurgeJobHistory extends CLICommand {
      */
     @Override
     protected int run() throws Exception {
-        purge(item, reset, force, recurse);
-        return 0;
+        if ((item == null) == patterns.isEmpty()) {
+            throw new IllegalArgumentException("Give either an item or --match patterns");
+        }
+        PurgeOptions options = new PurgeOptions(reset, force, recurse);
+        options.setParallelism(parallelism);
+        options.setTrash(trash);
+        options.setStreaming(streaming);
+        options.setChunkSize(batchSize);
+        options.setDryRun(dryRun);
+        options.setBuildsPerSecond(buildsPerSecond);
+        options.setFilesPerSecond(filesPerSecond);
+        options.setFreeSpaceGigabytes(freeSpaceGigabytes);
+        options.setTimeBudgetSeconds(timeBudgetSeconds);
+        options.setCpuBudgetSeconds(cpuBudgetSeconds);
+        RetentionFilter filter = new RetentionFilter();
+        filter.setOlderThanDays(olderThanDays);
+        filter.setKeepLast(keepLast);
+        if (results != null) {
+            filter.setResults(Arrays.asList(results.split(",")));
+        }
+        filter.setFromBuild(fromBuild);
+        filter.setToBuild(toBuild);
+        options.setFilter(filter);
+        BulkPurgeResults matched = null;
+        if (item == null) {
+            matched = new BulkPurgeResults(ItemNameIndex.get().findItems(patterns, regex, recurse), recurse);
+        }
+        PurgeProgress progress = new StreamingProgress(matched);
+        progress.started();
+        IOException failure = null;
+        try {
+            if (matched != null) {
+                purge(matched.getItemsToPurge(), options, progress);
+            } else {
+                purge(item, options, progress);
+            }
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            progress.finished();
+        }
+        if (matched != null) {
+            printItems(matched);
+        }
+        printSummary(progress);
+        if (progress.getJobsFailed() > 0) {
+            return PARTIAL_FAILURE;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return progress.isStopped() ? STOPPED : 0;
+    }
+
+    private void printItems(BulkPurgeResults results) {
+        for (Object element : results.toJSON()) {
+            JSONObject result = (JSONObject) element;
+            if (format == OutputFormat.JSON) {
+                JSONObject line = new JSONObject().element("event", "item");
+                line.putAll(result);
+                stdout.println(line);
+            } else if ("skipped".equals(result.getString("status"))) {
+                stdout.println(String.format("%s: skipped - %s", result.getString("item"),
+                        result.getString("error")));
+            } else {
+                stdout.println(String.format("%s: %s, %s %d builds from %d jobs, kept %d, %s",
+                        result.getString("item"), result.getString("status"),
+                        dryRun ? "would delete" : "deleted", result.getLong("deleted"), result.getInt("jobs"),
+                        result.getLong("kept"), Functions.humanReadableByteSize(result.getLong("bytes"))));
+            }
+        }
+    }
+
+    private void printSummary(PurgeProgress progress) {
+        if (format == OutputFormat.JSON) {
+            stdout.println(new JSONObject()
+                    .element("event", "summary")
+                    .element("dryRun", dryRun)
+                    .element("jobs", progress.getJobsScanned())
+                    .element("jobsFailed", progress.getJobsFailed())
+                    .element("deleted", progress.getBuildsDeleted())
+                    .element("kept", progress.getBuildsSkipped())
+                    .element("bytes", progress.getBytesReclaimed())
+                    .element("millis", progress.getElapsedMillis())
+                    .element("stopReason", progress.getStopReason())
+                    .element("jobsRemaining", progress.getJobsRemaining()));
+            return;
+        }
+        stdout.println(String.format("%s %d builds from %d jobs, reclaiming %s, and kept %d in %s",
+                dryRun ? "Would delete" : "Deleted", progress.getBuildsDeleted(), progress.getJobsScanned(),
+                progress.getBytesReclaimedString(), progress.getBuildsSkipped(), progress.getElapsedString()));
+        if (progress.getJobsFailed() > 0) {
+            stdout.println(String.format("Failed to purge %d jobs", progress.getJobsFailed()));
+        }
+        if (progress.isStopped()) {
+            stdout.println(String.format("Stopped early (%s), %d jobs remaining", progress.getStopReason(),
+                    progress.getJobsRemaining()));
+        }
+    }
+
+    /**
+     * Prints a line as each job is purged, with the overall deletion rate so far.
+     */
+    private final class StreamingProgress extends PurgeProgress {
+
+        /**
+         * Adds up the jobs by item matched, or {@code null} if a single item is purged.
+         */
+        @CheckForNull
+        private final BulkPurgeResults results;
+
+        StreamingProgress(@CheckForNull BulkPurgeResults results) {
+            this.results = results;
+        }
+
+        @Override
+        public void jobFinished(String fullName, int deleted, int kept, long bytes, long millis) {
+            super.jobFinished(fullName, deleted, kept, bytes, millis);
+            if (results != null) {
+                results.jobFinished(fullName, deleted, kept, bytes, millis);
+            }
+            long elapsed = Math.max(1, getElapsedMillis());
+            double rate = getBuildsDeleted() * 1000.0 / elapsed;
+            if (format == OutputFormat.JSON) {
+                stdout.println(new JSONObject()
+                        .element("event", "job")
+                        .element("job", fullName)
+                        .element("deleted", deleted)
+                        .element("kept", kept)
+                        .element("bytes", bytes)
+                        .element("millis", millis)
+                        .element("totalDeleted", getBuildsDeleted())
+                        .element("elapsedMillis", elapsed)
+                        .element("buildsPerSecond", Math.round(rate * 10) / 10.0));
+            } else {
+                stdout.println(String.format("%s: %s %d builds, kept %d, %s in %d ms - %.1f builds/s overall",
+                        fullName, dryRun ? "would delete" : "deleted", deleted, kept,
+                        Functions.humanReadableByteSize(bytes), millis, rate));
+            }
+        }
+
+        @Override
+        public void jobFailed(String fullName, Throwable cause) {
+            super.jobFailed(fullName, cause);
+            if (results != null) {
+                results.jobFailed(fullName, cause);
+            }
+            if (format == OutputFormat.JSON) {
+                stdout.println(new JSONObject()
+                        .element("event", "failed")
+                        .element("job", fullName)
+                        .element("error", cause.toString()));
+            } else {
+                stderr.println(String.format("%s: failed - %s", fullName, cause));
+            }
+        }
     }
 
     /**
@@ -120,90 +430,92 @@ public class PurgeJobHistory extends CLICommand {
      */
     @Deprecated
     public static void purge(Job<?, ?> job, boolean resetNextBuildNumber, boolean force) throws IOException {
-        for(Run run : job.getBuilds()){
-            if (!run.hasPermission(Run.DELETE)) {
-                LOGGER.warning(String.format("Could not delete %s. Access Denied.", run.getFullDisplayName()));
-                continue;
-            }
-            if (!force && run.isKeepLog()) {
-                continue;
+        PermissionCache permissions = new PermissionCache(job);
+        try (BulkDeleteScope scope = bulkDelete(job)) {
+            for (Run run : job.getBuilds()) {
+                if (!permissions.canDelete(run)) {
+                    LOGGER.warning(String.format("Could not delete %s. Access Denied.", run.getFullDisplayName()));
+                    continue;
+                }
+                if (!force && run.isKeepLog()) {
+                    continue;
+                }
+                if (!run.isBuilding()) {
+                    scope.delete(run);
+                }
             }
-            if( !run.isBuilding())
-                run.delete();
         }
         if (resetNextBuildNumber && job.getLastBuild() == null) {
             job.updateNextBuildNumber(job.getBuilds().size()+1);
         }
     }
 
+    /**
+     * Opens a scope to delete many builds of a job, in which the listeners of each deletion are notified and the
+     * permalinks of the job resolved again once for the lot, when the scope is closed, rather than once per build.
+     *
+     * @param job the job.
+     * @return the scope, to close once the builds are deleted.
+     */
+    public static BulkDeleteScope bulkDelete(Job<?, ?> job) {
+        return new BulkDeleteScope(job, BulkDeleteScope.DEFAULT_LIMIT);
+    }
+
     public void purge(boolean reset, boolean force, boolean recurse) throws IOException {
-        LOGGER.info("Purge Build History for All Items. This can take long");
-        Jenkins jenkins = Jenkins.getInstanceOrNull();
-        if (jenkins == null){
-            LOGGER.warning("Failed to get Jenkins Instance - Quitting");
-            return;
-        }
-        List<AbstractItem> allItems = jenkins.getItems(AbstractItem.class);
-        for (AbstractItem item : allItems) {
-            this.purge(item, reset, force, recurse);
-        }
+        purge(new PurgeOptions(reset, force, recurse), new PurgeProgress());
     }
 
-    public void purge(AbstractItem item, boolean reset, boolean force, boolean recurse) throws IOException {
-        LOGGER.info(String.format("Purge started for %s - Reset Build Num:%s - Force Delete:%s - Recursive:%s", item.getFullName(), reset, force, recurse));
-        if (recurse) {
-            LOGGER.info(String.format("Recursing into %s", item.getFullName()));
-            if (item instanceof Folder) {
-                Folder folder = (Folder) item;
-                for (AbstractItem innerItem : folder.getAllItems(AbstractItem.class)) {
-                    purge(innerItem, reset, force, recurse);
-                }
-            } else if (item instanceof WorkflowMultiBranchProject) {
-                WorkflowMultiBranchProject workflowMultiBranchProject = (WorkflowMultiBranchProject) item;
-                for (AbstractItem innerItem : workflowMultiBranchProject.getAllJobs()) {
-                    purge(innerItem, reset, force, recurse);
-                }
-            } else {
-                LOGGER.warning("Can not recurse into " + item.getFullName());
-            }
-        }
+    /**
+     * Purges the build history of every item of the instance.
+     *
+     * @param options  the settings of the purge
+     * @param progress receives the progress of the purge
+     * @throws IOException if something went wrong.
+     */
+    public void purge(PurgeOptions options, PurgeProgress progress) throws IOException {
+        new PurgeEngine(options, progress).purgeAll();
+    }
 
-        if (item instanceof Job || item instanceof WorkflowJob) {
-            LOGGER.info(String.format("Deleting builds for %s", item.getFullName()));
-            this.processJobForDeletion((Job) item, reset, force);
-        } else {
-            LOGGER.warning("Passed Item Type is not instance of Job. Skipping.");
-        }
+    public void purge(AbstractItem item, boolean reset, boolean force, boolean recurse) throws IOException {
+        purge(item, new PurgeOptions(reset, force, recurse), new PurgeProgress());
     }
 
-    private void processJobForDeletion(Job job, boolean reset, boolean force) throws IOException {
-        this.deleteBuilds(job.getBuilds(), force);
-        if (reset) {
-            job.updateNextBuildNumber(1);
-        }
+    /**
+     * Purges the build history of an item.
+     *
+     * @param item     the item to purge
+     * @param options  the settings of the purge
+     * @param progress receives the progress of the purge
+     * @throws IOException if something went wrong.
+     */
+    public void purge(AbstractItem item, PurgeOptions options, PurgeProgress progress) throws IOException {
+        new PurgeEngine(options, progress).purge(item);
     }
 
-    private void deleteBuilds(RunList runList, boolean force) throws IOException {
-        Iterator iterator = runList.iterator();
-        while (iterator.hasNext()) {
-            Run run = (Run) iterator.next();
-            if (!run.hasPermission(Run.DELETE)) {
-                LOGGER.warning(String.format("Access Denied for Deleting %s - Skipping", run.getFullDisplayName()));
-                continue;
-            }
-            LOGGER.info(String.format("Deleting build %s", run.getFullDisplayName()));
-            if (!force && run.isKeepLog()) {
-                LOGGER.info(String.format("Force:%s - KeepLog:%s - Skipping", force, run.isKeepLog()));
-                continue;
-            }
-            if( !run.isBuilding()) {
-                run.delete();
-                LOGGER.info(String.format("Deleted build %s", run.getFullDisplayName()));
-            }
-        }
+    /**
+     * Purges the build history of several items in one purge.
+     *
+     * @param items    the items to purge, none below another one when recursing
+     * @param options  the settings of the purge
+     * @param progress receives the progress of the purge
+     * @throws IOException if something went wrong.
+     */
+    public void purge(Collection<? extends AbstractItem> items, PurgeOptions options, PurgeProgress progress)
+            throws IOException {
+        new PurgeEngine(options, progress).purge(items);
     }
 
     public boolean checkPermission(AbstractItem item) {
+        return canPurge(item);
+    }
+
+    /**
+     * Returns whether the current user may purge the build history of an item, without needing a command instance.
+     *
+     * @param item the item.
+     * @return whether the current user may delete builds of the item.
+     */
+    public static boolean canPurge(AbstractItem item) {
         return item.hasPermission(Run.DELETE);
     }
 }
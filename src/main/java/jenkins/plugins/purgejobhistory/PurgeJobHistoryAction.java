@@ -31,25 +31,27 @@ import hudson.util.HttpResponses;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.concurrent.RejectedExecutionException;
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import jenkins.model.TransientActionFactory;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.HttpResponse;
-import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
 /**
  * An {@link Action} to allow the user to purge the job history.
+ * One is created for every item each time its actions are listed, dashboards and list views included, so it only
+ * holds its item, and only checks the permission when its icon is asked for.
  */
 public class PurgeJobHistoryAction implements Action {
 
-    private PurgeJobHistory purgeJobHistory = new PurgeJobHistory();
-
     /**
      * The {@link Job} we are attached to.
      */
-    private AbstractItem item;
+    private final AbstractItem item;
 
     public PurgeJobHistoryAction(AbstractItem item){
         this.item = item;
@@ -65,11 +67,7 @@ public class PurgeJobHistoryAction implements Action {
      */
     public String getIconFileName() {
         //Check permission first.
-        if(purgeJobHistory.checkPermission(this.item)) {
-            return "symbol-trash-bin-outline plugin-ionicons-api";
-        } else {
-            return null;
-        }
+        return PurgeJobHistory.canPurge(this.item) ? StaticValues.iconFileName : null;
     }
 
     public String getDisplayName() {
@@ -82,12 +80,58 @@ public class PurgeJobHistoryAction implements Action {
 
     @RequirePOST
     @Restricted(NoExternalUse.class)
-    public HttpResponse doDoPurge(@QueryParameter(value = "resetNextBuild") boolean resetNextBuild,
-                                  @QueryParameter(value = "forceDelete") boolean forceDelete,
-                                  @QueryParameter(value = "recurse") boolean recurse)
-            throws IOException {
-        purgeJobHistory.purge(item,resetNextBuild, forceDelete, recurse);
-        return HttpResponses.redirectTo("..");
+    public HttpResponse doDoPurge(StaplerRequest req) throws IOException {
+        PurgeOptions options;
+        try {
+            options = PurgeOptions.fromRequest(req);
+        } catch (IllegalArgumentException e) {
+            return HttpResponses.error(400, e.getMessage());
+        }
+        PurgeTask task;
+        try {
+            task = PurgeTaskManager.get().submit(item, options);
+        } catch (RejectedExecutionException e) {
+            return HttpResponses.error(503, Messages.PurgeTaskManager_Busy());
+        }
+        return HttpResponses.redirectTo("task/" + task.getId() + "/");
+    }
+
+    /**
+     * Returns the number of jobs purged in parallel when the form leaves it blank.
+     *
+     * @return the default number of jobs purged in parallel.
+     */
+    public int getDefaultParallelism() {
+        return PurgeEngine.getDefaultParallelism();
+    }
+
+    /**
+     * Returns the number of builds deleted per second when the form leaves it blank.
+     *
+     * @return the default number of builds deleted per second, {@code 0} for no limit.
+     */
+    public int getDefaultBuildsPerSecond() {
+        return PurgeThrottle.getDefaultBuildsPerSecond();
+    }
+
+    /**
+     * Returns the number of files deleted per second when the form leaves it blank.
+     *
+     * @return the default number of files deleted per second, {@code 0} for no limit.
+     */
+    public int getDefaultFilesPerSecond() {
+        return PurgeThrottle.getDefaultFilesPerSecond();
+    }
+
+    /**
+     * Binds the background purges to {@code task/<id>}.
+     *
+     * @param id the identifier of the task.
+     * @return the task, or {@code null} if unknown or not visible to the current user.
+     */
+    @CheckForNull
+    public PurgeTask getTask(String id) {
+        return PurgeTaskManager.get().getTask(id);
     }
 
     @Extension
@@ -98,9 +142,17 @@ public class PurgeJobHistoryAction implements Action {
             return AbstractItem.class;
         }
 
+        /**
+         * Lets {@code getAction(Class)} lookups for other kinds of actions skip this factory altogether.
+         */
+        @Override
+        public Class<PurgeJobHistoryAction> actionType() {
+            return PurgeJobHistoryAction.class;
+        }
+
         @Nonnull
         @Override
-        public Collection<? extends Action> createFor(@Nonnull AbstractItem abstractItem) {
+        public Collection<? extends PurgeJobHistoryAction> createFor(@Nonnull AbstractItem abstractItem) {
             return Collections.singleton(new PurgeJobHistoryAction(abstractItem));
         }
     }
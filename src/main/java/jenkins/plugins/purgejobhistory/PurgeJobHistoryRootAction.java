@@ -2,42 +2,30 @@ package jenkins.plugins.purgejobhistory;
 
 import hudson.Extension;
 import hudson.model.AbstractItem;
-import hudson.model.Action;
 import hudson.model.RootAction;
 import hudson.util.HttpResponses;
-import jenkins.model.TransientActionFactory;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.HttpResponse;
-import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
 import javax.annotation.CheckForNull;
-import javax.annotation.Nonnull;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 @Extension
 public class PurgeJobHistoryRootAction implements RootAction {
 
-    private AbstractItem item;
-
-    public PurgeJobHistoryRootAction() {}
-
-    public PurgeJobHistoryRootAction(AbstractItem item) {
-        this.item = item;
-    }
-
-    PurgeJobHistory purgeJobHistory = new PurgeJobHistory();
-
     @CheckForNull
     @Override
     public String getIconFileName() {
-        if ( this.item != null)
-            return null;
-        else
-            return "symbol-trash-bin-outline plugin-ionicons-api";
+        return StaticValues.iconFileName;
     }
 
     @CheckForNull
@@ -54,25 +42,123 @@ public class PurgeJobHistoryRootAction implements RootAction {
 
     @RequirePOST
     @Restricted(NoExternalUse.class)
-    public HttpResponse doDoPurge(@QueryParameter(value = "resetNextBuild") boolean resetNextBuild,
-                                  @QueryParameter(value = "forceDelete") boolean forceDelete)
-            throws IOException {
-        purgeJobHistory.purge(resetNextBuild,forceDelete,true);
-        return HttpResponses.redirectTo("..");
+    public HttpResponse doDoPurge(StaplerRequest req) throws IOException {
+        PurgeOptions options;
+        try {
+            options = PurgeOptions.fromRequest(req);
+        } catch (IllegalArgumentException e) {
+            return HttpResponses.error(400, e.getMessage());
+        }
+        options.setRecurse(true);
+        PurgeTask task;
+        try {
+            task = PurgeTaskManager.get().submit(null, options);
+        } catch (RejectedExecutionException e) {
+            return HttpResponses.error(503, Messages.PurgeTaskManager_Busy());
+        }
+        return HttpResponses.redirectTo("task/" + task.getId() + "/");
     }
 
-    @Extension
-    public static class ActionInjector extends TransientActionFactory<AbstractItem> {
-
-        @Override
-        public Class<AbstractItem> type() {
-            return AbstractItem.class;
+    /**
+     * Queues a purge of every item whose full name matches some patterns, run as the current user, and responds
+     * with {@code 202 Accepted} and the URL of its task as {@code Location}.
+     * The {@code pattern} parameters are glob patterns over full names, such as <code>team-*&#47;pr-*</code>, or
+     * regular expressions with {@code regex=true}; they are resolved against the {@link ItemNameIndex}. The other
+     * parameters are those of the purge form. The {@code results} page of the task then tells what the purge did to
+     * each matched item so far, with the {@link BulkPurgeResults} of the items as {@code items}, along with the
+     * totals of the purge; the task can be cancelled like any other.
+     *
+     * @param req the request.
+     * @return the task, as JSON, or an error if no pattern or an invalid one was given.
+     */
+    @RequirePOST
+    public HttpResponse doBulkPurge(StaplerRequest req) {
+        String[] patterns = req.getParameterValues("pattern");
+        if (patterns == null || patterns.length == 0) {
+            return HttpResponses.error(400, "No pattern given");
         }
-
-        @Nonnull
-        @Override
-        public Collection<? extends Action> createFor(@Nonnull AbstractItem abstractItem) {
-            return Collections.singleton(new PurgeJobHistoryRootAction(abstractItem));
+        PurgeOptions options;
+        List<AbstractItem> items;
+        try {
+            options = PurgeOptions.fromRequest(req);
+            items = ItemNameIndex.get().findItems(Arrays.asList(patterns),
+                    "true".equalsIgnoreCase(req.getParameter("regex")), options.isRecurse());
+        } catch (IllegalArgumentException e) {
+            return HttpResponses.error(400, e.getMessage());
+        }
+        PurgeTask task;
+        try {
+            task = PurgeTaskManager.get().submit(new BulkPurgeResults(items, options.isRecurse()), options);
+        } catch (RejectedExecutionException e) {
+            return HttpResponses.error(503, Messages.PurgeTaskManager_Busy());
         }
+        String url = Jenkins.get().getRootUrlFromRequest() + getUrlName() + "/task/" + task.getId() + "/";
+        JSONObject body = new JSONObject()
+                .element("id", task.getId())
+                .element("url", url)
+                .element("results", url + "results");
+        return (request, rsp, node) -> {
+            rsp.setStatus(HttpServletResponse.SC_ACCEPTED);
+            rsp.setHeader("Location", url);
+            rsp.setContentType("application/json;charset=UTF-8");
+            rsp.getWriter().print(body);
+        };
+    }
+
+    /**
+     * Returns the number of jobs purged in parallel when the form leaves it blank.
+     *
+     * @return the default number of jobs purged in parallel.
+     */
+    public int getDefaultParallelism() {
+        return PurgeEngine.getDefaultParallelism();
+    }
+
+    /**
+     * Returns the number of builds deleted per second when the form leaves it blank.
+     *
+     * @return the default number of builds deleted per second, {@code 0} for no limit.
+     */
+    public int getDefaultBuildsPerSecond() {
+        return PurgeThrottle.getDefaultBuildsPerSecond();
+    }
+
+    /**
+     * Returns the number of files deleted per second when the form leaves it blank.
+     *
+     * @return the default number of files deleted per second, {@code 0} for no limit.
+     */
+    public int getDefaultFilesPerSecond() {
+        return PurgeThrottle.getDefaultFilesPerSecond();
+    }
+
+    /**
+     * Binds the background purges to {@code task/<id>}.
+     *
+     * @param id the identifier of the task.
+     * @return the task, or {@code null} if unknown or not visible to the current user.
+     */
+    @CheckForNull
+    public PurgeTask getTask(String id) {
+        return PurgeTaskManager.get().getTask(id);
+    }
+
+    /**
+     * Returns the recent background purges visible to the current user.
+     *
+     * @return the recent background purges, most recent first.
+     */
+    public List<PurgeTask> getTasks() {
+        return PurgeTaskManager.get().getTasks();
+    }
+
+    /**
+     * Binds the purge metrics to {@code metrics}, for administrators.
+     *
+     * @return the purge metrics.
+     */
+    public PurgeMetrics getMetrics() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        return PurgeMetrics.get();
     }
 }
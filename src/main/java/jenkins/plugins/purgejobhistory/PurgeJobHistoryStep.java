@@ -0,0 +1,578 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.Functions;
+import hudson.Util;
+import hudson.model.AbstractItem;
+import hudson.model.Cause;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.User;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.jenkinsci.plugins.workflow.steps.SynchronousNonBlockingStepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.springframework.security.core.Authentication;
+
+/**
+ * The {@code purgeJobHistory} Pipeline step, which purges the build history of an item as the build's
+ * authentication. A build running as {@code SYSTEM}, as every build does without an authorization plugin such as
+ * Authorize Project, purges as the user who started it instead, and is refused if no user did. The purge runs on a
+ * background thread rather than the CPS VM thread, so a long purge does not hold up the other Pipelines of the
+ * controller. It returns a map summarizing what was purged: {@code jobs}, {@code jobsFailed}, {@code deleted},
+ * {@code kept}, {@code bytes}, {@code millis}, {@code dryRun}, {@code stopReason} and {@code jobsRemaining}.
+ * If some jobs could not be purged, the build is marked unstable and the step still returns the summary.
+ */
+public class PurgeJobHistoryStep extends Step implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The name of the item to purge, relative to the job running the step or absolute.
+     */
+    private final String job;
+
+    /**
+     * {@code true} if the next build number should be reset to {@code 1} after the purge.
+     */
+    private boolean reset;
+
+    /**
+     * {@code true} to delete even builds marked to be kept forever.
+     */
+    private boolean force;
+
+    /**
+     * {@code true} to recurse into sub-folders/sub-jobs.
+     */
+    private boolean recurse;
+
+    /**
+     * {@code true} to only report what would be deleted.
+     */
+    private boolean dryRun;
+
+    /**
+     * {@code true} to delete builds that are not in memory without loading them.
+     */
+    private boolean streaming;
+
+    /**
+     * {@code true} to move deleted builds to the trash, and reclaim their space in the background.
+     */
+    private boolean trash;
+
+    /**
+     * The number of jobs purged in parallel, or {@code 0} for the default.
+     */
+    private int parallelism;
+
+    /**
+     * Stop the purge after this many seconds, if positive.
+     */
+    private int timeBudgetSeconds;
+
+    /**
+     * Stop the purge after this many seconds of CPU time, if positive.
+     */
+    private int cpuBudgetSeconds;
+
+    /**
+     * Only delete builds started more than this many days ago, if positive.
+     */
+    private int olderThanDays;
+
+    /**
+     * Keep this many of the most recent builds of each job, if positive.
+     */
+    private int keepLast;
+
+    /**
+     * Only delete builds with one of these comma separated results, if not blank.
+     */
+    @CheckForNull
+    private String results;
+
+    /**
+     * Only delete builds numbered this or higher, if positive.
+     */
+    private int fromBuild;
+
+    /**
+     * Only delete builds numbered this or lower, if positive.
+     */
+    private int toBuild;
+
+    /**
+     * Creates the step.
+     *
+     * @param job the name of the item to purge, relative to the job running the step or absolute.
+     */
+    @DataBoundConstructor
+    public PurgeJobHistoryStep(String job) {
+        this.job = job;
+    }
+
+    /**
+     * Returns the name of the item to purge.
+     *
+     * @return the name of the item to purge.
+     */
+    public String getJob() {
+        return job;
+    }
+
+    /**
+     * Returns whether the next build number is reset to {@code 1} after the purge.
+     *
+     * @return whether the next build number is reset to {@code 1} after the purge.
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * Sets whether the next build number is reset to {@code 1} after the purge.
+     *
+     * @param reset whether the next build number is reset to {@code 1} after the purge.
+     */
+    @DataBoundSetter
+    public void setReset(boolean reset) {
+        this.reset = reset;
+    }
+
+    /**
+     * Returns whether builds marked to be kept forever are deleted too.
+     *
+     * @return whether builds marked to be kept forever are deleted too.
+     */
+    public boolean isForce() {
+        return force;
+    }
+
+    /**
+     * Sets whether builds marked to be kept forever are deleted too.
+     *
+     * @param force whether builds marked to be kept forever are deleted too.
+     */
+    @DataBoundSetter
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * Returns whether the purge recurses into sub-folders/sub-jobs.
+     *
+     * @return whether the purge recurses into sub-folders/sub-jobs.
+     */
+    public boolean isRecurse() {
+        return recurse;
+    }
+
+    /**
+     * Sets whether the purge recurses into sub-folders/sub-jobs.
+     *
+     * @param recurse whether the purge recurses into sub-folders/sub-jobs.
+     */
+    @DataBoundSetter
+    public void setRecurse(boolean recurse) {
+        this.recurse = recurse;
+    }
+
+    /**
+     * Returns whether the purge only reports what it would delete.
+     *
+     * @return whether the purge only reports what it would delete.
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Sets whether the purge only reports what it would delete.
+     *
+     * @param dryRun whether the purge only reports what it would delete.
+     */
+    @DataBoundSetter
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Returns whether builds that are not in memory are deleted without loading them.
+     *
+     * @return whether builds that are not in memory are deleted without loading them.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Sets whether builds that are not in memory are deleted without loading them.
+     * Run listeners are not notified of the builds deleted this way; the permalinks of each job are updated once it
+     * is done.
+     *
+     * @param streaming whether builds that are not in memory are deleted without loading them.
+     */
+    @DataBoundSetter
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Returns whether deleted builds are moved to the trash.
+     *
+     * @return whether deleted builds are moved to the trash.
+     */
+    public boolean isTrash() {
+        return trash;
+    }
+
+    /**
+     * Sets whether deleted builds are moved to the trash.
+     *
+     * @param trash whether deleted builds are moved to the trash.
+     */
+    @DataBoundSetter
+    public void setTrash(boolean trash) {
+        this.trash = trash;
+    }
+
+    /**
+     * Returns the number of jobs purged in parallel.
+     *
+     * @return the number of jobs purged in parallel, or {@code 0} for the default.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of jobs purged in parallel.
+     *
+     * @param parallelism the number of jobs purged in parallel, or {@code 0} for the default.
+     */
+    @DataBoundSetter
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(0, parallelism);
+    }
+
+    /**
+     * Returns the wall clock time after which the purge stops.
+     *
+     * @return the time budget in seconds, or {@code 0} for no limit.
+     */
+    public int getTimeBudgetSeconds() {
+        return timeBudgetSeconds;
+    }
+
+    /**
+     * Sets the wall clock time after which the purge stops.
+     *
+     * @param timeBudgetSeconds the time budget in seconds, or {@code 0} for no limit.
+     */
+    @DataBoundSetter
+    public void setTimeBudgetSeconds(int timeBudgetSeconds) {
+        this.timeBudgetSeconds = Math.max(0, timeBudgetSeconds);
+    }
+
+    /**
+     * Returns the CPU time after which the purge stops.
+     *
+     * @return the CPU budget in seconds, or {@code 0} for no limit.
+     */
+    public int getCpuBudgetSeconds() {
+        return cpuBudgetSeconds;
+    }
+
+    /**
+     * Sets the CPU time after which the purge stops.
+     *
+     * @param cpuBudgetSeconds the CPU budget in seconds, or {@code 0} for no limit.
+     */
+    @DataBoundSetter
+    public void setCpuBudgetSeconds(int cpuBudgetSeconds) {
+        this.cpuBudgetSeconds = Math.max(0, cpuBudgetSeconds);
+    }
+
+    /**
+     * Returns the minimum age in days of the deleted builds.
+     *
+     * @return the minimum age in days, or {@code 0} for no limit.
+     */
+    public int getOlderThanDays() {
+        return olderThanDays;
+    }
+
+    /**
+     * Sets the minimum age in days of the deleted builds.
+     *
+     * @param olderThanDays the minimum age in days, or {@code 0} for no limit.
+     */
+    @DataBoundSetter
+    public void setOlderThanDays(int olderThanDays) {
+        this.olderThanDays = Math.max(0, olderThanDays);
+    }
+
+    /**
+     * Returns the number of most recent builds kept.
+     *
+     * @return the number of most recent builds kept, or {@code 0} for none.
+     */
+    public int getKeepLast() {
+        return keepLast;
+    }
+
+    /**
+     * Sets the number of most recent builds kept.
+     *
+     * @param keepLast the number of most recent builds kept, or {@code 0} for none.
+     */
+    @DataBoundSetter
+    public void setKeepLast(int keepLast) {
+        this.keepLast = Math.max(0, keepLast);
+    }
+
+    /**
+     * Returns the results of the deleted builds.
+     *
+     * @return the comma separated results, or {@code null} for any.
+     */
+    @CheckForNull
+    public String getResults() {
+        return results;
+    }
+
+    /**
+     * Sets the results of the deleted builds.
+     *
+     * @param results the comma separated results, blank for any.
+     */
+    @DataBoundSetter
+    public void setResults(@CheckForNull String results) {
+        this.results = Util.fixEmptyAndTrim(results);
+    }
+
+    /**
+     * Returns the lowest build number deleted.
+     *
+     * @return the lowest build number deleted, or {@code 0} for no limit.
+     */
+    public int getFromBuild() {
+        return fromBuild;
+    }
+
+    /**
+     * Sets the lowest build number deleted.
+     *
+     * @param fromBuild the lowest build number deleted, or {@code 0} for no limit.
+     */
+    @DataBoundSetter
+    public void setFromBuild(int fromBuild) {
+        this.fromBuild = Math.max(0, fromBuild);
+    }
+
+    /**
+     * Returns the highest build number deleted.
+     *
+     * @return the highest build number deleted, or {@code 0} for no limit.
+     */
+    public int getToBuild() {
+        return toBuild;
+    }
+
+    /**
+     * Sets the highest build number deleted.
+     *
+     * @param toBuild the highest build number deleted, or {@code 0} for no limit.
+     */
+    @DataBoundSetter
+    public void setToBuild(int toBuild) {
+        this.toBuild = Math.max(0, toBuild);
+    }
+
+    /**
+     * Returns the settings of the purge.
+     *
+     * @return the settings of the purge.
+     * @throws IllegalArgumentException if an unknown build result or too many jobs in parallel are given.
+     */
+    PurgeOptions toOptions() {
+        PurgeOptions options = new PurgeOptions(reset, force, recurse);
+        options.setDryRun(dryRun);
+        options.setStreaming(streaming);
+        options.setTrash(trash);
+        options.setParallelism(parallelism);
+        options.setTimeBudgetSeconds(timeBudgetSeconds);
+        options.setCpuBudgetSeconds(cpuBudgetSeconds);
+        RetentionFilter filter = new RetentionFilter();
+        filter.setOlderThanDays(olderThanDays);
+        filter.setKeepLast(keepLast);
+        if (results != null) {
+            filter.setResults(Arrays.asList(results.split(",")));
+        }
+        filter.setFromBuild(fromBuild);
+        filter.setToBuild(toBuild);
+        options.setFilter(filter);
+        return options;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    /**
+     * Runs the purge on a background thread, logging a line per job to the build log.
+     */
+    private static final class Execution extends SynchronousNonBlockingStepExecution<Map<String, Object>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient PurgeJobHistoryStep step;
+
+        Execution(PurgeJobHistoryStep step, StepContext context) {
+            super(context);
+            this.step = step;
+        }
+
+        @Override
+        protected Map<String, Object> run() throws Exception {
+            Run<?, ?> run = getContext().get(Run.class);
+            final PrintStream logger = getContext().get(TaskListener.class).getLogger();
+            try (ACLContext ctx = ACL.as2(purgeAuthentication(run))) {
+                return purge(run, logger);
+            }
+        }
+
+        /**
+         * Returns the identity to purge as: the build's authentication, unless it is {@code SYSTEM}, which may
+         * delete anything, in which case the user who started the build.
+         */
+        private static Authentication purgeAuthentication(Run<?, ?> run) throws AbortException {
+            Authentication authentication = Jenkins.getAuthentication2();
+            if (!ACL.isSystem2(authentication)) {
+                return authentication;
+            }
+            Cause.UserIdCause cause = run.getCause(Cause.UserIdCause.class);
+            User user = cause == null || cause.getUserId() == null ? null : User.getById(cause.getUserId(), false);
+            if (user == null) {
+                throw new AbortException("purgeJobHistory does not run as SYSTEM: start the build as a user, or "
+                        + "configure the build to run as one, for example with the Authorize Project plugin");
+            }
+            return user.impersonate2();
+        }
+
+        private Map<String, Object> purge(Run<?, ?> run, final PrintStream logger) throws Exception {
+            AbstractItem item = Jenkins.get().getItem(step.job, run.getParent(), AbstractItem.class);
+            if (item == null) {
+                throw new AbortException("No such item: " + step.job);
+            }
+            PurgeOptions options;
+            try {
+                options = step.toOptions();
+            } catch (IllegalArgumentException e) {
+                throw new AbortException(e.getMessage());
+            }
+            final boolean dryRun = options.isDryRun();
+            PurgeProgress progress = new PurgeProgress() {
+                @Override
+                public void jobFinished(String fullName, int deleted, int kept, long bytes, long millis) {
+                    logger.println(String.format("%s: %s %d builds, kept %d, %s", fullName,
+                            dryRun ? "would delete" : "deleted", deleted, kept,
+                            Functions.humanReadableByteSize(bytes)));
+                }
+
+                @Override
+                public void jobFailed(String fullName, Throwable cause) {
+                    super.jobFailed(fullName, cause);
+                    logger.println(String.format("%s: failed - %s", fullName, cause));
+                }
+            };
+            progress.started();
+            try {
+                new PurgeJobHistory().purge(item, options, progress);
+            } finally {
+                progress.finished();
+            }
+            logger.println(String.format("%s %d builds of %s, reclaiming %s", dryRun ? "Would delete" : "Deleted",
+                    progress.getBuildsDeleted(), item.getFullName(), progress.getBytesReclaimedString()));
+            if (progress.isStopped()) {
+                logger.println(String.format("Stopped early (%s), %d jobs remaining", progress.getStopReason(),
+                        progress.getJobsRemaining()));
+                if (Thread.interrupted()) {
+                    // the build was aborted: the purge stopped cleanly, now let the step fail
+                    throw new InterruptedException(progress.getStopReason());
+                }
+            }
+            if (progress.getJobsFailed() > 0) {
+                logger.println(String.format("%d jobs could not be purged", progress.getJobsFailed()));
+                run.setResult(Result.UNSTABLE);
+            }
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("jobs", progress.getJobsScanned());
+            summary.put("jobsFailed", progress.getJobsFailed());
+            summary.put("deleted", progress.getBuildsDeleted());
+            summary.put("kept", progress.getBuildsSkipped());
+            summary.put("bytes", progress.getBytesReclaimed());
+            summary.put("millis", progress.getElapsedMillis());
+            summary.put("dryRun", dryRun);
+            summary.put("stopReason", progress.getStopReason());
+            summary.put("jobsRemaining", progress.getJobsRemaining());
+            return summary;
+        }
+    }
+
+    /**
+     * Describes the step.
+     */
+    @Extension
+    public static class DescriptorImpl extends StepDescriptor {
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(Run.class, TaskListener.class)));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getFunctionName() {
+            return "purgeJobHistory";
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Nonnull
+        @Override
+        public String getDisplayName() {
+            return Messages.PurgeJobHistoryStep_DisplayName();
+        }
+    }
+}
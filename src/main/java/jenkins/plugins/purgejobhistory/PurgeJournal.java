@@ -0,0 +1,392 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.XmlFile;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * An append-only record of how far a purge of the whole instance went, so that a purge cut short by a restart
+ * resumes where it stopped instead of loading and checking every remaining build again.
+ * <p>
+ * Two kinds of lines are appended to {@code $JENKINS_HOME/purge-job-history-journal/<id>.log}:
+ * <ul>
+ * <li>{@code D <job>} once every build of a job has been handled;</li>
+ * <li>{@code W <number> <job>} once every build of a job numbered {@code number} or higher has been handled,
+ * builds being handled newest first.</li>
+ * </ul>
+ * Lines are buffered and written then forced to disk at most every {@link #SYNC_INTERVAL_MILLIS} or
+ * {@link #SYNC_RECORDS} lines, and only the latest watermark of each job is written, so the journal costs a few
+ * writes per second whatever the pace of the purge. A crash loses at most the last interval, which is then
+ * simply done again. The settings of the purge and the user it runs as are kept next to it in {@code <id>.xml}.
+ */
+public final class PurgeJournal implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(PurgeJournal.class.getName());
+
+    /**
+     * The name of the journal directory in {@code $JENKINS_HOME}.
+     */
+    static final String JOURNAL_DIR = "purge-job-history-journal";
+
+    /**
+     * The longest time lines stay in memory before being forced to disk.
+     */
+    static final long SYNC_INTERVAL_MILLIS =
+            SystemProperties.getLong(PurgeJournal.class.getName() + ".syncIntervalMillis", 1000L);
+
+    /**
+     * The most lines kept in memory before being forced to disk.
+     */
+    static final int SYNC_RECORDS =
+            Math.max(1, SystemProperties.getInteger(PurgeJournal.class.getName() + ".syncRecords", 1000));
+
+    /**
+     * The identifier of the purge.
+     */
+    private final String id;
+
+    /**
+     * What the purge does and as whom.
+     */
+    private final Header header;
+
+    /**
+     * The jobs done, read back from the journal or handled since.
+     */
+    private final Set<String> done = new HashSet<>();
+
+    /**
+     * The watermark of each job started but not done.
+     */
+    private final Map<String, Integer> watermarks = new HashMap<>();
+
+    /**
+     * Lines not written yet.
+     */
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * Watermarks not written yet, coalesced per job.
+     */
+    private final Map<String, Integer> pendingWatermarks = new LinkedHashMap<>();
+
+    /**
+     * The number of lines not written yet.
+     */
+    private int pending;
+
+    /**
+     * When the journal was last forced to disk, in {@link System#nanoTime()}.
+     */
+    private long syncedNanos = System.nanoTime();
+
+    /**
+     * The log file, once opened for appending.
+     */
+    @CheckForNull
+    private FileChannel channel;
+
+    private PurgeJournal(String id, Header header) {
+        this.id = id;
+        this.header = header;
+    }
+
+    /**
+     * Starts the journal of a new purge.
+     *
+     * @param id      the identifier of the purge.
+     * @param options the settings of the purge.
+     * @param user    the name of the user the purge runs as.
+     * @return the journal.
+     * @throws IOException if the journal cannot be written.
+     */
+    public static PurgeJournal create(String id, PurgeOptions options, String user) throws IOException {
+        Header header = new Header(options, user);
+        getXmlFile(id).write(header);
+        Files.deleteIfExists(getLogFile(id).toPath());
+        return new PurgeJournal(id, header);
+    }
+
+    /**
+     * Reads back the journals of the purges that did not finish.
+     *
+     * @return the journals, oldest first.
+     */
+    public static List<PurgeJournal> loadAll() {
+        List<PurgeJournal> result = new ArrayList<>();
+        File[] files = getRoot().listFiles((dir, name) -> name.endsWith(".xml"));
+        if (files == null) {
+            return result;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            String id = file.getName().substring(0, file.getName().length() - ".xml".length());
+            try {
+                Object header = getXmlFile(id).read();
+                if (!(header instanceof Header)) {
+                    throw new IOException("Unexpected content " + header);
+                }
+                PurgeJournal journal = new PurgeJournal(id, (Header) header);
+                journal.replay();
+                result.add(journal);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, String.format("Discarding unreadable purge journal %s", id), e);
+                deleteFiles(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the identifier of the purge.
+     *
+     * @return the identifier of the purge.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the settings of the purge.
+     *
+     * @return the settings of the purge.
+     */
+    public PurgeOptions getOptions() {
+        return header.options;
+    }
+
+    /**
+     * Returns the name of the user the purge runs as.
+     *
+     * @return the name of the user the purge runs as.
+     */
+    public String getUser() {
+        return header.user;
+    }
+
+    /**
+     * Returns whether every build of a job has been handled.
+     *
+     * @param fullName the full name of the job.
+     * @return whether every build of the job has been handled.
+     */
+    public synchronized boolean isDone(String fullName) {
+        return done.contains(fullName);
+    }
+
+    /**
+     * Returns the number of jobs done.
+     *
+     * @return the number of jobs done.
+     */
+    public synchronized int getDoneCount() {
+        return done.size();
+    }
+
+    /**
+     * Returns down to which build number a job has been handled.
+     *
+     * @param fullName the full name of the job.
+     * @return the lowest build number handled, every build numbered higher having been handled too, or {@code 0}
+     * if the job was not started.
+     */
+    public synchronized int getWatermark(String fullName) {
+        Integer watermark = watermarks.get(fullName);
+        return watermark == null ? 0 : watermark;
+    }
+
+    /**
+     * Records that every build of a job numbered {@code number} or higher has been handled.
+     *
+     * @param fullName the full name of the job.
+     * @param number   the build number.
+     * @throws IOException if the journal cannot be written.
+     */
+    public synchronized void watermark(String fullName, int number) throws IOException {
+        watermarks.put(fullName, number);
+        if (pendingWatermarks.put(fullName, number) == null) {
+            pending++;
+        }
+        syncIfDue();
+    }
+
+    /**
+     * Records that every build of a job has been handled.
+     *
+     * @param fullName the full name of the job.
+     * @throws IOException if the journal cannot be written.
+     */
+    public synchronized void jobDone(String fullName) throws IOException {
+        done.add(fullName);
+        watermarks.remove(fullName);
+        if (pendingWatermarks.remove(fullName) != null) {
+            pending--;
+        }
+        buffer.append("D ").append(fullName).append('\n');
+        pending++;
+        syncIfDue();
+    }
+
+    /**
+     * Forces every line recorded so far to disk.
+     *
+     * @throws IOException if the journal cannot be written.
+     */
+    public synchronized void sync() throws IOException {
+        for (Map.Entry<String, Integer> entry : pendingWatermarks.entrySet()) {
+            buffer.append("W ").append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+        }
+        pendingWatermarks.clear();
+        pending = 0;
+        syncedNanos = System.nanoTime();
+        if (buffer.length() == 0) {
+            return;
+        }
+        if (channel == null) {
+            File log = getLogFile(id);
+            channel = FileChannel.open(log.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toString().getBytes(StandardCharsets.UTF_8));
+        buffer.setLength(0);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Forces the journal to disk and closes it, keeping it for the purge to be resumed.
+     *
+     * @throws IOException if the journal cannot be written.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Closes and removes the journal, once the purge has finished.
+     */
+    public synchronized void delete() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to close purge journal " + id, e);
+            }
+            channel = null;
+        }
+        buffer.setLength(0);
+        pendingWatermarks.clear();
+        pending = 0;
+        deleteFiles(id);
+    }
+
+    private void syncIfDue() throws IOException {
+        if (pending >= SYNC_RECORDS
+                || System.nanoTime() - syncedNanos >= TimeUnit.MILLISECONDS.toNanos(SYNC_INTERVAL_MILLIS)) {
+            sync();
+        }
+    }
+
+    /**
+     * Reads the log back. A last line without its end of line was cut short by a crash, and is ignored.
+     */
+    private void replay() throws IOException {
+        File log = getLogFile(id);
+        if (!log.isFile()) {
+            return;
+        }
+        String content = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+        int complete = content.lastIndexOf('\n') + 1;
+        try (BufferedReader reader = new BufferedReader(new StringReader(content.substring(0, complete)))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("D ")) {
+                    String fullName = line.substring(2);
+                    done.add(fullName);
+                    watermarks.remove(fullName);
+                } else if (line.startsWith("W ")) {
+                    int space = line.indexOf(' ', 2);
+                    try {
+                        watermarks.put(line.substring(space + 1), Integer.parseInt(line.substring(2, space)));
+                    } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                        LOGGER.fine(String.format("Ignoring malformed line of purge journal %s: %s", id, line));
+                    }
+                }
+            }
+        }
+    }
+
+    private static File getRoot() {
+        return new File(Jenkins.get().getRootDir(), JOURNAL_DIR);
+    }
+
+    private static XmlFile getXmlFile(String id) {
+        return new XmlFile(Jenkins.XSTREAM2, new File(getRoot(), id + ".xml"));
+    }
+
+    private static File getLogFile(String id) {
+        return new File(getRoot(), id + ".log");
+    }
+
+    private static void deleteFiles(String id) {
+        try {
+            Files.deleteIfExists(getLogFile(id).toPath());
+            Files.deleteIfExists(getXmlFile(id).getFile().toPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to delete purge journal " + id, e);
+        }
+    }
+
+    /**
+     * What a purge does and as whom, written once when it starts.
+     */
+    static final class Header {
+
+        /**
+         * The settings of the purge.
+         */
+        private final PurgeOptions options;
+
+        /**
+         * The name of the user the purge runs as.
+         */
+        private final String user;
+
+        Header(PurgeOptions options, String user) {
+            this.options = options;
+            this.user = user;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package jenkins.plugins.purgejobhistory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import jenkins.metrics.api.MetricProvider;
+
+/**
+ * Publishes {@link PurgeMetrics} through the Metrics plugin, under {@code jenkins.purge-job-history.*}.
+ * Only loaded when the Metrics plugin is installed.
+ */
+@Extension(optional = true)
+public class PurgeMetricProvider extends MetricProvider {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Nonnull
+    @Override
+    public MetricSet getMetricSet() {
+        PurgeMetrics metrics = PurgeMetrics.get();
+        Map<String, Metric> gauges = new LinkedHashMap<>();
+        gauge(gauges, metrics::getPurges, "purges");
+        gauge(gauges, metrics::getItemsTraversed, "items", "traversed");
+        gauge(gauges, metrics::getRunsLoaded, "runs", "loaded");
+        gauge(gauges, metrics::getRecordsRead, "records", "read");
+        gauge(gauges, metrics::getBuildsDeleted, "builds", "deleted");
+        gauge(gauges, metrics::getBytesFreed, "bytes", "freed");
+        gauge(gauges, metrics::getBuildNumbersReset, "build-numbers", "reset");
+        for (PurgeMetrics.SkipReason reason : PurgeMetrics.SkipReason.values()) {
+            String name = reason.name().toLowerCase(Locale.ENGLISH);
+            gauge(gauges, () -> metrics.getBuildsSkipped().get(name), "builds", "skipped", name);
+        }
+        histogram(gauges, metrics.getLoadLatency(), "load");
+        histogram(gauges, metrics.getPermissionLatency(), "permission");
+        histogram(gauges, metrics.getDeleteLatency(), "delete");
+        final Map<String, Metric> set = Collections.unmodifiableMap(gauges);
+        return () -> set;
+    }
+
+    private static void histogram(Map<String, Metric> gauges, PurgeMetrics.Histogram histogram, String phase) {
+        gauge(gauges, histogram::getCount, "latency", phase, "count");
+        gauge(gauges, histogram::getMeanMicros, "latency", phase, "mean");
+        gauge(gauges, histogram::getP95Micros, "latency", phase, "p95");
+        gauge(gauges, histogram::getMaxMicros, "latency", phase, "max");
+    }
+
+    private static void gauge(Map<String, Metric> gauges, Supplier<Long> value, String... names) {
+        gauges.put(MetricRegistry.name("jenkins.purge-job-history", names), (Gauge<Long>) value::get);
+    }
+}
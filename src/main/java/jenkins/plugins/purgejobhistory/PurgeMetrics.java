@@ -0,0 +1,436 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Api;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Counters and latency histograms of all the purges since Jenkins started, to graph purge performance over time.
+ * Exposed as JSON under {@code purge-job-history/metrics/api/json}, and through the Metrics plugin when installed.
+ * Dry runs count what they look at, but not what they would delete.
+ */
+@Extension
+@ExportedBean
+public class PurgeMetrics {
+
+    /**
+     * Why a build was left in place.
+     */
+    public enum SkipReason {
+        /**
+         * The build result is not one the purge selects.
+         */
+        RESULT,
+        /**
+         * The user may not delete the build.
+         */
+        PERMISSION,
+        /**
+         * The build is marked to be kept forever.
+         */
+        KEEP_FOREVER,
+        /**
+         * The build is still running.
+         */
+        BUILDING
+    }
+
+    /**
+     * The number of purges started.
+     */
+    private final AtomicLong purges = new AtomicLong();
+
+    /**
+     * The number of items traversed.
+     */
+    private final AtomicLong itemsTraversed = new AtomicLong();
+
+    /**
+     * The number of builds loaded as {@link hudson.model.Run}s.
+     */
+    private final AtomicLong runsLoaded = new AtomicLong();
+
+    /**
+     * The number of builds read from their {@code build.xml} without loading them.
+     */
+    private final AtomicLong recordsRead = new AtomicLong();
+
+    /**
+     * The number of builds deleted.
+     */
+    private final AtomicLong buildsDeleted = new AtomicLong();
+
+    /**
+     * The number of bytes freed.
+     */
+    private final AtomicLong bytesFreed = new AtomicLong();
+
+    /**
+     * The number of next build numbers written by resets.
+     */
+    private final AtomicLong buildNumbersReset = new AtomicLong();
+
+    /**
+     * The number of builds left in place, by reason.
+     */
+    private final Map<SkipReason, AtomicLong> buildsSkipped = new EnumMap<>(SkipReason.class);
+
+    /**
+     * How long it takes to load a build or read its record.
+     */
+    private final Histogram loadLatency = new Histogram();
+
+    /**
+     * How long it takes to check whether a build may be deleted.
+     */
+    private final Histogram permissionLatency = new Histogram();
+
+    /**
+     * How long it takes to delete a build, not counting throttling.
+     */
+    private final Histogram deleteLatency = new Histogram();
+
+    /**
+     * Creates the metrics.
+     */
+    public PurgeMetrics() {
+        for (SkipReason reason : SkipReason.values()) {
+            buildsSkipped.put(reason, new AtomicLong());
+        }
+    }
+
+    /**
+     * Returns the metrics.
+     *
+     * @return the metrics.
+     */
+    public static PurgeMetrics get() {
+        return ExtensionList.lookupSingleton(PurgeMetrics.class);
+    }
+
+    /**
+     * Records that a purge started.
+     */
+    public void purgeStarted() {
+        purges.incrementAndGet();
+    }
+
+    /**
+     * Records that an item was traversed.
+     */
+    public void itemTraversed() {
+        itemsTraversed.incrementAndGet();
+    }
+
+    /**
+     * Records that a build was loaded.
+     *
+     * @param nanos how long loading took.
+     */
+    public void runLoaded(long nanos) {
+        runsLoaded.incrementAndGet();
+        loadLatency.record(nanos);
+    }
+
+    /**
+     * Records that the record of a build was read instead of loading the build.
+     *
+     * @param nanos how long reading took.
+     */
+    public void recordRead(long nanos) {
+        recordsRead.incrementAndGet();
+        loadLatency.record(nanos);
+    }
+
+    /**
+     * Records a permission check.
+     *
+     * @param nanos how long the check took.
+     */
+    public void permissionChecked(long nanos) {
+        permissionLatency.record(nanos);
+    }
+
+    /**
+     * Records that a build was deleted.
+     *
+     * @param bytes the disk space freed.
+     * @param nanos how long the deletion took.
+     */
+    public void buildDeleted(long bytes, long nanos) {
+        buildsDeleted.incrementAndGet();
+        bytesFreed.addAndGet(bytes);
+        deleteLatency.record(nanos);
+    }
+
+    /**
+     * Records that a build was left in place.
+     *
+     * @param reason why.
+     */
+    public void buildSkipped(SkipReason reason) {
+        buildsSkipped.get(reason).incrementAndGet();
+    }
+
+    /**
+     * Records that the next build number of a job was written by a reset.
+     */
+    public void buildNumberReset() {
+        buildNumbersReset.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of purges started.
+     *
+     * @return the number of purges started.
+     */
+    @Exported
+    public long getPurges() {
+        return purges.get();
+    }
+
+    /**
+     * Returns the number of items traversed.
+     *
+     * @return the number of items traversed.
+     */
+    @Exported
+    public long getItemsTraversed() {
+        return itemsTraversed.get();
+    }
+
+    /**
+     * Returns the number of builds loaded.
+     *
+     * @return the number of builds loaded.
+     */
+    @Exported
+    public long getRunsLoaded() {
+        return runsLoaded.get();
+    }
+
+    /**
+     * Returns the number of builds read from their record without loading them.
+     *
+     * @return the number of build records read.
+     */
+    @Exported
+    public long getRecordsRead() {
+        return recordsRead.get();
+    }
+
+    /**
+     * Returns the number of builds deleted.
+     *
+     * @return the number of builds deleted.
+     */
+    @Exported
+    public long getBuildsDeleted() {
+        return buildsDeleted.get();
+    }
+
+    /**
+     * Returns the number of bytes freed.
+     *
+     * @return the number of bytes freed.
+     */
+    @Exported
+    public long getBytesFreed() {
+        return bytesFreed.get();
+    }
+
+    /**
+     * Returns the number of next build numbers written by resets.
+     *
+     * @return the number of next build numbers written.
+     */
+    @Exported
+    public long getBuildNumbersReset() {
+        return buildNumbersReset.get();
+    }
+
+    /**
+     * Returns the number of builds left in place, by reason.
+     *
+     * @return the number of builds left in place, keyed by lower case reason.
+     */
+    @Exported
+    public Map<String, Long> getBuildsSkipped() {
+        Map<String, Long> skipped = new LinkedHashMap<>();
+        for (Map.Entry<SkipReason, AtomicLong> entry : buildsSkipped.entrySet()) {
+            skipped.put(entry.getKey().name().toLowerCase(Locale.ENGLISH), entry.getValue().get());
+        }
+        return skipped;
+    }
+
+    /**
+     * Returns how long it takes to load a build or read its record.
+     *
+     * @return the load latency.
+     */
+    @Exported(inline = true)
+    public Histogram getLoadLatency() {
+        return loadLatency;
+    }
+
+    /**
+     * Returns how long it takes to check whether a build may be deleted.
+     *
+     * @return the permission check latency.
+     */
+    @Exported(inline = true)
+    public Histogram getPermissionLatency() {
+        return permissionLatency;
+    }
+
+    /**
+     * Returns how long it takes to delete a build.
+     *
+     * @return the delete latency.
+     */
+    @Exported(inline = true)
+    public Histogram getDeleteLatency() {
+        return deleteLatency;
+    }
+
+    /**
+     * Exposes the metrics through the remote API.
+     *
+     * @return the remote API.
+     */
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * A lock free latency histogram with power of two buckets, in microseconds.
+     * Percentiles are reported as the upper bound of their bucket, so they are at most twice the true value.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Histogram {
+
+        /**
+         * Bucket {@code i} counts latencies below {@code 2^i} microseconds; the last one counts everything else.
+         */
+        private static final int BUCKETS = 40;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong totalNanos = new AtomicLong();
+
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        /**
+         * Records a latency.
+         *
+         * @param nanos the latency in nanoseconds.
+         */
+        public void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        /**
+         * Returns the number of latencies recorded.
+         *
+         * @return the number of latencies recorded.
+         */
+        @Exported
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Returns the mean latency.
+         *
+         * @return the mean latency in microseconds.
+         */
+        @Exported
+        public long getMeanMicros() {
+            long n = count.get();
+            return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.get() / n);
+        }
+
+        /**
+         * Returns the highest latency.
+         *
+         * @return the highest latency in microseconds.
+         */
+        @Exported
+        public long getMaxMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+        }
+
+        /**
+         * Returns the median latency.
+         *
+         * @return the median latency in microseconds.
+         */
+        @Exported
+        public long getP50Micros() {
+            return getPercentileMicros(0.50);
+        }
+
+        /**
+         * Returns the 95th percentile latency.
+         *
+         * @return the 95th percentile latency in microseconds.
+         */
+        @Exported
+        public long getP95Micros() {
+            return getPercentileMicros(0.95);
+        }
+
+        /**
+         * Returns the 99th percentile latency.
+         *
+         * @return the 99th percentile latency in microseconds.
+         */
+        @Exported
+        public long getP99Micros() {
+            return getPercentileMicros(0.99);
+        }
+
+        /**
+         * Returns a percentile of the latency.
+         *
+         * @param quantile the percentile, between {@code 0} and {@code 1}.
+         * @return the upper bound of the bucket holding the percentile, in microseconds.
+         */
+        public long getPercentileMicros(double quantile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(1L << i, getMaxMicros());
+                }
+            }
+            return getMaxMicros();
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package jenkins.plugins.purgejobhistory;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import javax.annotation.CheckForNull;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * The settings of a single purge, shared by the UI, the CLI command and the background tasks.
+ */
+public class PurgeOptions implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * {@code true} if the next build number should be reset to {@code 1} after the purge.
+     */
+    private boolean reset;
+
+    /**
+     * {@code true} to delete even builds marked to be kept forever.
+     */
+    private boolean force;
+
+    /**
+     * {@code true} to recurse into sub-folders/sub-jobs.
+     */
+    private boolean recurse;
+
+    /**
+     * The number of jobs purged in parallel, or {@code 0} to use {@link PurgeEngine#getDefaultParallelism()}.
+     */
+    private int parallelism;
+
+    /**
+     * {@code true} to move builds to the trash and delete them in the background.
+     */
+    private boolean trash;
+
+    /**
+     * {@code true} to delete builds that are not in memory without loading them.
+     */
+    private boolean streaming;
+
+    /**
+     * The number of builds handled per chunk by streaming purges, or {@code 0} to use
+     * {@link PurgeEngine#getDefaultChunkSize()}.
+     */
+    private int chunkSize;
+
+    /**
+     * {@code true} to only report what would be deleted and how much space it would reclaim.
+     */
+    private boolean dryRun;
+
+    /**
+     * The number of builds deleted per second, or {@code 0} to use {@link PurgeThrottle#getDefaultBuildsPerSecond()}.
+     */
+    private int buildsPerSecond;
+
+    /**
+     * The number of files deleted per second, or {@code 0} to use {@link PurgeThrottle#getDefaultFilesPerSecond()}.
+     */
+    private int filesPerSecond;
+
+    /**
+     * The free disk space wanted in {@code $JENKINS_HOME}, in gigabytes, or {@code 0} to delete every build selected.
+     */
+    private int freeSpaceGigabytes;
+
+    /**
+     * The wall clock time after which the purge stops, in seconds, or {@code 0} for no limit.
+     */
+    private int timeBudgetSeconds;
+
+    /**
+     * The CPU time of the purging threads after which the purge stops, in seconds, or {@code 0} for no limit.
+     */
+    private int cpuBudgetSeconds;
+
+    /**
+     * Which builds of each job are deleted.
+     */
+    private RetentionFilter filter = new RetentionFilter();
+
+    /**
+     * Creates the default options: no reset, no force, no recursion.
+     */
+    public PurgeOptions() {
+    }
+
+    /**
+     * Creates options with the three historical flags.
+     *
+     * @param reset   {@code true} if the next build number should be reset to {@code 1} after the purge
+     * @param force   {@code true} to delete even builds marked to be kept forever
+     * @param recurse {@code true} to recurse into sub-folders/sub-jobs
+     */
+    public PurgeOptions(boolean reset, boolean force, boolean recurse) {
+        this.reset = reset;
+        this.force = force;
+        this.recurse = recurse;
+    }
+
+    /**
+     * Returns whether the next build number should be reset to {@code 1} after the purge.
+     *
+     * @return whether the next build number should be reset to {@code 1} after the purge.
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * Sets whether the next build number should be reset to {@code 1} after the purge.
+     *
+     * @param reset whether the next build number should be reset to {@code 1} after the purge.
+     */
+    public void setReset(boolean reset) {
+        this.reset = reset;
+    }
+
+    /**
+     * Returns whether builds marked to be kept forever are deleted too.
+     *
+     * @return whether builds marked to be kept forever are deleted too.
+     */
+    public boolean isForce() {
+        return force;
+    }
+
+    /**
+     * Sets whether builds marked to be kept forever are deleted too.
+     *
+     * @param force whether builds marked to be kept forever are deleted too.
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * Returns whether the purge recurses into sub-folders/sub-jobs.
+     *
+     * @return whether the purge recurses into sub-folders/sub-jobs.
+     */
+    public boolean isRecurse() {
+        return recurse;
+    }
+
+    /**
+     * Sets whether the purge recurses into sub-folders/sub-jobs.
+     *
+     * @param recurse whether the purge recurses into sub-folders/sub-jobs.
+     */
+    public void setRecurse(boolean recurse) {
+        this.recurse = recurse;
+    }
+
+    /**
+     * Returns the number of jobs purged in parallel.
+     *
+     * @return the number of jobs purged in parallel, or {@code 0} for the default.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of jobs purged in parallel.
+     *
+     * @param parallelism the number of jobs purged in parallel, or {@code 0} for the default.
+     * @throws IllegalArgumentException if more than {@link PurgeEngine#getMaxParallelism()} jobs are asked for.
+     */
+    public void setParallelism(int parallelism) {
+        int max = PurgeEngine.getMaxParallelism();
+        if (parallelism > max) {
+            throw new IllegalArgumentException(String.format(
+                    "At most %d jobs can be purged in parallel, not %d", max, parallelism));
+        }
+        this.parallelism = Math.max(0, parallelism);
+    }
+
+    /**
+     * Returns whether builds are moved to the trash and deleted in the background.
+     *
+     * @return whether builds are moved to the trash and deleted in the background.
+     */
+    public boolean isTrash() {
+        return trash;
+    }
+
+    /**
+     * Sets whether builds are moved to the trash and deleted in the background.
+     *
+     * @param trash whether builds are moved to the trash and deleted in the background.
+     */
+    public void setTrash(boolean trash) {
+        this.trash = trash;
+    }
+
+    /**
+     * Returns whether builds that are not in memory are deleted without loading them.
+     *
+     * @return whether builds that are not in memory are deleted without loading them.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Sets whether builds that are not in memory are deleted without loading them.
+     *
+     * @param streaming whether builds that are not in memory are deleted without loading them.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Returns the number of builds handled per chunk by streaming purges.
+     *
+     * @return the number of builds handled per chunk, or {@code 0} for the default.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the number of builds handled per chunk by streaming purges.
+     *
+     * @param chunkSize the number of builds handled per chunk, or {@code 0} for the default.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(0, chunkSize);
+    }
+
+    /**
+     * Returns whether the purge only reports what it would delete.
+     *
+     * @return whether the purge only reports what it would delete.
+     */
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    /**
+     * Sets whether the purge only reports what it would delete.
+     *
+     * @param dryRun whether the purge only reports what it would delete.
+     */
+    public void setDryRun(boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * Returns the number of builds deleted per second.
+     *
+     * @return the number of builds deleted per second, or {@code 0} for the default.
+     */
+    public int getBuildsPerSecond() {
+        return buildsPerSecond;
+    }
+
+    /**
+     * Sets the number of builds deleted per second.
+     *
+     * @param buildsPerSecond the number of builds deleted per second, or {@code 0} for the default.
+     */
+    public void setBuildsPerSecond(int buildsPerSecond) {
+        this.buildsPerSecond = Math.max(0, buildsPerSecond);
+    }
+
+    /**
+     * Returns the number of files deleted per second.
+     *
+     * @return the number of files deleted per second, or {@code 0} for the default.
+     */
+    public int getFilesPerSecond() {
+        return filesPerSecond;
+    }
+
+    /**
+     * Sets the number of files deleted per second.
+     *
+     * @param filesPerSecond the number of files deleted per second, or {@code 0} for the default.
+     */
+    public void setFilesPerSecond(int filesPerSecond) {
+        this.filesPerSecond = Math.max(0, filesPerSecond);
+    }
+
+    /**
+     * Returns the free disk space wanted. When set, the purge deletes the biggest and oldest of the builds selected
+     * first, across all jobs, and stops as soon as {@code $JENKINS_HOME} has that much usable space.
+     *
+     * @return the free disk space wanted, in gigabytes, or {@code 0} to delete every build selected.
+     */
+    public int getFreeSpaceGigabytes() {
+        return freeSpaceGigabytes;
+    }
+
+    /**
+     * Sets the free disk space wanted.
+     *
+     * @param freeSpaceGigabytes the free disk space wanted, in gigabytes, or {@code 0} to delete every build selected.
+     */
+    public void setFreeSpaceGigabytes(int freeSpaceGigabytes) {
+        this.freeSpaceGigabytes = Math.max(0, freeSpaceGigabytes);
+    }
+
+    /**
+     * Returns the wall clock time after which the purge stops cleanly, leaving the remaining jobs for later.
+     *
+     * @return the time budget in seconds, or {@code 0} for no limit.
+     */
+    public int getTimeBudgetSeconds() {
+        return timeBudgetSeconds;
+    }
+
+    /**
+     * Sets the wall clock time after which the purge stops cleanly.
+     *
+     * @param timeBudgetSeconds the time budget in seconds, or {@code 0} for no limit.
+     */
+    public void setTimeBudgetSeconds(int timeBudgetSeconds) {
+        this.timeBudgetSeconds = Math.max(0, timeBudgetSeconds);
+    }
+
+    /**
+     * Returns the CPU time, summed over the purging threads, after which the purge stops cleanly.
+     *
+     * @return the CPU budget in seconds, or {@code 0} for no limit.
+     */
+    public int getCpuBudgetSeconds() {
+        return cpuBudgetSeconds;
+    }
+
+    /**
+     * Sets the CPU time, summed over the purging threads, after which the purge stops cleanly.
+     *
+     * @param cpuBudgetSeconds the CPU budget in seconds, or {@code 0} for no limit.
+     */
+    public void setCpuBudgetSeconds(int cpuBudgetSeconds) {
+        this.cpuBudgetSeconds = Math.max(0, cpuBudgetSeconds);
+    }
+
+    /**
+     * Returns which builds of each job are deleted.
+     *
+     * @return which builds of each job are deleted.
+     */
+    public RetentionFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets which builds of each job are deleted.
+     *
+     * @param filter which builds of each job are deleted.
+     */
+    public void setFilter(RetentionFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        String description = String.format(
+                "Reset Build Num:%s - Force Delete:%s - Recursive:%s - Parallelism:%s - Trash:%s - Streaming:%s",
+                reset, force, recurse, parallelism > 0 ? parallelism : PurgeEngine.getDefaultParallelism(), trash,
+                streaming);
+        if (buildsPerSecond > 0 || filesPerSecond > 0) {
+            description += String.format(" - Builds/s:%s - Files/s:%s", buildsPerSecond, filesPerSecond);
+        }
+        if (timeBudgetSeconds > 0 || cpuBudgetSeconds > 0) {
+            description += String.format(" - Time Budget:%ss - CPU Budget:%ss", timeBudgetSeconds, cpuBudgetSeconds);
+        }
+        if (freeSpaceGigabytes > 0) {
+            description += String.format(" - Until Free:%d GB", freeSpaceGigabytes);
+        }
+        if (dryRun) {
+            description += " - Dry Run";
+        }
+        return filter.isEmpty() ? description : description + " - " + filter;
+    }
+
+    /**
+     * Reads the options submitted from the purge form.
+     *
+     * @param req the form submission.
+     * @return the submitted options.
+     * @throws IllegalArgumentException if an unknown build result or too many jobs in parallel were submitted.
+     */
+    static PurgeOptions fromRequest(StaplerRequest req) {
+        PurgeOptions options = new PurgeOptions(isChecked(req, "resetNextBuild"), isChecked(req, "forceDelete"),
+                isChecked(req, "recurse"));
+        options.setParallelism(toInt(req.getParameter("parallelism"), 0));
+        options.setTrash(isChecked(req, "trash"));
+        options.setStreaming(isChecked(req, "streaming"));
+        options.setDryRun(isChecked(req, "dryRun"));
+        options.setBuildsPerSecond(toInt(req.getParameter("buildsPerSecond"), 0));
+        options.setFilesPerSecond(toInt(req.getParameter("filesPerSecond"), 0));
+        options.setFreeSpaceGigabytes(toInt(req.getParameter("freeSpaceGigabytes"), 0));
+        options.setTimeBudgetSeconds(toInt(req.getParameter("timeBudgetSeconds"), 0));
+        options.setCpuBudgetSeconds(toInt(req.getParameter("cpuBudgetSeconds"), 0));
+        RetentionFilter filter = new RetentionFilter();
+        filter.setOlderThanDays(toInt(req.getParameter("olderThanDays"), 0));
+        filter.setKeepLast(toInt(req.getParameter("keepLast"), 0));
+        String results = req.getParameter("results");
+        if (results != null) {
+            filter.setResults(Arrays.asList(results.split("[,\\s]+")));
+        }
+        filter.setFromBuild(toInt(req.getParameter("fromBuild"), 0));
+        filter.setToBuild(toInt(req.getParameter("toBuild"), 0));
+        options.setFilter(filter);
+        return options;
+    }
+
+    private static boolean isChecked(StaplerRequest req, String name) {
+        String value = req.getParameter(name);
+        return value != null && ("on".equalsIgnoreCase(value) || "true".equalsIgnoreCase(value));
+    }
+
+    /**
+     * Parses an optional number submitted from a form.
+     *
+     * @param value        the submitted value, possibly blank.
+     * @param defaultValue the value to use when nothing or garbage was submitted.
+     * @return the parsed value.
+     */
+    static int toInt(@CheckForNull String value, int defaultValue) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
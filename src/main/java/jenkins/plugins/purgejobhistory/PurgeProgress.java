@@ -0,0 +1,386 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Functions;
+import hudson.Util;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.CheckForNull;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Counters describing how far a purge has got. Updated by the purging threads, read by the progress page.
+ * Subclasses may override {@link #jobFinished} and {@link #jobFailed} to follow the purge job by job; these are
+ * called from the worker threads.
+ * It is also how a running purge is told to stop: {@link #stop(String)} asks the purge to wind down after the builds
+ * being deleted, and the jobs it did not get to are counted as remaining.
+ */
+@ExportedBean
+public class PurgeProgress {
+
+    /**
+     * The number of items visited.
+     */
+    private final AtomicLong itemsScanned = new AtomicLong();
+
+    /**
+     * The number of jobs whose builds were examined.
+     */
+    private final AtomicLong jobsScanned = new AtomicLong();
+
+    /**
+     * The number of jobs whose purge failed.
+     */
+    private final AtomicLong jobsFailed = new AtomicLong();
+
+    /**
+     * The number of jobs left, entirely or partly, because the purge was stopped.
+     */
+    private final AtomicLong jobsRemaining = new AtomicLong();
+
+    /**
+     * Why the purge was stopped, or {@code null} if it was not.
+     */
+    @CheckForNull
+    private volatile String stopReason;
+
+    /**
+     * The number of builds deleted.
+     */
+    private final AtomicLong buildsDeleted = new AtomicLong();
+
+    /**
+     * The number of builds examined but left in place.
+     */
+    private final AtomicLong buildsSkipped = new AtomicLong();
+
+    /**
+     * The number of bytes freed by deleting builds.
+     */
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+
+    /**
+     * When the purge started, or {@code 0} if not yet started.
+     */
+    private final AtomicLong startTime = new AtomicLong();
+
+    /**
+     * When the purge finished, or {@code 0} if still running.
+     */
+    private final AtomicLong endTime = new AtomicLong();
+
+    /**
+     * What a dry run would delete from each job.
+     */
+    private final List<JobEstimate> jobEstimates = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Records the start of the purge.
+     */
+    public void started() {
+        startTime.compareAndSet(0, System.currentTimeMillis());
+    }
+
+    /**
+     * Records the end of the purge.
+     */
+    public void finished() {
+        endTime.compareAndSet(0, System.currentTimeMillis());
+    }
+
+    /**
+     * Records that an item was visited.
+     */
+    public void itemScanned() {
+        itemsScanned.incrementAndGet();
+    }
+
+    /**
+     * Records that the builds of a job were examined.
+     */
+    public void jobScanned() {
+        jobsScanned.incrementAndGet();
+    }
+
+    /**
+     * Records that every build of a job has been handled. A dry run reports what it would delete.
+     *
+     * @param fullName the full name of the job.
+     * @param deleted  the number of builds deleted.
+     * @param kept     the number of builds left in place.
+     * @param bytes    the disk space reclaimed.
+     * @param millis   how long the job took.
+     */
+    public void jobFinished(String fullName, int deleted, int kept, long bytes, long millis) {
+    }
+
+    /**
+     * Records that the purge of a job failed. The purge goes on with the other jobs.
+     *
+     * @param fullName the full name of the job.
+     * @param cause    why it failed.
+     */
+    public void jobFailed(String fullName, Throwable cause) {
+        jobsFailed.incrementAndGet();
+    }
+
+    /**
+     * Records that a job was left, entirely or partly, because the purge was stopped.
+     */
+    public void jobRemaining() {
+        jobsRemaining.incrementAndGet();
+    }
+
+    /**
+     * Asks the purge to stop after the builds being deleted. Only the first reason is kept.
+     *
+     * @param reason why the purge should stop.
+     * @return {@code true} if the purge was not already asked to stop.
+     */
+    public boolean stop(String reason) {
+        synchronized (this) {
+            if (stopReason != null) {
+                return false;
+            }
+            stopReason = reason;
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the purge was asked to stop.
+     *
+     * @return whether the purge was asked to stop.
+     */
+    @Exported
+    public boolean isStopped() {
+        return stopReason != null;
+    }
+
+    /**
+     * Returns why the purge was asked to stop.
+     *
+     * @return why the purge was asked to stop, or {@code null} if it was not.
+     */
+    @Exported
+    @CheckForNull
+    public String getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * Returns the number of jobs left, entirely or partly, because the purge was stopped.
+     *
+     * @return the number of jobs remaining.
+     */
+    @Exported
+    public long getJobsRemaining() {
+        return jobsRemaining.get();
+    }
+
+    /**
+     * Records that a build was deleted.
+     *
+     * @param bytes the disk space the build used.
+     */
+    public void buildDeleted(long bytes) {
+        buildsDeleted.incrementAndGet();
+        bytesReclaimed.addAndGet(bytes);
+    }
+
+    /**
+     * Records what a dry run would delete from a job.
+     *
+     * @param fullName the full name of the job.
+     * @param builds   the number of builds that would be deleted.
+     * @param bytes    the disk space these builds use.
+     */
+    public void jobEstimated(String fullName, int builds, long bytes) {
+        jobEstimates.add(new JobEstimate(fullName, builds, bytes));
+    }
+
+    /**
+     * Records that a build was left in place.
+     */
+    public void buildSkipped() {
+        buildsSkipped.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of items visited.
+     *
+     * @return the number of items visited.
+     */
+    @Exported
+    public long getItemsScanned() {
+        return itemsScanned.get();
+    }
+
+    /**
+     * Returns the number of jobs whose builds were examined.
+     *
+     * @return the number of jobs whose builds were examined.
+     */
+    @Exported
+    public long getJobsScanned() {
+        return jobsScanned.get();
+    }
+
+    /**
+     * Returns the number of jobs whose purge failed.
+     *
+     * @return the number of jobs whose purge failed.
+     */
+    @Exported
+    public long getJobsFailed() {
+        return jobsFailed.get();
+    }
+
+    /**
+     * Returns the number of builds deleted.
+     *
+     * @return the number of builds deleted.
+     */
+    @Exported
+    public long getBuildsDeleted() {
+        return buildsDeleted.get();
+    }
+
+    /**
+     * Returns the number of builds examined but left in place.
+     *
+     * @return the number of builds examined but left in place.
+     */
+    @Exported
+    public long getBuildsSkipped() {
+        return buildsSkipped.get();
+    }
+
+    /**
+     * Returns the number of bytes freed by deleting builds.
+     *
+     * @return the number of bytes freed by deleting builds.
+     */
+    @Exported
+    public long getBytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+
+    /**
+     * Returns the time elapsed since the purge started, up to its end if it has finished.
+     *
+     * @return the elapsed time in milliseconds.
+     */
+    @Exported
+    public long getElapsedMillis() {
+        long start = startTime.get();
+        if (start == 0) {
+            return 0;
+        }
+        long end = endTime.get();
+        return (end == 0 ? System.currentTimeMillis() : end) - start;
+    }
+
+    /**
+     * Returns the elapsed time in human readable form.
+     *
+     * @return the elapsed time in human readable form.
+     */
+    public String getElapsedString() {
+        return Util.getTimeSpanString(getElapsedMillis());
+    }
+
+    /**
+     * Returns the reclaimed space in human readable form.
+     *
+     * @return the reclaimed space in human readable form.
+     */
+    public String getBytesReclaimedString() {
+        return Functions.humanReadableByteSize(getBytesReclaimed());
+    }
+
+    /**
+     * Returns what a dry run would delete from each job, largest first.
+     *
+     * @return what a dry run would delete from each job, empty unless this is a dry run.
+     */
+    @Exported
+    public List<JobEstimate> getJobEstimates() {
+        List<JobEstimate> estimates;
+        synchronized (jobEstimates) {
+            estimates = new ArrayList<>(jobEstimates);
+        }
+        estimates.sort(Comparator.comparingLong(JobEstimate::getBytes).reversed());
+        return estimates;
+    }
+
+    /**
+     * What a dry run would delete from one job.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class JobEstimate {
+
+        /**
+         * The full name of the job.
+         */
+        private final String fullName;
+
+        /**
+         * The number of builds that would be deleted.
+         */
+        private final int builds;
+
+        /**
+         * The disk space these builds use.
+         */
+        private final long bytes;
+
+        JobEstimate(String fullName, int builds, long bytes) {
+            this.fullName = fullName;
+            this.builds = builds;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Returns the full name of the job.
+         *
+         * @return the full name of the job.
+         */
+        @Exported
+        public String getFullName() {
+            return fullName;
+        }
+
+        /**
+         * Returns the number of builds that would be deleted.
+         *
+         * @return the number of builds that would be deleted.
+         */
+        @Exported
+        public int getBuilds() {
+            return builds;
+        }
+
+        /**
+         * Returns the disk space these builds use.
+         *
+         * @return the disk space in bytes.
+         */
+        @Exported
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the disk space these builds use in human readable form.
+         *
+         * @return the disk space in human readable form.
+         */
+        public String getBytesString() {
+            return Functions.humanReadableByteSize(bytes);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.scheduler.CronTabList;
+import hudson.scheduler.Hash;
+import hudson.util.FormValidation;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import jenkins.model.GlobalConfiguration;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+
+/**
+ * The retention purge run by {@link ScheduledPurge}: when it runs, how much it may do per run, which builds it
+ * deletes, and where the previous run stopped.
+ */
+@Extension
+public class PurgeSchedule extends GlobalConfiguration {
+
+    private static final Logger LOGGER = Logger.getLogger(PurgeSchedule.class.getName());
+
+    /**
+     * Whether scheduled purges run.
+     */
+    private boolean enabled;
+
+    /**
+     * When to run, in cron syntax.
+     */
+    private String spec = "H/15 * * * *";
+
+    /**
+     * The most jobs purged per run.
+     */
+    private int maxJobsPerRun = 100;
+
+    /**
+     * After how many seconds a run stops, between two builds of the job it is purging.
+     */
+    private int timeBudgetSeconds = 60;
+
+    /**
+     * Only delete builds started more than this many days ago, if positive.
+     */
+    private int olderThanDays;
+
+    /**
+     * Keep this many of the most recent builds of each job, if positive.
+     */
+    private int keepLast;
+
+    /**
+     * Only delete builds with one of these comma separated results, if not blank.
+     */
+    @CheckForNull
+    private String results;
+
+    /**
+     * Whether builds marked to be kept forever are deleted too.
+     */
+    private boolean force;
+
+    /**
+     * Whether builds that are not in memory are deleted without loading them.
+     */
+    private boolean streaming;
+
+    /**
+     * The full name of the last job purged, or {@code null} to start from the first job.
+     */
+    @CheckForNull
+    private String cursor;
+
+    /**
+     * Loads the schedule.
+     */
+    public PurgeSchedule() {
+        load();
+    }
+
+    /**
+     * Returns the schedule.
+     *
+     * @return the schedule.
+     */
+    public static PurgeSchedule get() {
+        return ExtensionList.lookupSingleton(PurgeSchedule.class);
+    }
+
+    /**
+     * Binds the submitted form, then saves it.
+     *
+     * @param req  the request.
+     * @param json the submitted form.
+     * @return {@code true}, to carry on with the other sections of the page.
+     * @throws FormException if the form is invalid.
+     */
+    @Override
+    public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+        req.bindJSON(this, json);
+        save();
+        return true;
+    }
+
+    /**
+     * Returns the options of each run.
+     *
+     * @return the options of each run.
+     * @throws IllegalArgumentException if an unknown build result is configured.
+     */
+    PurgeOptions toOptions() {
+        PurgeOptions options = new PurgeOptions(false, force, false);
+        options.setStreaming(streaming);
+        RetentionFilter filter = new RetentionFilter();
+        filter.setOlderThanDays(olderThanDays);
+        filter.setKeepLast(keepLast);
+        if (results != null) {
+            filter.setResults(Arrays.asList(results.split("[,\\s]+")));
+        }
+        options.setFilter(filter);
+        return options;
+    }
+
+    /**
+     * Parses the schedule, spreading {@code H} over the instance like build triggers do.
+     *
+     * @return the schedule, or {@code null} if it is invalid.
+     */
+    @CheckForNull
+    CronTabList getCronTabs() {
+        try {
+            return CronTabList.create(spec, Hash.from(Jenkins.get().getLegacyInstanceId() + getId()));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning(String.format("Invalid purge schedule %s: %s", spec, e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Checks the schedule field.
+     *
+     * @param value the schedule.
+     * @return the validation result.
+     */
+    @RequirePOST
+    public FormValidation doCheckSpec(@QueryParameter String value) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        try {
+            CronTabList.create(Util.fixNull(value), Hash.from(getId()));
+            return FormValidation.ok();
+        } catch (IllegalArgumentException e) {
+            return FormValidation.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Checks the results field.
+     *
+     * @param value the comma separated results.
+     * @return the validation result.
+     */
+    @RequirePOST
+    public FormValidation doCheckResults(@QueryParameter String value) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        try {
+            new RetentionFilter().setResults(Arrays.asList(Util.fixNull(value).split("[,\\s]+")));
+            return FormValidation.ok();
+        } catch (IllegalArgumentException e) {
+            return FormValidation.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns whether scheduled purges run.
+     *
+     * @return whether scheduled purges run.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets whether scheduled purges run.
+     *
+     * @param enabled whether scheduled purges run.
+     */
+    @DataBoundSetter
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns when to run.
+     *
+     * @return when to run, in cron syntax.
+     */
+    public String getSpec() {
+        return spec;
+    }
+
+    /**
+     * Sets when to run.
+     *
+     * @param spec when to run, in cron syntax.
+     */
+    @DataBoundSetter
+    public void setSpec(String spec) {
+        this.spec = Util.fixNull(spec).trim();
+    }
+
+    /**
+     * Returns the most jobs purged per run.
+     *
+     * @return the most jobs purged per run.
+     */
+    public int getMaxJobsPerRun() {
+        return maxJobsPerRun;
+    }
+
+    /**
+     * Sets the most jobs purged per run.
+     *
+     * @param maxJobsPerRun the most jobs purged per run.
+     */
+    @DataBoundSetter
+    public void setMaxJobsPerRun(int maxJobsPerRun) {
+        this.maxJobsPerRun = Math.max(1, maxJobsPerRun);
+    }
+
+    /**
+     * Returns after how many seconds a run stops, even in the middle of a job.
+     *
+     * @return the time budget of a run in seconds.
+     */
+    public int getTimeBudgetSeconds() {
+        return timeBudgetSeconds;
+    }
+
+    /**
+     * Sets after how many seconds a run stops, even in the middle of a job, which the next run then picks up.
+     *
+     * @param timeBudgetSeconds the time budget of a run in seconds.
+     */
+    @DataBoundSetter
+    public void setTimeBudgetSeconds(int timeBudgetSeconds) {
+        this.timeBudgetSeconds = Math.max(1, timeBudgetSeconds);
+    }
+
+    /**
+     * Returns the minimum age in days of the deleted builds.
+     *
+     * @return the minimum age in days, or {@code 0} for no limit.
+     */
+    public int getOlderThanDays() {
+        return olderThanDays;
+    }
+
+    /**
+     * Sets the minimum age in days of the deleted builds.
+     *
+     * @param olderThanDays the minimum age in days, or {@code 0} for no limit.
+     */
+    @DataBoundSetter
+    public void setOlderThanDays(int olderThanDays) {
+        this.olderThanDays = Math.max(0, olderThanDays);
+    }
+
+    /**
+     * Returns the number of most recent builds kept.
+     *
+     * @return the number of most recent builds kept, or {@code 0} for none.
+     */
+    public int getKeepLast() {
+        return keepLast;
+    }
+
+    /**
+     * Sets the number of most recent builds kept.
+     *
+     * @param keepLast the number of most recent builds kept, or {@code 0} for none.
+     */
+    @DataBoundSetter
+    public void setKeepLast(int keepLast) {
+        this.keepLast = Math.max(0, keepLast);
+    }
+
+    /**
+     * Returns the results of the deleted builds.
+     *
+     * @return the comma separated results, or {@code null} for any.
+     */
+    @CheckForNull
+    public String getResults() {
+        return results;
+    }
+
+    /**
+     * Sets the results of the deleted builds.
+     *
+     * @param results the comma separated results, blank for any.
+     */
+    @DataBoundSetter
+    public void setResults(@CheckForNull String results) {
+        this.results = Util.fixEmptyAndTrim(results);
+    }
+
+    /**
+     * Returns whether builds marked to be kept forever are deleted too.
+     *
+     * @return whether builds marked to be kept forever are deleted too.
+     */
+    public boolean isForce() {
+        return force;
+    }
+
+    /**
+     * Sets whether builds marked to be kept forever are deleted too.
+     *
+     * @param force whether builds marked to be kept forever are deleted too.
+     */
+    @DataBoundSetter
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /**
+     * Returns whether builds that are not in memory are deleted without loading them.
+     *
+     * @return whether builds that are not in memory are deleted without loading them.
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Sets whether builds that are not in memory are deleted without loading them.
+     *
+     * @param streaming whether builds that are not in memory are deleted without loading them.
+     */
+    @DataBoundSetter
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Returns where the previous run stopped.
+     *
+     * @return the full name of the last job purged, or {@code null} if the next run starts from the first job.
+     */
+    @CheckForNull
+    public String getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Records where a run stopped.
+     *
+     * @param cursor the full name of the last job purged, or {@code null} if the next run starts from the first job.
+     */
+    void setCursor(@CheckForNull String cursor) {
+        this.cursor = cursor;
+        save();
+    }
+}
@@ -0,0 +1,460 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.model.AbstractItem;
+import hudson.model.Api;
+import hudson.model.ModelObject;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.HttpResponses;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+import org.springframework.security.core.Authentication;
+
+/**
+ * A purge running in the background, submitted through {@link PurgeTaskManager}.
+ * Bound to {@code task/<id>} under the purge actions, where it renders a progress page and a JSON API.
+ */
+@ExportedBean
+public class PurgeTask implements Runnable, ModelObject {
+
+    private static final Logger LOGGER = Logger.getLogger(PurgeTask.class.getName());
+
+    /**
+     * The lifecycle of a task. {@code STOPPED} is a purge cancelled, interrupted or out of budget before it was done.
+     */
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, STOPPED, FAILED
+    }
+
+    /**
+     * The identifier of the task, unique within the controller's lifetime.
+     */
+    private final String id;
+
+    /**
+     * The full name of the item to purge, or {@code null} to purge the whole instance.
+     */
+    @CheckForNull
+    private final String itemFullName;
+
+    /**
+     * The full names of the items matched by a bulk purge and to be purged, or {@code null} for other purges.
+     */
+    @CheckForNull
+    private final List<String> itemFullNames;
+
+    /**
+     * What a bulk purge did to each item matched, or {@code null} for other purges.
+     */
+    @CheckForNull
+    private final transient BulkPurgeResults results;
+
+    /**
+     * The settings of the purge.
+     */
+    private final PurgeOptions options;
+
+    /**
+     * The identity the purge runs as, so that permission checks apply to the requesting user.
+     */
+    private final transient Authentication authentication;
+
+    /**
+     * The counters reported by the progress page.
+     */
+    private final PurgeProgress progress;
+
+    /**
+     * Released when the task has finished, successfully or not.
+     */
+    private final transient CountDownLatch done = new CountDownLatch(1);
+
+    /**
+     * Records how far the purge went so that it resumes after a restart, or {@code null} if it does not.
+     */
+    @CheckForNull
+    private final transient PurgeJournal journal;
+
+    /**
+     * The current state.
+     */
+    private volatile State state = State.QUEUED;
+
+    /**
+     * Why the task failed, if it did.
+     */
+    @CheckForNull
+    private String failure;
+
+    /**
+     * Whether the task failed or stopped because its thread was interrupted.
+     */
+    private transient boolean interrupted;
+
+    /**
+     * Creates a task.
+     *
+     * @param id             the identifier of the task.
+     * @param item           the item to purge, or {@code null} to purge the whole instance.
+     * @param options        the settings of the purge.
+     * @param authentication the identity the purge runs as.
+     * @param journal        records how far the purge went, or {@code null} if it cannot be resumed.
+     */
+    PurgeTask(String id, @CheckForNull AbstractItem item, PurgeOptions options, Authentication authentication,
+              @CheckForNull PurgeJournal journal) {
+        this.id = id;
+        this.itemFullName = item == null ? null : item.getFullName();
+        this.itemFullNames = null;
+        this.results = null;
+        this.progress = new PurgeProgress();
+        this.options = options;
+        this.authentication = authentication;
+        this.journal = journal;
+    }
+
+    /**
+     * Creates a task purging the items matched by a bulk purge, which it reports job by job to their results.
+     *
+     * @param id             the identifier of the task.
+     * @param results        the results of the items matched, which tell the items to purge.
+     * @param options        the settings of the purge.
+     * @param authentication the identity the purge runs as.
+     */
+    PurgeTask(String id, BulkPurgeResults results, PurgeOptions options, Authentication authentication) {
+        this.id = id;
+        this.itemFullName = null;
+        List<String> names = new ArrayList<>();
+        for (AbstractItem item : results.getItemsToPurge()) {
+            names.add(item.getFullName());
+        }
+        this.itemFullNames = Collections.unmodifiableList(names);
+        this.results = results;
+        this.progress = new BulkProgress(results);
+        this.options = options;
+        this.authentication = authentication;
+        this.journal = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void run() {
+        state = State.RUNNING;
+        progress.started();
+        try (ACLContext ctx = ACL.as2(authentication)) {
+            PurgeJobHistory purgeJobHistory = new PurgeJobHistory();
+            if (journal != null) {
+                new PurgeEngine(options, progress, journal).purgeAll();
+            } else if (itemFullNames != null) {
+                List<AbstractItem> items = new ArrayList<>();
+                for (String name : itemFullNames) {
+                    AbstractItem item = Jenkins.get().getItemByFullName(name, AbstractItem.class);
+                    if (item != null) {
+                        items.add(item);
+                    } else {
+                        LOGGER.info(String.format("%s is gone since purge %s was queued - Skipping", name, id));
+                    }
+                }
+                purgeJobHistory.purge(items, options, progress);
+            } else if (itemFullName == null) {
+                purgeJobHistory.purge(options, progress);
+            } else {
+                AbstractItem item = Jenkins.get().getItemByFullName(itemFullName, AbstractItem.class);
+                if (item == null) {
+                    throw new IllegalStateException("No such item " + itemFullName);
+                }
+                purgeJobHistory.purge(item, options, progress);
+            }
+            if (progress.isStopped()) {
+                interrupted = Thread.currentThread().isInterrupted();
+                state = State.STOPPED;
+            } else {
+                state = State.COMPLETED;
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, String.format("Purge %s of %s failed", id, getTarget()), e);
+            failure = e.toString();
+            interrupted = e instanceof InterruptedIOException;
+            state = State.FAILED;
+        } finally {
+            if (journal != null) {
+                finishJournal();
+            }
+            progress.finished();
+            done.countDown();
+        }
+    }
+
+    /**
+     * Keeps the journal if the purge was stopped by a shutdown, so that it resumes after the restart, and removes
+     * it otherwise, including when it was cancelled or ran out of budget.
+     */
+    private void finishJournal() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        boolean shutdown = interrupted || jenkins == null || jenkins.isTerminating();
+        if ((state == State.FAILED || state == State.STOPPED) && shutdown) {
+            try {
+                journal.close();
+                LOGGER.info(String.format("Purge %s of %s will resume after the restart", id, getTarget()));
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Failed to save the journal of purge %s", id), e);
+            }
+        }
+        journal.delete();
+    }
+
+    /**
+     * Blocks until the task has finished.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit    the unit of {@code timeout}.
+     * @return {@code true} if the task finished, {@code false} if the wait timed out.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean waitForCompletion(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /**
+     * Asks the purge to stop after the build it is deleting. It stops cleanly, saving what it did so far, and reports
+     * the jobs it did not get to.
+     *
+     * @return a redirect to the progress page.
+     */
+    @RequirePOST
+    public HttpResponse doCancel() {
+        if (!hasAccess()) {
+            return HttpResponses.forbidden();
+        }
+        if (!isFinished()) {
+            progress.stop(Messages.PurgeTask_Cancelled(Jenkins.getAuthentication2().getName()));
+        }
+        return HttpResponses.redirectToDot();
+    }
+
+    /**
+     * Responds with what a bulk purge did to each item matched so far, as JSON: its {@code state}, whether it is
+     * {@code finished}, the {@link BulkPurgeResults} of the items as {@code items}, and the totals of the purge.
+     * A purge that failed other than on a job, which the items would not show, gets a 500 error instead.
+     *
+     * @return the results as JSON, or an error.
+     */
+    public HttpResponse doResults() {
+        if (results == null) {
+            return HttpResponses.notFound();
+        }
+        if (state == State.FAILED && progress.getJobsFailed() == 0) {
+            return HttpResponses.error(500, failure);
+        }
+        return HttpResponses.okJSON(new JSONObject()
+                .element("state", state.name())
+                .element("finished", isFinished())
+                .element("dryRun", options.isDryRun())
+                .element("items", results.toJSON())
+                .element("jobs", progress.getJobsScanned())
+                .element("jobsFailed", progress.getJobsFailed())
+                .element("deleted", progress.getBuildsDeleted())
+                .element("kept", progress.getBuildsSkipped())
+                .element("bytes", progress.getBytesReclaimed())
+                .element("millis", progress.getElapsedMillis())
+                .element("stopReason", progress.getStopReason())
+                .element("jobsRemaining", progress.getJobsRemaining()));
+    }
+
+    /**
+     * Returns whether the current user may see this task: the user who started it, or an administrator.
+     *
+     * @return whether the current user may see this task.
+     */
+    public boolean hasAccess() {
+        return Jenkins.get().hasPermission(Jenkins.ADMINISTER)
+                || Objects.equals(getUser(), Jenkins.getAuthentication2().getName());
+    }
+
+    /**
+     * Returns the identifier of the task.
+     *
+     * @return the identifier of the task.
+     */
+    @Exported
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the full name of the purged item, or {@code null} for the whole instance.
+     *
+     * @return the full name of the purged item, or {@code null} for the whole instance.
+     */
+    @Exported
+    @CheckForNull
+    public String getItemFullName() {
+        return itemFullName;
+    }
+
+    /**
+     * Returns the full names of the items a bulk purge was asked to purge.
+     *
+     * @return the full names of the items, or {@code null} if this is not a bulk purge.
+     */
+    @Exported
+    @CheckForNull
+    public List<String> getItemFullNames() {
+        return itemFullNames;
+    }
+
+    /**
+     * Returns what a bulk purge did to each item matched so far, for the progress page.
+     *
+     * @return the result of each item, or {@code null} if this is not a bulk purge.
+     */
+    @CheckForNull
+    public JSONArray getItemResults() {
+        return results == null ? null : results.toJSON();
+    }
+
+    /**
+     * Returns the name of the user who started the task.
+     *
+     * @return the name of the user who started the task.
+     */
+    @Exported
+    public String getUser() {
+        return authentication.getName();
+    }
+
+    /**
+     * Returns the settings of the purge.
+     *
+     * @return the settings of the purge.
+     */
+    public PurgeOptions getOptions() {
+        return options;
+    }
+
+    /**
+     * Returns the counters of the purge.
+     *
+     * @return the counters of the purge.
+     */
+    @Exported(inline = true)
+    public PurgeProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Returns the current state.
+     *
+     * @return the current state.
+     */
+    @Exported
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns whether the task has finished, successfully or not.
+     *
+     * @return whether the task has finished.
+     */
+    @Exported
+    public boolean isFinished() {
+        return state == State.COMPLETED || state == State.STOPPED || state == State.FAILED;
+    }
+
+    /**
+     * Returns why the task failed.
+     *
+     * @return why the task failed, or {@code null} if it did not.
+     */
+    @Exported
+    @CheckForNull
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * Returns a description of what is purged.
+     *
+     * @return a description of what is purged.
+     */
+    public String getTarget() {
+        if (itemFullNames != null) {
+            return Messages.PurgeTask_Items(itemFullNames.size());
+        }
+        return itemFullName == null ? Messages.PurgeTask_AllItems() : itemFullName;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDisplayName() {
+        return Messages.PurgeTask_DisplayName(getTarget());
+    }
+
+    /**
+     * Exposes the task through the remote API.
+     *
+     * @return the remote API.
+     */
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * Adds up the jobs of a bulk purge under the items matched, as well as in the totals.
+     */
+    private static final class BulkProgress extends PurgeProgress {
+
+        /**
+         * The results of the items matched.
+         */
+        private final BulkPurgeResults results;
+
+        /**
+         * Creates the progress of a bulk purge.
+         *
+         * @param results the results of the items matched.
+         */
+        BulkProgress(BulkPurgeResults results) {
+            this.results = results;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void jobFinished(String fullName, int deleted, int kept, long bytes, long millis) {
+            super.jobFinished(fullName, deleted, kept, bytes, millis);
+            results.jobFinished(fullName, deleted, kept, bytes, millis);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void jobFailed(String fullName, Throwable cause) {
+            super.jobFailed(fullName, cause);
+            results.jobFailed(fullName, cause);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AbstractItem;
+import hudson.model.User;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Runs purges on a bounded pool of background threads, so that HTTP requests return as soon as the purge is queued.
+ */
+@Extension
+public class PurgeTaskManager {
+
+    private static final Logger LOGGER = Logger.getLogger(PurgeTaskManager.class.getName());
+
+    /**
+     * How many purges may run at the same time.
+     */
+    private static final int POOL_SIZE = Math.max(1,
+            SystemProperties.getInteger(PurgeTaskManager.class.getName() + ".poolSize", 2));
+
+    /**
+     * How many purges may wait for a free thread before new ones are rejected.
+     */
+    private static final int QUEUE_SIZE = Math.max(1,
+            SystemProperties.getInteger(PurgeTaskManager.class.getName() + ".queueSize", 16));
+
+    /**
+     * How many finished purges are remembered for their progress page.
+     */
+    private static final int HISTORY_SIZE = Math.max(0,
+            SystemProperties.getInteger(PurgeTaskManager.class.getName() + ".historySize", 50));
+
+    /**
+     * The threads running the purges.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * The known tasks, oldest first.
+     */
+    private final Map<String, PurgeTask> tasks = new LinkedHashMap<>();
+
+    /**
+     * Creates the manager.
+     */
+    public PurgeTaskManager() {
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_SIZE),
+                new NamingThreadFactory(new DaemonThreadFactory(), "PurgeJobHistory"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the singleton instance.
+     *
+     * @return the singleton instance.
+     */
+    public static PurgeTaskManager get() {
+        return ExtensionList.lookupSingleton(PurgeTaskManager.class);
+    }
+
+    /**
+     * Queues a purge running as the current user.
+     *
+     * @param item    the item to purge, or {@code null} to purge the whole instance.
+     * @param options the settings of the purge.
+     * @return the queued task.
+     * @throws RejectedExecutionException if too many purges are already queued.
+     */
+    public PurgeTask submit(@CheckForNull AbstractItem item, PurgeOptions options) {
+        String id = UUID.randomUUID().toString();
+        Authentication authentication = Jenkins.getAuthentication2();
+        PurgeJournal journal = null;
+        if (item == null && !options.isDryRun()) {
+            try {
+                journal = PurgeJournal.create(id, options, authentication.getName());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, String.format("Purge %s will not resume after a restart", id), e);
+            }
+        }
+        PurgeTask task = new PurgeTask(id, item, options, authentication, journal);
+        try {
+            execute(task);
+        } catch (RejectedExecutionException e) {
+            if (journal != null) {
+                journal.delete();
+            }
+            throw e;
+        }
+        LOGGER.info(String.format("Queued purge %s of %s - %s", task.getId(), task.getTarget(), options));
+        return task;
+    }
+
+    /**
+     * Queues a purge of the items matched by a bulk purge, running as the current user. It cannot be resumed after
+     * a restart.
+     *
+     * @param results the results of the items matched, which tell the items to purge and receive what the purge did
+     *                to each of them.
+     * @param options the settings of the purge.
+     * @return the queued task.
+     * @throws RejectedExecutionException if too many purges are already queued.
+     */
+    public PurgeTask submit(BulkPurgeResults results, PurgeOptions options) {
+        PurgeTask task = new PurgeTask(UUID.randomUUID().toString(), results, options, Jenkins.getAuthentication2());
+        execute(task);
+        LOGGER.info(String.format("Queued purge %s of %s - %s", task.getId(), task.getTarget(), options));
+        return task;
+    }
+
+    /**
+     * Queues again the purges of the whole instance that a restart cut short, as the users who started them.
+     * They skip the jobs their journal records as done.
+     */
+    public void resumeInterrupted() {
+        for (PurgeJournal journal : PurgeJournal.loadAll()) {
+            Authentication authentication = impersonate(journal.getUser());
+            if (authentication == null) {
+                LOGGER.warning(String.format("Not resuming purge %s: user %s is unknown", journal.getId(),
+                        journal.getUser()));
+                journal.delete();
+                continue;
+            }
+            PurgeTask task = new PurgeTask(journal.getId(), null, journal.getOptions(), authentication, journal);
+            try {
+                execute(task);
+            } catch (RejectedExecutionException e) {
+                LOGGER.warning(String.format("Not resuming purge %s now - %s", journal.getId(), e.getMessage()));
+                continue;
+            }
+            LOGGER.info(String.format("Resuming purge %s of %s as %s - %d jobs already purged", task.getId(),
+                    task.getTarget(), journal.getUser(), journal.getDoneCount()));
+        }
+    }
+
+    /**
+     * Resumes the interrupted purges once the jobs are loaded.
+     */
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    public static void resumeInterruptedPurges() {
+        get().resumeInterrupted();
+    }
+
+    @CheckForNull
+    private static Authentication impersonate(String name) {
+        if (ACL.SYSTEM_USERNAME.equals(name)) {
+            return ACL.SYSTEM2;
+        }
+        User user = User.getById(name, false);
+        if (user == null) {
+            return null;
+        }
+        try {
+            return user.impersonate2();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to impersonate " + name, e);
+            return null;
+        }
+    }
+
+    private void execute(PurgeTask task) {
+        synchronized (tasks) {
+            executor.execute(task);
+            tasks.put(task.getId(), task);
+            prune();
+        }
+    }
+
+    /**
+     * Looks up a task.
+     *
+     * @param id the identifier of the task.
+     * @return the task, or {@code null} if unknown or not visible to the current user.
+     */
+    @CheckForNull
+    public PurgeTask getTask(String id) {
+        PurgeTask task;
+        synchronized (tasks) {
+            task = tasks.get(id);
+        }
+        return task != null && task.hasAccess() ? task : null;
+    }
+
+    /**
+     * Returns the tasks visible to the current user, most recent first.
+     *
+     * @return the tasks visible to the current user.
+     */
+    public List<PurgeTask> getTasks() {
+        List<PurgeTask> result = new ArrayList<>();
+        synchronized (tasks) {
+            for (PurgeTask task : tasks.values()) {
+                if (task.hasAccess()) {
+                    result.add(0, task);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Forgets the oldest finished tasks beyond {@link #HISTORY_SIZE}.
+     */
+    private void prune() {
+        int finished = 0;
+        for (PurgeTask task : tasks.values()) {
+            if (task.isFinished()) {
+                finished++;
+            }
+        }
+        Iterator<PurgeTask> iterator = tasks.values().iterator();
+        while (finished > HISTORY_SIZE && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Util;
+import hudson.model.Computer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Paces the deletions of a purge so that running builds keep enough of the {@code $JENKINS_HOME} disk:
+ * <ul>
+ * <li>at most so many builds and files are deleted per second, if limited;</li>
+ * <li>when deleting a file takes longer than {@link #LATENCY_THRESHOLD_MICROS} on average, the purge sleeps
+ * between deletions, longer and longer while the disk stays slow;</li>
+ * <li>while more than {@link #getDefaultMaxExecutorLoad()} of the executors are busy, the purge pauses.</li>
+ * </ul>
+ * One throttle is shared by all the workers of a purge. Its waits end early when the purge is asked to stop or runs
+ * out of budget, so that a paused purge can still be cancelled.
+ */
+public class PurgeThrottle {
+
+    private static final Logger LOGGER = Logger.getLogger(PurgeThrottle.class.getName());
+
+    /**
+     * The system property giving the number of builds deleted per second when the purge does not specify it.
+     */
+    public static final String BUILDS_PER_SECOND_PROPERTY = PurgeThrottle.class.getName() + ".buildsPerSecond";
+
+    /**
+     * The system property giving the number of files deleted per second when the purge does not specify it.
+     */
+    public static final String FILES_PER_SECOND_PROPERTY = PurgeThrottle.class.getName() + ".filesPerSecond";
+
+    /**
+     * The average time to delete one file above which the purge backs off, in microseconds, or {@code 0} to never
+     * back off.
+     */
+    static final long LATENCY_THRESHOLD_MICROS =
+            SystemProperties.getLong(PurgeThrottle.class.getName() + ".latencyThresholdMicros", 10_000L);
+
+    /**
+     * The system property giving the share of busy executors above which the purge pauses.
+     */
+    public static final String MAX_EXECUTOR_LOAD_PROPERTY = PurgeThrottle.class.getName() + ".maxExecutorLoad";
+
+    /**
+     * How often the executor load is sampled.
+     */
+    private static final long LOAD_SAMPLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * How long the purge waits before checking a high executor load again.
+     */
+    private static final long LOAD_PAUSE_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * The longest the purge sleeps after a deletion, as a multiple of the time the deletion took.
+     */
+    private static final double MAX_BACKOFF = 8;
+
+    /**
+     * Backoff sleeps are gathered until they reach this, so the purge does not sleep a few microseconds per file.
+     */
+    private static final long MIN_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The longest the throttle sleeps before checking again whether the purge should stop.
+     */
+    private static final long CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The budget of the purge, or {@code null} if the waits cannot be cut short.
+     */
+    @CheckForNull
+    private final PurgeBudget budget;
+
+    /**
+     * The share of busy executors above which the purge pauses, or {@code 0} to never pause.
+     */
+    private final double maxExecutorLoad;
+
+    /**
+     * The time between two build deletions, or {@code 0} for no limit.
+     */
+    private final long buildIntervalNanos;
+
+    /**
+     * The time between two file deletions, or {@code 0} for no limit.
+     */
+    private final long fileIntervalNanos;
+
+    /**
+     * When the next build may be deleted, in {@link System#nanoTime()}.
+     */
+    private long nextBuildNanos;
+
+    /**
+     * When the next file may be deleted, in {@link System#nanoTime()}.
+     */
+    private long nextFileNanos;
+
+    /**
+     * The moving average of the time to delete one file.
+     */
+    private double latencyNanos;
+
+    /**
+     * How long to sleep after a deletion, as a multiple of the time it took.
+     */
+    private double backoff;
+
+    /**
+     * Backoff sleep not slept yet.
+     */
+    private long debtNanos;
+
+    /**
+     * When the executor load was last sampled.
+     */
+    private long loadSampledNanos;
+
+    /**
+     * Whether the executor load was too high when last sampled.
+     */
+    private boolean overloaded;
+
+    /**
+     * Creates a throttle.
+     *
+     * @param buildsPerSecond the number of builds deleted per second, or {@code 0} for the default.
+     * @param filesPerSecond  the number of files deleted per second, or {@code 0} for the default.
+     */
+    public PurgeThrottle(int buildsPerSecond, int filesPerSecond) {
+        this(buildsPerSecond, filesPerSecond, null);
+    }
+
+    /**
+     * Creates the throttle of a purge, whose waits end early once the purge should stop.
+     *
+     * @param buildsPerSecond the number of builds deleted per second, or {@code 0} for the default.
+     * @param filesPerSecond  the number of files deleted per second, or {@code 0} for the default.
+     * @param budget          the budget of the purge, or {@code null} if the waits cannot be cut short.
+     */
+    PurgeThrottle(int buildsPerSecond, int filesPerSecond, @CheckForNull PurgeBudget budget) {
+        this.budget = budget;
+        this.maxExecutorLoad = getDefaultMaxExecutorLoad();
+        this.buildIntervalNanos = toInterval(buildsPerSecond > 0 ? buildsPerSecond : getDefaultBuildsPerSecond());
+        this.fileIntervalNanos = toInterval(filesPerSecond > 0 ? filesPerSecond : getDefaultFilesPerSecond());
+    }
+
+    /**
+     * Returns the number of builds deleted per second when the purge does not specify it.
+     *
+     * @return the number of builds deleted per second, or {@code 0} for no limit.
+     */
+    public static int getDefaultBuildsPerSecond() {
+        return Math.max(0, SystemProperties.getInteger(BUILDS_PER_SECOND_PROPERTY, 0));
+    }
+
+    /**
+     * Returns the number of files deleted per second when the purge does not specify it.
+     *
+     * @return the number of files deleted per second, or {@code 0} for no limit.
+     */
+    public static int getDefaultFilesPerSecond() {
+        return Math.max(0, SystemProperties.getInteger(FILES_PER_SECOND_PROPERTY, 0));
+    }
+
+    /**
+     * Returns the share of busy executors above which purges pause.
+     *
+     * @return the share of busy executors above which purges pause, or {@code 0} to never pause.
+     */
+    public static double getDefaultMaxExecutorLoad() {
+        return parseLoad(SystemProperties.getString(MAX_EXECUTOR_LOAD_PROPERTY));
+    }
+
+    /**
+     * Waits until the next build may be deleted.
+     *
+     * @return {@code false} if the purge should stop rather than delete the build.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    public boolean beforeBuild() throws InterruptedIOException {
+        if (!awaitLoad()) {
+            return false;
+        }
+        if (buildIntervalNanos == 0) {
+            return !stopped();
+        }
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long start = Math.max(now, nextBuildNanos);
+            nextBuildNanos = start + buildIntervalNanos;
+            wait = start - now;
+        }
+        return sleep(wait);
+    }
+
+    /**
+     * Accounts for files just deleted, and waits as long as the file rate and the disk latency require.
+     *
+     * @param files the number of files deleted.
+     * @param nanos how long deleting them took.
+     * @throws InterruptedIOException if interrupted while waiting.
+     */
+    public void afterDelete(long files, long nanos) throws InterruptedIOException {
+        if (files <= 0) {
+            return;
+        }
+        long wait = 0;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (fileIntervalNanos > 0) {
+                nextFileNanos = Math.max(now, nextFileNanos) + files * fileIntervalNanos;
+                wait = nextFileNanos - now;
+            }
+            if (LATENCY_THRESHOLD_MICROS > 0) {
+                double latency = (double) nanos / files;
+                latencyNanos = latencyNanos == 0 ? latency : 0.8 * latencyNanos + 0.2 * latency;
+                if (latencyNanos > TimeUnit.MICROSECONDS.toNanos(LATENCY_THRESHOLD_MICROS)) {
+                    if (backoff == 0) {
+                        LOGGER.info(String.format("Deleting a file takes %d us on average - Slowing down",
+                                (long) latencyNanos / 1000));
+                    }
+                    backoff = Math.min(MAX_BACKOFF, backoff == 0 ? 0.5 : backoff * 2);
+                } else if (backoff > 0) {
+                    backoff = backoff < 0.1 ? 0 : backoff / 2;
+                }
+                debtNanos += (long) (nanos * backoff);
+                if (debtNanos >= MIN_SLEEP_NANOS) {
+                    wait = Math.max(wait, debtNanos);
+                    debtNanos = 0;
+                }
+            }
+        }
+        sleep(wait);
+    }
+
+    /**
+     * Deletes a directory, measuring what it deletes on the way, then waits as long as the file rate and the disk
+     * latency require for the whole directory.
+     * Whatever cannot be deleted that way is then left to {@link Util#deleteRecursive(File)}.
+     *
+     * @param dir the directory.
+     * @return the time spent deleting, not counting the pacing, in nanoseconds, then the number of bytes and of
+     * files deleted.
+     * @throws IOException if the directory cannot be deleted.
+     */
+    public long[] deleteRecursive(File dir) throws IOException {
+        final long[] deleted = new long[3];
+        long start = System.nanoTime();
+        try {
+            Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    try {
+                        Files.delete(file);
+                    } catch (IOException e) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    deleted[1] += attrs.size();
+                    deleted[2]++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path directory, IOException exc) {
+                    try {
+                        Files.delete(directory);
+                    } catch (IOException e) {
+                        // left to Util.deleteRecursive
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // left to Util.deleteRecursive
+        }
+        if (Files.exists(dir.toPath())) {
+            Util.deleteRecursive(dir);
+        }
+        deleted[0] = System.nanoTime() - start;
+        afterDelete(deleted[2], deleted[0]);
+        return deleted;
+    }
+
+    /**
+     * Waits while too many executors are busy.
+     *
+     * @return {@code false} if the purge should stop.
+     */
+    private boolean awaitLoad() throws InterruptedIOException {
+        if (maxExecutorLoad <= 0) {
+            return true;
+        }
+        boolean paused = false;
+        while (isOverloaded()) {
+            if (!paused) {
+                LOGGER.info(String.format("More than %d%% of the executors are busy - Pausing",
+                        Math.round(maxExecutorLoad * 100)));
+                paused = true;
+            }
+            if (!sleep(TimeUnit.MILLISECONDS.toNanos(LOAD_PAUSE_MILLIS))) {
+                LOGGER.info("Purge stopped while paused");
+                return false;
+            }
+        }
+        if (paused) {
+            LOGGER.info("Executor load is back to normal - Resuming");
+        }
+        return true;
+    }
+
+    private synchronized boolean isOverloaded() {
+        long now = System.nanoTime();
+        if (loadSampledNanos == 0 || now - loadSampledNanos >= LOAD_SAMPLE_NANOS) {
+            overloaded = executorLoad() > maxExecutorLoad;
+            loadSampledNanos = now;
+        }
+        return overloaded;
+    }
+
+    /**
+     * The share of the executors of the online agents that are busy.
+     */
+    private static double executorLoad() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return 0;
+        }
+        int busy = 0;
+        int total = 0;
+        for (Computer computer : jenkins.getComputers()) {
+            if (computer.isOnline()) {
+                busy += computer.countBusy();
+                total += computer.countExecutors();
+            }
+        }
+        return total == 0 ? 0 : (double) busy / total;
+    }
+
+    /**
+     * Sleeps a while, a slice at a time, checking between slices whether the purge should stop.
+     *
+     * @return {@code false} if the purge should stop, whether or not the whole time was slept.
+     */
+    private boolean sleep(long nanos) throws InterruptedIOException {
+        long end = System.nanoTime() + nanos;
+        for (long left = nanos; left > 0; left = end - System.nanoTime()) {
+            if (stopped()) {
+                return false;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(left, CHECK_INTERVAL_NANOS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling the purge");
+            }
+        }
+        return !stopped();
+    }
+
+    /**
+     * Whether the purge should stop.
+     */
+    private boolean stopped() {
+        return budget != null && budget.exhausted();
+    }
+
+    private static long toInterval(int perSecond) {
+        return perSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / perSecond : 0;
+    }
+
+    private static double parseLoad(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Double.parseDouble(value.trim()));
+        } catch (NumberFormatException e) {
+            LOGGER.warning(String.format("Ignoring invalid executor load threshold: %s", value));
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.model.Result;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.CheckForNull;
+
+/**
+ * Restricts a purge to some builds of each job: older than some days, beyond the last few, with some results,
+ * or within a range of build numbers.
+ * Build numbers and start times grow together, so the age, count and number criteria select one contiguous range
+ * of the build number index, found by binary search. Only the builds inside that range are ever looked at.
+ */
+public class RetentionFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Only delete builds started more than this many days ago, if positive.
+     */
+    private int olderThanDays;
+
+    /**
+     * Keep this many of the most recent builds, if positive.
+     */
+    private int keepLast;
+
+    /**
+     * Only delete builds with one of these results, if not empty.
+     */
+    private List<String> results = new ArrayList<>();
+
+    /**
+     * Only delete builds numbered this or higher, if positive.
+     */
+    private int fromBuild;
+
+    /**
+     * Only delete builds numbered this or lower, if positive.
+     */
+    private int toBuild;
+
+    /**
+     * Returns whether this filter selects every build.
+     *
+     * @return whether this filter selects every build.
+     */
+    public boolean isEmpty() {
+        return olderThanDays <= 0 && keepLast <= 0 && results.isEmpty() && fromBuild <= 0 && toBuild <= 0;
+    }
+
+    /**
+     * Finds the builds in the age, count and number range.
+     *
+     * @param buildDir the builds directory of the job, to read the start time of builds.
+     * @param numbers  the build numbers of the job, highest first.
+     * @return the start (inclusive) and end (exclusive) indexes of the selected numbers.
+     * @throws IOException if the start time of a build can not be read.
+     */
+    public int[] selectRange(File buildDir, int[] numbers) throws IOException {
+        int start = 0;
+        int end = numbers.length;
+        if (toBuild > 0) {
+            start = Math.max(start, firstNumberBelow(numbers, toBuild + 1));
+        }
+        if (fromBuild > 0) {
+            end = Math.min(end, firstNumberBelow(numbers, fromBuild));
+        }
+        if (keepLast > 0) {
+            start = Math.max(start, Math.min(keepLast, numbers.length));
+        }
+        if (olderThanDays > 0 && start < end) {
+            long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(olderThanDays);
+            start = Math.max(start, firstStartedBefore(buildDir, numbers, start, end, cutoff));
+        }
+        return new int[] {start, Math.max(start, end)};
+    }
+
+    /**
+     * Returns whether a build result is one of the selected results.
+     *
+     * @param result the result, {@code null} while the build is running.
+     * @return whether the result is selected.
+     */
+    public boolean matchesResult(@CheckForNull Result result) {
+        return matchesResult(result == null ? null : result.toString());
+    }
+
+    /**
+     * Returns whether a build result is one of the selected results.
+     *
+     * @param result the name of the result, {@code null} if unknown.
+     * @return whether the result is selected.
+     */
+    public boolean matchesResult(@CheckForNull String result) {
+        return results.isEmpty() || (result != null && results.contains(result));
+    }
+
+    /**
+     * Index of the first of the descending {@code numbers} lower than {@code number}.
+     */
+    private static int firstNumberBelow(int[] numbers, int number) {
+        int low = 0;
+        int high = numbers.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (numbers[middle] < number) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Index of the first build in {@code [low, high)} started before {@code cutoff}, reading O(log n) records.
+     */
+    private static int firstStartedBefore(File buildDir, int[] numbers, int low, int high, long cutoff)
+            throws IOException {
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            BuildRecord record = BuildRecord.read(buildDir, numbers[middle]);
+            if (record != null && record.getTimestamp() < cutoff) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the minimum age in days of the deleted builds.
+     *
+     * @return the minimum age in days, or {@code 0} for no limit.
+     */
+    public int getOlderThanDays() {
+        return olderThanDays;
+    }
+
+    /**
+     * Sets the minimum age in days of the deleted builds.
+     *
+     * @param olderThanDays the minimum age in days, or {@code 0} for no limit.
+     */
+    public void setOlderThanDays(int olderThanDays) {
+        this.olderThanDays = Math.max(0, olderThanDays);
+    }
+
+    /**
+     * Returns the number of most recent builds kept.
+     *
+     * @return the number of most recent builds kept, or {@code 0} for none.
+     */
+    public int getKeepLast() {
+        return keepLast;
+    }
+
+    /**
+     * Sets the number of most recent builds kept.
+     *
+     * @param keepLast the number of most recent builds kept, or {@code 0} for none.
+     */
+    public void setKeepLast(int keepLast) {
+        this.keepLast = Math.max(0, keepLast);
+    }
+
+    /**
+     * Returns the results of the deleted builds.
+     *
+     * @return the results of the deleted builds, empty for any.
+     */
+    public List<String> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Sets the results of the deleted builds.
+     *
+     * @param results the names of the results, such as {@code FAILURE} or {@code ABORTED}, empty for any.
+     * @throws IllegalArgumentException if a name is not a build result.
+     */
+    public void setResults(List<String> results) {
+        List<String> names = new ArrayList<>();
+        for (String result : results) {
+            String name = result.trim().toUpperCase(Locale.ENGLISH);
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!name.equals(Result.fromString(name).toString())) {
+                throw new IllegalArgumentException("Unknown build result: " + result);
+            }
+            names.add(name);
+        }
+        this.results = names;
+    }
+
+    /**
+     * Returns the lowest deleted build number.
+     *
+     * @return the lowest deleted build number, or {@code 0} for no limit.
+     */
+    public int getFromBuild() {
+        return fromBuild;
+    }
+
+    /**
+     * Sets the lowest deleted build number.
+     *
+     * @param fromBuild the lowest deleted build number, or {@code 0} for no limit.
+     */
+    public void setFromBuild(int fromBuild) {
+        this.fromBuild = Math.max(0, fromBuild);
+    }
+
+    /**
+     * Returns the highest deleted build number.
+     *
+     * @return the highest deleted build number, or {@code 0} for no limit.
+     */
+    public int getToBuild() {
+        return toBuild;
+    }
+
+    /**
+     * Sets the highest deleted build number.
+     *
+     * @param toBuild the highest deleted build number, or {@code 0} for no limit.
+     */
+    public void setToBuild(int toBuild) {
+        this.toBuild = Math.max(0, toBuild);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("Older Than Days:%s - Keep Last:%s - Results:%s - Builds:%s-%s",
+                olderThanDays, keepLast, results, fromBuild, toBuild);
+    }
+}
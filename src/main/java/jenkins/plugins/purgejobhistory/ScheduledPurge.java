@@ -0,0 +1,163 @@
+package jenkins.plugins.purgejobhistory;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.TaskListener;
+import hudson.scheduler.CronTabList;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+
+/**
+ * Runs the {@link PurgeSchedule} a slice at a time: each run purges at most
+ * {@link PurgeSchedule#getMaxJobsPerRun()} jobs in one go, and stops once
+ * {@link PurgeSchedule#getTimeBudgetSeconds()} have passed, then records the last job purged so that the next run
+ * picks up from there. A job that fails is reported and passed over rather than tried again first thing.
+ * Jobs are visited in name order, and a run that reaches the last job sends the next one back to the first, so
+ * frequent short runs spread the retention work evenly over the instance.
+ */
+@Extension
+public class ScheduledPurge extends AsyncPeriodicWork {
+
+    /**
+     * The last minute a run was started for, so a minute is never run twice.
+     */
+    private long lastMinute;
+
+    /**
+     * Creates the scheduler.
+     */
+    public ScheduledPurge() {
+        super("Purge Job History schedule");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    /**
+     * Starts on a minute boundary, as the schedule is checked once per minute.
+     */
+    @Override
+    public long getInitialDelay() {
+        long minute = TimeUnit.MINUTES.toMillis(1);
+        return minute - System.currentTimeMillis() % minute;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        PurgeSchedule schedule = PurgeSchedule.get();
+        if (!schedule.isEnabled()) {
+            return;
+        }
+        CronTabList tabs = schedule.getCronTabs();
+        Calendar now = new GregorianCalendar();
+        long minute = TimeUnit.MILLISECONDS.toMinutes(now.getTimeInMillis());
+        if (tabs == null || minute == lastMinute || !tabs.check(now)) {
+            return;
+        }
+        lastMinute = minute;
+        runSlice(schedule, listener);
+    }
+
+    /**
+     * Purges the next slice of jobs now, whether or not the schedule is enabled.
+     *
+     * @param schedule the schedule.
+     * @param listener receives the outcome.
+     * @return the progress of the slice.
+     * @throws IOException if something went wrong.
+     */
+    public PurgeProgress runSlice(PurgeSchedule schedule, final TaskListener listener) throws IOException {
+        PurgeOptions options;
+        try {
+            options = schedule.toOptions();
+        } catch (IllegalArgumentException e) {
+            listener.error("Invalid purge schedule: " + e.getMessage());
+            return new PurgeProgress();
+        }
+        options.setTimeBudgetSeconds(schedule.getTimeBudgetSeconds());
+        String cursor = schedule.getCursor();
+        final Set<String> handled = ConcurrentHashMap.newKeySet();
+        PurgeProgress progress = new PurgeProgress() {
+            @Override
+            public void jobFinished(String fullName, int deleted, int kept, long bytes, long millis) {
+                super.jobFinished(fullName, deleted, kept, bytes, millis);
+                if (!isStopped()) {
+                    handled.add(fullName);
+                }
+            }
+
+            @Override
+            public void jobFailed(String fullName, Throwable cause) {
+                super.jobFailed(fullName, cause);
+                listener.error(String.format("Failed to purge %s: %s", fullName, cause));
+                // trying it again first thing next time would only hold the schedule up
+                handled.add(fullName);
+            }
+        };
+        List<Job<?, ?>> slice = new ArrayList<>();
+        boolean more = false;
+        String last = cursor;
+        progress.started();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            for (Item item : new ItemTraversal(Jenkins.get().getItems(), true).inNameOrderAfter(cursor)) {
+                if (!(item instanceof Job)) {
+                    continue;
+                }
+                if (slice.size() >= schedule.getMaxJobsPerRun()) {
+                    more = true;
+                    break;
+                }
+                slice.add((Job<?, ?>) item);
+            }
+            new PurgeEngine(options, progress).purge(slice);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            if (progress.getJobsFailed() == 0) {
+                throw e;
+            }
+            // each job that failed was reported on its own
+        } finally {
+            progress.finished();
+            // up to the first job not done yet, so that a stopped slice is picked up where it stopped
+            for (Job<?, ?> job : slice) {
+                if (!handled.contains(job.getFullName())) {
+                    more = true;
+                    break;
+                }
+                last = job.getFullName();
+            }
+            schedule.setCursor(more ? last : null);
+        }
+        String outcome = "";
+        if (!more) {
+            outcome = " - Reached the last job";
+        } else if (progress.isStopped()) {
+            outcome = " - " + progress.getStopReason();
+        }
+        listener.getLogger().println(String.format("Purged %d jobs after %s in %s: %d builds deleted, %s reclaimed%s",
+                handled.size(), cursor == null ? "the start" : cursor, progress.getElapsedString(),
+                progress.getBuildsDeleted(), progress.getBytesReclaimedString(), outcome));
+        return progress;
+    }
+}
@@ -4,4 +4,5 @@ public class StaticValues {
 
     public static final String urlName = "purge-job-history";
     public static final String displayName = Messages.PurgeJobHistoryAction_DisplayName();
+    public static final String iconFileName = "symbol-trash-bin-outline plugin-ionicons-api";
 }
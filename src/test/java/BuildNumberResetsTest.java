@@ -0,0 +1,46 @@
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeMetrics;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+public class BuildNumberResetsTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testOnlyChangedBuildNumbersAreWritten() throws Exception {
+        MockFolder folder = this.jenkins.createFolder("folder");
+        FreeStyleProject built = folder.createProject(FreeStyleProject.class, "built");
+        this.jenkins.buildAndAssertSuccess(built);
+        this.jenkins.buildAndAssertSuccess(built);
+        FreeStyleProject kept = folder.createProject(FreeStyleProject.class, "kept");
+        this.jenkins.buildAndAssertSuccess(kept).keepLog(true);
+        folder.createProject(FreeStyleProject.class, "empty");
+
+        PurgeMetrics metrics = PurgeMetrics.get();
+        long before = metrics.getBuildNumbersReset();
+        purge(folder);
+        Assert.assertEquals(1, metrics.getBuildNumbersReset() - before);
+        Assert.assertEquals(1, built.getNextBuildNumber());
+        Assert.assertEquals(2, kept.getNextBuildNumber());
+
+        purge(folder);
+        Assert.assertEquals(1, metrics.getBuildNumbersReset() - before);
+        Assert.assertEquals(1, built.getNextBuildNumber());
+    }
+
+    private static void purge(MockFolder folder) throws Exception {
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(new PurgeOptions(true, false, true), new PurgeProgress()).purge(folder);
+        }
+    }
+}
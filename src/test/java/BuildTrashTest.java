@@ -0,0 +1,78 @@
+import hudson.ExtensionList;
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.plugins.purgejobhistory.BuildTrashReaper;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class BuildTrashTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testTrashedBuildsLeaveTheJobAndAreReaped() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("trashed");
+        List<File> dirs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            dirs.add(this.jenkins.buildAndAssertSuccess(project).getRootDir());
+        }
+
+        PurgeOptions options = new PurgeOptions(true, false, false);
+        options.setTrash(true);
+        PurgeProgress progress = new PurgeProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(options, progress).purge(project);
+        }
+
+        Assert.assertEquals(3, progress.getBuildsDeleted());
+        Assert.assertNull(project.getLastBuild());
+        Assert.assertEquals(0, project.getBuilds().size());
+        Assert.assertEquals(1, project.getNextBuildNumber());
+        for (File dir : dirs) {
+            Assert.assertFalse(dir.exists());
+        }
+        // moved there rather than deleted in place, then the purge wakes the reaper up on its way out
+        Assert.assertTrue(this.getTrash().isDirectory());
+        this.awaitEmptyTrash();
+    }
+
+    @Test
+    public void testReaperEmptiesTrashLeftBehind() throws Exception {
+        File leftover = new File(this.getTrash(), "leftover");
+        Assert.assertTrue(new File(leftover, "archive/nested").mkdirs());
+        Files.write(new File(leftover, "build.xml").toPath(), new byte[128]);
+        Files.write(new File(leftover, "archive/nested/artifact.bin").toPath(), new byte[4096]);
+
+        ExtensionList.lookupSingleton(BuildTrashReaper.class).run();
+
+        this.awaitEmptyTrash();
+        Assert.assertFalse(leftover.exists());
+    }
+
+    private File getTrash() {
+        return new File(this.jenkins.jenkins.getRootDir(), "purge-job-history-trash");
+    }
+
+    private void awaitEmptyTrash() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        String[] entries = this.getTrash().list();
+        while (entries != null && entries.length > 0) {
+            Assert.assertTrue("The trash was not emptied", System.nanoTime() < deadline);
+            Thread.sleep(100);
+            entries = this.getTrash().list();
+        }
+    }
+}
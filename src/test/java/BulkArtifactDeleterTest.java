@@ -0,0 +1,212 @@
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.tasks.ArtifactArchiver;
+import jenkins.model.ArtifactManager;
+import jenkins.model.ArtifactManagerConfiguration;
+import jenkins.model.ArtifactManagerFactory;
+import jenkins.model.ArtifactManagerFactoryDescriptor;
+import jenkins.model.Jenkins;
+import jenkins.plugins.purgejobhistory.BulkArtifactDeleter;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import jenkins.util.VirtualFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkArtifactDeleterTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    /**
+     * The sizes of the batches handed to the bulk deleter.
+     */
+    static final List<Integer> BATCHES = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * The number of builds whose artifacts were deleted one by one.
+     */
+    static final AtomicInteger SINGLE = new AtomicInteger();
+
+    /**
+     * Whether the bulk deleter handles the stand-in manager.
+     */
+    static volatile boolean bulk = true;
+
+    @Before
+    public void setUp() {
+        ArtifactManagerConfiguration.get().getArtifactManagerFactories().add(new LocalArtifactManagerFactory());
+        System.setProperty(BulkArtifactDeleter.BATCH_SIZE_PROPERTY, "2");
+        BATCHES.clear();
+        SINGLE.set(0);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(BulkArtifactDeleter.BATCH_SIZE_PROPERTY);
+        bulk = true;
+    }
+
+    @Test
+    public void testArtifactsAreDeletedInBatches() throws Exception {
+        FreeStyleProject project = createProject();
+
+        PurgeProgress progress = purge(project);
+
+        Assert.assertEquals(5, progress.getBuildsDeleted());
+        Assert.assertEquals(0, progress.getJobsFailed());
+        Assert.assertEquals(0, project.getBuilds().size());
+        Assert.assertEquals(0, SINGLE.get());
+        List<Integer> batches = new ArrayList<>(BATCHES);
+        Collections.sort(batches);
+        Assert.assertEquals(List.of(1, 2, 2), batches);
+        Assert.assertArrayEquals(new String[0], new File(LocalArtifactManager.getRoot(), "project").list());
+    }
+
+    @Test
+    public void testManagersWithoutBulkDeleterAreDeletedOneByOne() throws Exception {
+        bulk = false;
+        FreeStyleProject project = createProject();
+
+        PurgeProgress progress = purge(project);
+
+        Assert.assertEquals(5, progress.getBuildsDeleted());
+        Assert.assertEquals(0, project.getBuilds().size());
+        Assert.assertEquals(5, SINGLE.get());
+        Assert.assertTrue(BATCHES.isEmpty());
+        Assert.assertArrayEquals(new String[0], new File(LocalArtifactManager.getRoot(), "project").list());
+    }
+
+    private FreeStyleProject createProject() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("project");
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException, IOException {
+                build.getWorkspace().child("a.txt").write("artifact", "UTF-8");
+                return true;
+            }
+        });
+        project.getPublishersList().add(new ArtifactArchiver("a.txt"));
+        for (int i = 0; i < 5; i++) {
+            Run<?, ?> run = this.jenkins.buildAndAssertSuccess(project);
+            Assert.assertTrue(run.getArtifactManager() instanceof LocalArtifactManager);
+            Assert.assertTrue(((LocalArtifactManager) run.getArtifactManager()).getDir().isDirectory());
+        }
+        return project;
+    }
+
+    private static PurgeProgress purge(FreeStyleProject project) throws IOException {
+        PurgeProgress progress = new PurgeProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(new PurgeOptions(false, false, false), progress).purge(project);
+        }
+        return progress;
+    }
+
+    /**
+     * Keeps artifacts under {@code $JENKINS_HOME/external-artifacts}, standing in for a remote store.
+     */
+    public static final class LocalArtifactManager extends ArtifactManager {
+
+        private final String path;
+
+        LocalArtifactManager(Run<?, ?> run) {
+            this.path = run.getParent().getFullName() + "/" + run.getNumber();
+        }
+
+        static File getRoot() {
+            return new File(Jenkins.get().getRootDir(), "external-artifacts");
+        }
+
+        File getDir() {
+            return new File(getRoot(), path);
+        }
+
+        @Override
+        public void onLoad(Run<?, ?> build) {
+        }
+
+        @Override
+        public void archive(FilePath workspace, Launcher launcher, BuildListener listener,
+                            Map<String, String> artifacts) throws IOException, InterruptedException {
+            for (Map.Entry<String, String> artifact : artifacts.entrySet()) {
+                workspace.child(artifact.getValue()).copyTo(new FilePath(new File(getDir(), artifact.getKey())));
+            }
+        }
+
+        @Override
+        public boolean delete() throws IOException {
+            SINGLE.incrementAndGet();
+            return deleteDir();
+        }
+
+        boolean deleteDir() throws IOException {
+            if (!getDir().exists()) {
+                return false;
+            }
+            Util.deleteRecursive(getDir());
+            return true;
+        }
+
+        @Override
+        public VirtualFile root() {
+            return VirtualFile.forFile(getDir());
+        }
+    }
+
+    public static final class LocalArtifactManagerFactory extends ArtifactManagerFactory {
+
+        @Override
+        public ArtifactManager managerFor(Run<?, ?> build) {
+            return new LocalArtifactManager(build);
+        }
+    }
+
+    @TestExtension
+    public static final class LocalArtifactManagerFactoryDescriptor extends ArtifactManagerFactoryDescriptor {
+
+        public LocalArtifactManagerFactoryDescriptor() {
+            super(LocalArtifactManagerFactory.class);
+        }
+    }
+
+    @TestExtension
+    public static final class LocalBulkDeleter extends BulkArtifactDeleter {
+
+        @Override
+        public boolean handles(ArtifactManager manager) {
+            return bulk && manager instanceof LocalArtifactManager;
+        }
+
+        @Override
+        public void delete(List<ArtifactManager> managers) throws IOException {
+            BATCHES.add(managers.size());
+            for (ArtifactManager manager : managers) {
+                ((LocalArtifactManager) manager).deleteDir();
+            }
+        }
+    }
+}
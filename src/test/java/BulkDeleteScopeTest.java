@@ -0,0 +1,83 @@
+import hudson.model.FreeStyleProject;
+import hudson.model.Run;
+import hudson.model.listeners.RunListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.plugins.purgejobhistory.BulkDeleteScope;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeJobHistory;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkDeleteScopeTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    /**
+     * The number of deletions the listeners were notified of.
+     */
+    static final AtomicInteger DELETED = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        DELETED.set(0);
+    }
+
+    @Test
+    public void testListenersAreNotifiedWhenTheScopeIsClosed() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("project");
+        for (int i = 0; i < 5; i++) {
+            this.jenkins.buildAndAssertSuccess(project);
+        }
+
+        try (BulkDeleteScope scope = PurgeJobHistory.bulkDelete(project)) {
+            for (int number = 5; number >= 3; number--) {
+                Run<?, ?> run = project.getBuildByNumber(number);
+                scope.delete(run);
+                Assert.assertFalse(run.getRootDir().exists());
+            }
+            Assert.assertEquals(0, DELETED.get());
+            Assert.assertEquals(2, project.getBuilds().size());
+        }
+
+        Assert.assertEquals(3, DELETED.get());
+        Assert.assertEquals(2, project.getLastBuild().getNumber());
+        Assert.assertEquals(2, project.getLastSuccessfulBuild().getNumber());
+    }
+
+    @Test
+    public void testPurgeNotifiesListenersOfEveryBuild() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("project");
+        for (int i = 0; i < 5; i++) {
+            this.jenkins.buildAndAssertSuccess(project);
+        }
+
+        PurgeProgress progress = new PurgeProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(new PurgeOptions(false, false, false), progress).purge(project);
+        }
+
+        Assert.assertEquals(5, progress.getBuildsDeleted());
+        Assert.assertEquals(5, DELETED.get());
+        Assert.assertNull(project.getLastBuild());
+        Assert.assertNull(project.getLastSuccessfulBuild());
+    }
+
+    @TestExtension
+    public static final class CountingListener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onDeleted(Run<?, ?> run) {
+            DELETED.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import hudson.cli.CLICommandInvoker;
+import hudson.model.FreeStyleProject;
+import jenkins.plugins.purgejobhistory.ItemNameIndex;
+import jenkins.plugins.purgejobhistory.PurgeTask;
+import jenkins.plugins.purgejobhistory.PurgeTaskManager;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.htmlunit.HttpMethod;
+import org.htmlunit.WebRequest;
+import org.htmlunit.WebResponse;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class BulkPurgeTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testIndexFollowsItemEvents() throws Exception {
+        MockFolder teamA = this.jenkins.createFolder("team-a");
+        FreeStyleProject pr = teamA.createProject(FreeStyleProject.class, "pr-1");
+        teamA.createProject(FreeStyleProject.class, "main");
+        MockFolder teamB = this.jenkins.createFolder("team-b");
+        teamB.createProject(FreeStyleProject.class, "pr-2");
+        this.jenkins.createFolder("other").createProject(FreeStyleProject.class, "pr-3");
+        ItemNameIndex index = ItemNameIndex.get();
+
+        Assert.assertEquals(List.of("team-a/pr-1", "team-b/pr-2"),
+                new ArrayList<>(index.match(Collections.singleton("team-*/pr-*"), false)));
+        Assert.assertEquals(List.of("other/pr-3", "team-a/pr-1", "team-b/pr-2"),
+                new ArrayList<>(index.match(Collections.singleton("**pr-?"), false)));
+        Assert.assertEquals(List.of("team-a", "team-b"),
+                new ArrayList<>(index.match(Collections.singleton("team-[ab]"), true)));
+
+        pr.renameTo("pr-9");
+        teamB.renameTo("team-c");
+        Assert.assertEquals(List.of("team-a/pr-9", "team-c/pr-2"),
+                new ArrayList<>(index.match(Collections.singleton("team-*/pr-*"), false)));
+
+        teamB.delete();
+        Assert.assertEquals(List.of("team-a", "team-a/main", "team-a/pr-9"),
+                new ArrayList<>(index.match(Collections.singleton("team-**"), false)));
+    }
+
+    @Test
+    public void testEndpointPurgesMatchesWithResultPerItem() throws Exception {
+        this.createTeams();
+
+        JenkinsRule.WebClient webClient = this.jenkins.createWebClient();
+        WebRequest request = new WebRequest(new URL(this.jenkins.getURL(),
+                "purge-job-history/bulkPurge?pattern=team-*/pr-*&pattern=team-b"), HttpMethod.POST);
+        webClient.addCrumb(request);
+        WebResponse accepted = webClient.getPage(request).getWebResponse();
+        Assert.assertEquals(202, accepted.getStatusCode());
+        String location = accepted.getResponseHeaderValue("Location");
+        Assert.assertTrue(location, location.startsWith(this.jenkins.getURL() + "purge-job-history/task/"));
+        PurgeTask task = PurgeTaskManager.get().getTask(JSONObject.fromObject(accepted.getContentAsString())
+                .getString("id"));
+        Assert.assertTrue(task.waitForCompletion(30, TimeUnit.SECONDS));
+        JSONObject response = JSONObject.fromObject(webClient.goTo(location.substring(
+                this.jenkins.getURL().toString().length()) + "results", "application/json").getWebResponse()
+                .getContentAsString());
+
+        Assert.assertEquals("COMPLETED", response.getString("state"));
+        Assert.assertEquals(4, response.getInt("deleted"));
+        JSONArray items = response.getJSONArray("items");
+        Assert.assertEquals(3, items.size());
+        Assert.assertEquals("team-a/pr-1", items.getJSONObject(0).getString("item"));
+        Assert.assertEquals("purged", items.getJSONObject(0).getString("status"));
+        Assert.assertEquals(2, items.getJSONObject(0).getInt("deleted"));
+        Assert.assertEquals("team-b", items.getJSONObject(1).getString("item"));
+        Assert.assertEquals("skipped", items.getJSONObject(1).getString("status"));
+        Assert.assertEquals("team-b/pr-2", items.getJSONObject(2).getString("item"));
+        Assert.assertEquals(2, items.getJSONObject(2).getInt("deleted"));
+        Assert.assertEquals(2, this.jenkins.jenkins.getItemByFullName("team-a/main", FreeStyleProject.class)
+                .getBuilds().size());
+    }
+
+    @Test
+    public void testCommandPurgesMatchesRecursively() throws Exception {
+        this.createTeams();
+
+        CLICommandInvoker.Result result = new CLICommandInvoker(this.jenkins, "purge-job-history")
+                .invokeWithArgs("-R", "--format", "JSON", "--match", "team-*", "--match", "team-a/main");
+
+        Assert.assertEquals(result.stderr(), 0, result.returnCode());
+        List<JSONObject> items = new ArrayList<>();
+        for (String line : result.stdout().split("\\R")) {
+            if (!line.isEmpty() && "item".equals(JSONObject.fromObject(line).getString("event"))) {
+                items.add(JSONObject.fromObject(line));
+            }
+        }
+        Assert.assertEquals(2, items.size());
+        Assert.assertEquals("team-a", items.get(0).getString("item"));
+        Assert.assertEquals(2, items.get(0).getInt("jobs"));
+        Assert.assertEquals(4, items.get(0).getInt("deleted"));
+        Assert.assertEquals("team-b", items.get(1).getString("item"));
+        Assert.assertEquals(2, items.get(1).getInt("deleted"));
+        Assert.assertNull(this.jenkins.jenkins.getItemByFullName("team-a/main", FreeStyleProject.class)
+                .getLastBuild());
+    }
+
+    private void createTeams() throws Exception {
+        String[][] jobs = {{"team-a", "pr-1"}, {"team-a", "main"}, {"team-b", "pr-2"}};
+        for (String[] job : jobs) {
+            MockFolder folder = this.jenkins.jenkins.getItem(job[0]) instanceof MockFolder
+                    ? (MockFolder) this.jenkins.jenkins.getItem(job[0]) : this.jenkins.createFolder(job[0]);
+            FreeStyleProject project = folder.createProject(FreeStyleProject.class, job[1]);
+            this.jenkins.buildAndAssertSuccess(project);
+            this.jenkins.buildAndAssertSuccess(project);
+        }
+    }
+}
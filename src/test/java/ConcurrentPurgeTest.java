@@ -0,0 +1,138 @@
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Run;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class ConcurrentPurgeTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testBuildsFromTheOldestRunningOneAreKept() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("project");
+        project.setConcurrentBuild(true);
+        CountDownLatch release = new CountDownLatch(1);
+        project.getBuildersList().add(new BlockingBuilder(3, release));
+        this.jenkins.buildAndAssertSuccess(project);
+        this.jenkins.buildAndAssertSuccess(project);
+        QueueTaskFuture<FreeStyleBuild> running = project.scheduleBuild2(0);
+        FreeStyleBuild third = running.waitForStart();
+        Assert.assertEquals(3, third.getNumber());
+        this.jenkins.buildAndAssertSuccess(project);
+
+        PurgeProgress progress = new PurgeProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(new PurgeOptions(true, true, false), progress).purge(project);
+        }
+        release.countDown();
+        this.jenkins.assertBuildStatusSuccess(running);
+
+        Assert.assertEquals(2, progress.getBuildsDeleted());
+        Assert.assertEquals(0, progress.getBuildsSkipped());
+        List<Integer> numbers = new ArrayList<>();
+        for (Run<?, ?> run : project.getBuilds()) {
+            numbers.add(run.getNumber());
+        }
+        Assert.assertEquals(List.of(4, 3), numbers);
+        Assert.assertEquals(5, project.getNextBuildNumber());
+    }
+
+    @Test
+    public void testBuildsRunWhilePurging() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("project");
+        project.setConcurrentBuild(true);
+        for (int i = 0; i < 20; i++) {
+            this.jenkins.buildAndAssertSuccess(project);
+        }
+
+        PurgeOptions options = new PurgeOptions(true, false, false);
+        // slow enough for the new builds to start and finish while the purge runs
+        options.setBuildsPerSecond(10);
+        CountDownLatch started = new CountDownLatch(1);
+        PurgeProgress progress = new PurgeProgress() {
+            @Override
+            public void jobScanned() {
+                super.jobScanned();
+                started.countDown();
+            }
+        };
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread purge = new Thread(() -> {
+            try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+                new PurgeEngine(options, progress).purge(project);
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "purge");
+        purge.start();
+        Assert.assertTrue(started.await(1, TimeUnit.MINUTES));
+        List<Future<FreeStyleBuild>> builds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            QueueTaskFuture<FreeStyleBuild> build = project.scheduleBuild2(0);
+            // one at a time, or the queue would fold them into one
+            build.waitForStart();
+            builds.add(build);
+        }
+        for (Future<FreeStyleBuild> build : builds) {
+            this.jenkins.assertBuildStatusSuccess(build);
+        }
+        purge.join(TimeUnit.MINUTES.toMillis(1));
+        Assert.assertFalse(purge.isAlive());
+        Assert.assertNull(failure.get());
+        Assert.assertEquals(0, progress.getJobsFailed());
+
+        // the builds started after the purge, so they are all above its cut
+        Assert.assertEquals(20, progress.getBuildsDeleted());
+        Assert.assertEquals(5, project.getBuilds().size());
+        for (Run<?, ?> run : project.getBuilds()) {
+            Assert.assertTrue(run.getNumber() > 20);
+        }
+        // builds were numbered during the purge, so the next build number must not go back to 1
+        Assert.assertEquals(26, project.getNextBuildNumber());
+    }
+
+    /**
+     * Holds one build until released.
+     */
+    private static final class BlockingBuilder extends TestBuilder {
+
+        private final int number;
+
+        private final transient CountDownLatch release;
+
+        BlockingBuilder(int number, CountDownLatch release) {
+            this.number = number;
+            this.release = release;
+        }
+
+        @Override
+        public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                throws InterruptedException {
+            if (build.getNumber() == number) {
+                release.await();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.plugins.purgejobhistory.DiskUsageIndex;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeMetrics;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DryRunPurgeTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testDryRunReportsWhatThePurgeThenDeletes() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("estimated");
+        List<File> dirs = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            FreeStyleBuild build = this.jenkins.buildAndAssertSuccess(project);
+            // some weight besides build.xml and the log
+            Files.write(new File(build.getRootDir(), "payload.bin").toPath(), new byte[4096 * i]);
+            dirs.add(build.getRootDir());
+        }
+        PurgeMetrics metrics = PurgeMetrics.get();
+        long deletedBefore = metrics.getBuildsDeleted();
+
+        PurgeOptions options = new PurgeOptions(true, false, false);
+        options.setDryRun(true);
+        PurgeProgress estimate = this.purge(project, options);
+
+        Assert.assertEquals(3, estimate.getBuildsDeleted());
+        Assert.assertTrue(estimate.getBytesReclaimed() > 4096 * 6);
+        Assert.assertEquals(3, project.getBuilds().size());
+        Assert.assertEquals(4, project.getNextBuildNumber());
+        Assert.assertEquals(deletedBefore, metrics.getBuildsDeleted());
+        long indexed = 0;
+        for (File dir : dirs) {
+            Assert.assertTrue(dir.isDirectory());
+            indexed += DiskUsageIndex.get().cachedSizeOf(dir);
+        }
+        Assert.assertEquals(estimate.getBytesReclaimed(), indexed);
+        String index = new String(Files.readAllBytes(new File(this.jenkins.jenkins.getRootDir(),
+                "purge-job-history-sizes.txt").toPath()), StandardCharsets.UTF_8);
+        for (File dir : dirs) {
+            Assert.assertTrue(index.contains(dir.getAbsolutePath()));
+        }
+
+        // a second estimate is answered from the index
+        PurgeProgress again = this.purge(project, options);
+        Assert.assertEquals(estimate.getBuildsDeleted(), again.getBuildsDeleted());
+        Assert.assertEquals(estimate.getBytesReclaimed(), again.getBytesReclaimed());
+
+        PurgeProgress purge = this.purge(project, new PurgeOptions(true, false, false));
+
+        Assert.assertEquals(estimate.getBuildsDeleted(), purge.getBuildsDeleted());
+        Assert.assertEquals(estimate.getBytesReclaimed(), purge.getBytesReclaimed());
+        Assert.assertEquals(0, project.getBuilds().size());
+        Assert.assertEquals(1, project.getNextBuildNumber());
+        Assert.assertEquals(deletedBefore + 3, metrics.getBuildsDeleted());
+        for (File dir : dirs) {
+            Assert.assertFalse(dir.exists());
+            Assert.assertEquals(0, DiskUsageIndex.get().cachedSizeOf(dir));
+        }
+    }
+
+    private PurgeProgress purge(FreeStyleProject project, PurgeOptions options) throws Exception {
+        PurgeProgress progress = new PurgeProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(options, progress).purge(project);
+        }
+        return progress;
+    }
+}
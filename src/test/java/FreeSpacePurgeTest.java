@@ -0,0 +1,71 @@
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.plugins.purgejobhistory.PurgeAuditLog;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import jenkins.plugins.purgejobhistory.RetentionFilter;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class FreeSpacePurgeTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @After
+    public void resetPerBuild() {
+        PurgeAuditLog.PER_BUILD = false;
+    }
+
+    @Test
+    public void testBiggestBuildsAreDeletedFirst() throws Exception {
+        MockFolder folder = this.jenkins.createFolder("folder");
+        FreeStyleProject small = folder.createProject(FreeStyleProject.class, "small");
+        this.jenkins.buildAndAssertSuccess(small);
+        this.jenkins.buildAndAssertSuccess(small);
+        FreeStyleProject big = folder.createProject(FreeStyleProject.class, "big");
+        FreeStyleBuild bigBuild = this.jenkins.buildAndAssertSuccess(big);
+        this.jenkins.buildAndAssertSuccess(big);
+        Files.write(new File(bigBuild.getRootDir(), "big.bin").toPath(), new byte[1024 * 1024]);
+        PurgeAuditLog.PER_BUILD = true;
+
+        PurgeOptions options = new PurgeOptions(false, false, true);
+        // more than any test machine has, so every build selected is deleted
+        options.setFreeSpaceGigabytes(Integer.MAX_VALUE);
+        RetentionFilter filter = new RetentionFilter();
+        filter.setKeepLast(1);
+        options.setFilter(filter);
+        PurgeProgress progress = new PurgeProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(options, progress).purge(folder);
+        }
+        Assert.assertTrue(PurgeAuditLog.get().flush(30, TimeUnit.SECONDS));
+
+        List<String> builds = new ArrayList<>();
+        for (String line : Files.readAllLines(PurgeAuditLog.getFile().toPath(), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields[1].equals("BUILD")) {
+                builds.add(String.join(" ", fields[2], fields[3], fields[4]));
+            }
+        }
+        Assert.assertEquals(List.of("folder/big 1 DELETED", "folder/small 1 DELETED"), builds);
+        Assert.assertEquals(2, progress.getBuildsDeleted());
+        Assert.assertEquals(2, progress.getJobsScanned());
+        Assert.assertEquals(1, big.getBuilds().size());
+        Assert.assertEquals(1, small.getBuilds().size());
+    }
+}
@@ -0,0 +1,103 @@
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeMetrics;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class NestedFolderPurgeTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    private final List<FreeStyleProject> projects = new ArrayList<>();
+
+    @Test
+    public void testNestedJobsArePurgedOnce() throws Exception {
+        MockFolder root = this.createTree();
+        PurgeMetrics metrics = PurgeMetrics.get();
+        long traversed = metrics.getItemsTraversed();
+        long resets = metrics.getBuildNumbersReset();
+
+        CountingProgress progress = new CountingProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(new PurgeOptions(true, false, true), progress).purge(root);
+        }
+
+        this.assertPurgedOnce(progress);
+        // a, a/b and a/b/c, then a job in each
+        Assert.assertEquals(6, metrics.getItemsTraversed() - traversed);
+        Assert.assertEquals(3, metrics.getBuildNumbersReset() - resets);
+        for (FreeStyleProject project : this.projects) {
+            Assert.assertNull(project.getLastBuild());
+            Assert.assertEquals(1, project.getNextBuildNumber());
+        }
+    }
+
+    @Test
+    public void testNestedJobsArePurgedOnceWhenPurgingEverything() throws Exception {
+        this.createTree();
+        PurgeMetrics metrics = PurgeMetrics.get();
+        long resets = metrics.getBuildNumbersReset();
+
+        CountingProgress progress = new CountingProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(new PurgeOptions(true, false, true), progress).purgeAll();
+        }
+
+        this.assertPurgedOnce(progress);
+        Assert.assertEquals(3, metrics.getBuildNumbersReset() - resets);
+    }
+
+    /**
+     * Creates {@code a/x}, {@code a/b/y} and {@code a/b/c/z}, with 2 builds each.
+     */
+    private MockFolder createTree() throws Exception {
+        MockFolder a = this.jenkins.createFolder("a");
+        MockFolder b = a.createProject(MockFolder.class, "b");
+        MockFolder c = b.createProject(MockFolder.class, "c");
+        this.projects.add(a.createProject(FreeStyleProject.class, "x"));
+        this.projects.add(b.createProject(FreeStyleProject.class, "y"));
+        this.projects.add(c.createProject(FreeStyleProject.class, "z"));
+        for (FreeStyleProject project : this.projects) {
+            this.jenkins.buildAndAssertSuccess(project);
+            this.jenkins.buildAndAssertSuccess(project);
+        }
+        return a;
+    }
+
+    private void assertPurgedOnce(CountingProgress progress) {
+        Assert.assertEquals(3, progress.getJobsScanned());
+        Assert.assertEquals(6, progress.getBuildsDeleted());
+        Map<String, Integer> expected = new TreeMap<>();
+        for (FreeStyleProject project : this.projects) {
+            expected.put(project.getFullName(), 1);
+        }
+        Assert.assertEquals(expected, progress.finished);
+    }
+
+    /**
+     * Counts how many times each job was purged.
+     */
+    private static final class CountingProgress extends PurgeProgress {
+
+        final Map<String, Integer> finished = Collections.synchronizedMap(new TreeMap<>());
+
+        @Override
+        public void jobFinished(String fullName, int deleted, int kept, long bytes, long millis) {
+            finished.merge(fullName, 1, Integer::sum);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.User;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PermissionCacheTest {
+
+    private static final int NUMBER_OF_BUILDS = 10;
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testDeletePermissionIsCheckedOncePerJob() throws Exception {
+        FreeStyleProject allowed = this.jenkins.createFreeStyleProject("allowed");
+        FreeStyleProject denied = this.jenkins.createFreeStyleProject("denied");
+        for (int i = 0; i < NUMBER_OF_BUILDS; i++) {
+            this.jenkins.buildAndAssertSuccess(allowed);
+            this.jenkins.buildAndAssertSuccess(denied);
+        }
+        this.jenkins.jenkins.setSecurityRealm(this.jenkins.createDummySecurityRealm());
+        CountingAuthorizationStrategy strategy = new CountingAuthorizationStrategy();
+        strategy.grant(Jenkins.READ, Item.READ).everywhere().to("purger");
+        strategy.grant(Run.DELETE).onItems(allowed).to("purger");
+        this.jenkins.jenkins.setAuthorizationStrategy(strategy);
+
+        PurgeProgress progress = new PurgeProgress();
+        strategy.jobAcls.set(0);
+        try (ACLContext ctx = ACL.as2(User.getById("purger", true).impersonate2())) {
+            PurgeEngine engine = new PurgeEngine(new PurgeOptions(), progress);
+            engine.purge(allowed);
+            engine.purge(denied);
+        }
+
+        Assert.assertEquals(0, allowed.getBuilds().size());
+        Assert.assertEquals(NUMBER_OF_BUILDS, denied.getBuilds().size());
+        Assert.assertEquals(NUMBER_OF_BUILDS, progress.getBuildsDeleted());
+        Assert.assertEquals(NUMBER_OF_BUILDS, progress.getBuildsSkipped());
+        Assert.assertTrue(String.format("Job ACLs were evaluated %d times", strategy.jobAcls.get()),
+                strategy.jobAcls.get() < NUMBER_OF_BUILDS);
+    }
+
+    private static class CountingAuthorizationStrategy extends MockAuthorizationStrategy {
+
+        private final AtomicInteger jobAcls = new AtomicInteger();
+
+        @Override
+        public ACL getACL(Job<?, ?> project) {
+            jobAcls.incrementAndGet();
+            return super.getACL(project);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.plugins.purgejobhistory.PurgeAuditLog;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PurgeAuditLogTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @After
+    public void resetPerBuild() {
+        PurgeAuditLog.PER_BUILD = false;
+    }
+
+    @Test
+    public void testJobAndBuildRecords() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("audited");
+        FreeStyleBuild kept = this.jenkins.buildAndAssertSuccess(project);
+        kept.keepLog(true);
+        this.jenkins.buildAndAssertSuccess(project);
+        this.jenkins.buildAndAssertSuccess(project);
+        PurgeAuditLog.PER_BUILD = true;
+
+        PurgeOptions dryRun = new PurgeOptions();
+        dryRun.setDryRun(true);
+        purge(project, dryRun);
+        purge(project, new PurgeOptions());
+        Assert.assertTrue(PurgeAuditLog.get().flush(30, TimeUnit.SECONDS));
+
+        List<String> jobs = new ArrayList<>();
+        List<String> builds = new ArrayList<>();
+        for (String line : Files.readAllLines(PurgeAuditLog.getFile().toPath(), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            if (fields[1].equals("JOB")) {
+                jobs.add(String.join(" ", fields[2], fields[3], fields[4], fields[5], fields[6], fields[7],
+                        fields[8]));
+            } else {
+                builds.add(String.join(" ", fields[2], fields[3], fields[4]));
+            }
+        }
+        Assert.assertEquals(List.of("audited SYSTEM 2 0 0 1 0"), jobs);
+        Assert.assertEquals(List.of("audited 3 DELETED", "audited 2 DELETED", "audited 1 KEEP_FOREVER"), builds);
+    }
+
+    private static void purge(FreeStyleProject project, PurgeOptions options) throws Exception {
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(options, new PurgeProgress()).purge(project);
+        }
+    }
+}
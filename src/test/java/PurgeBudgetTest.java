@@ -0,0 +1,133 @@
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import jenkins.plugins.purgejobhistory.PurgeThrottle;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class PurgeBudgetTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testStoppedPurgeDeletesNothing() throws Exception {
+        MockFolder folder = this.jenkins.createFolder("folder");
+        FreeStyleProject first = folder.createProject(FreeStyleProject.class, "first");
+        this.jenkins.buildAndAssertSuccess(first);
+        FreeStyleProject second = folder.createProject(FreeStyleProject.class, "second");
+        this.jenkins.buildAndAssertSuccess(second);
+
+        PurgeProgress progress = new PurgeProgress();
+        Assert.assertTrue(progress.stop("cancelled"));
+        Assert.assertFalse(progress.stop("later"));
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(new PurgeOptions(true, false, true), progress).purge(folder);
+        }
+
+        Assert.assertEquals("cancelled", progress.getStopReason());
+        Assert.assertEquals(2, progress.getJobsRemaining());
+        Assert.assertEquals(0, progress.getBuildsDeleted());
+        Assert.assertEquals(1, first.getBuilds().size());
+        Assert.assertEquals(1, second.getBuilds().size());
+        Assert.assertEquals(2, first.getNextBuildNumber());
+    }
+
+    @Test
+    public void testStopBetweenJobsReportsTheRest() throws Exception {
+        MockFolder folder = this.jenkins.createFolder("folder");
+        FreeStyleProject first = folder.createProject(FreeStyleProject.class, "first");
+        this.jenkins.buildAndAssertSuccess(first);
+        this.jenkins.buildAndAssertSuccess(first);
+        FreeStyleProject second = folder.createProject(FreeStyleProject.class, "second");
+        this.jenkins.buildAndAssertSuccess(second);
+
+        PurgeProgress progress = new PurgeProgress() {
+            @Override
+            public void jobFinished(String fullName, int deleted, int kept, long bytes, long millis) {
+                super.jobFinished(fullName, deleted, kept, bytes, millis);
+                stop("enough");
+            }
+        };
+        PurgeOptions options = new PurgeOptions(true, false, true);
+        options.setParallelism(1);
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(options, progress).purge(folder);
+        }
+
+        Assert.assertTrue(progress.isStopped());
+        Assert.assertEquals(1, progress.getJobsRemaining());
+        Assert.assertEquals(2, progress.getBuildsDeleted());
+        Assert.assertEquals(0, first.getBuilds().size());
+        Assert.assertEquals(1, first.getNextBuildNumber());
+        Assert.assertEquals(1, second.getBuilds().size());
+        Assert.assertEquals(2, second.getNextBuildNumber());
+    }
+
+    @Test
+    public void testCancelWhilePausedForBusyExecutors() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("project");
+        for (int i = 0; i < 3; i++) {
+            this.jenkins.buildAndAssertSuccess(project);
+        }
+        this.jenkins.jenkins.setNumExecutors(1);
+        FreeStyleProject busy = this.jenkins.createFreeStyleProject("busy");
+        CountDownLatch release = new CountDownLatch(1);
+        busy.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                    throws InterruptedException {
+                release.await();
+                return true;
+            }
+        });
+        QueueTaskFuture<FreeStyleBuild> running = busy.scheduleBuild2(0);
+        running.waitForStart();
+        System.setProperty(PurgeThrottle.MAX_EXECUTOR_LOAD_PROPERTY, "0.5");
+        try {
+            PurgeProgress progress = new PurgeProgress();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread purge = new Thread(() -> {
+                try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+                    new PurgeEngine(new PurgeOptions(false, false, false), progress).purge(project);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }, "purge");
+            purge.start();
+            // the single executor is busy, so the purge pauses before the first build
+            Thread.sleep(1000);
+            Assert.assertTrue(purge.isAlive());
+            Assert.assertEquals(0, progress.getBuildsDeleted());
+
+            progress.stop("cancelled");
+            // well within the 5 s between two looks at the executors
+            purge.join(2000);
+            Assert.assertFalse(purge.isAlive());
+            Assert.assertNull(failure.get());
+            Assert.assertEquals("cancelled", progress.getStopReason());
+            Assert.assertEquals(1, progress.getJobsRemaining());
+            Assert.assertEquals(0, progress.getBuildsDeleted());
+            Assert.assertEquals(3, project.getBuilds().size());
+        } finally {
+            System.clearProperty(PurgeThrottle.MAX_EXECUTOR_LOAD_PROPERTY);
+            release.countDown();
+        }
+        this.jenkins.assertBuildStatusSuccess(running);
+    }
+}
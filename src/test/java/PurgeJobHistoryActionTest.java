@@ -6,6 +6,8 @@ import hudson.tasks.LogRotator;
 import jenkins.branch.BranchSource;
 import jenkins.plugins.git.GitSCMSource;
 import jenkins.plugins.git.GitSampleRepoRule;
+import jenkins.plugins.purgejobhistory.PurgeTask;
+import jenkins.plugins.purgejobhistory.PurgeTaskManager;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.multibranch.WorkflowMultiBranchProject;
 import org.junit.Assert;
@@ -23,6 +25,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 @RunWith(Parameterized.class)
 public class PurgeJobHistoryActionTest {
@@ -238,6 +241,7 @@ public class PurgeJobHistoryActionTest {
         form.getInputByName("resetNextBuild").setChecked(resetBuildNumber);
         form.getInputByName("forceDelete").setChecked(force);
         jenkins.submit(form);
+        this.waitForPurges();
     }
 
     private void performDeleteJobBuildHistory(AbstractItem item, boolean resetBuildNumber, boolean force, boolean recurse) throws Exception {
@@ -247,6 +251,16 @@ public class PurgeJobHistoryActionTest {
         form.getInputByName("forceDelete").setChecked(force);
         form.getInputByName("recurse").setChecked(recurse);
         jenkins.submit(form);
+        this.waitForPurges();
+    }
+
+    private void waitForPurges() throws InterruptedException {
+        List<PurgeTask> tasks = PurgeTaskManager.get().getTasks();
+        Assert.assertFalse(tasks.isEmpty());
+        for (PurgeTask task : tasks) {
+            Assert.assertTrue(task.waitForCompletion(5, TimeUnit.MINUTES));
+            Assert.assertEquals(PurgeTask.State.COMPLETED, task.getState());
+        }
     }
 
     private void markBuildKeptForever(Run run) throws IOException, SAXException {
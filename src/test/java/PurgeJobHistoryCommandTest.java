@@ -0,0 +1,78 @@
+import hudson.cli.CLICommandInvoker;
+import hudson.model.FreeStyleProject;
+import net.sf.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PurgeJobHistoryCommandTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testJsonProgressIsStreamedPerJob() throws Exception {
+        MockFolder folder = this.createFolderWithBuilds();
+
+        CLICommandInvoker.Result result = new CLICommandInvoker(this.jenkins, "purge-job-history")
+                .invokeWithArgs("-R", "--format", "JSON", "folder");
+
+        Assert.assertEquals(result.stderr(), 0, result.returnCode());
+        List<JSONObject> events = new ArrayList<>();
+        for (String line : result.stdout().split("\\R")) {
+            if (!line.isEmpty()) {
+                events.add(JSONObject.fromObject(line));
+            }
+        }
+        Assert.assertEquals(3, events.size());
+        Assert.assertEquals("job", events.get(0).getString("event"));
+        Assert.assertEquals(2, events.get(0).getInt("deleted"));
+        Assert.assertEquals("job", events.get(1).getString("event"));
+        JSONObject summary = events.get(2);
+        Assert.assertEquals("summary", summary.getString("event"));
+        Assert.assertEquals(4, summary.getInt("deleted"));
+        Assert.assertEquals(0, summary.getInt("jobsFailed"));
+        Assert.assertNull(((FreeStyleProject) folder.getItem("a")).getLastBuild());
+    }
+
+    @Test
+    public void testTextProgressForDryRun() throws Exception {
+        MockFolder folder = this.createFolderWithBuilds();
+
+        CLICommandInvoker.Result result = new CLICommandInvoker(this.jenkins, "purge-job-history")
+                .invokeWithArgs("-R", "-n", "-p", "2", "folder");
+
+        Assert.assertEquals(result.stderr(), 0, result.returnCode());
+        Assert.assertTrue(result.stdout(), result.stdout().contains("folder/a: would delete 2 builds"));
+        Assert.assertTrue(result.stdout(), result.stdout().contains("folder/b: would delete 2 builds"));
+        Assert.assertTrue(result.stdout(), result.stdout().contains("Would delete 4 builds from 2 jobs"));
+        Assert.assertEquals(2, ((FreeStyleProject) folder.getItem("a")).getBuilds().size());
+    }
+
+    @Test
+    public void testTooManyWorkersAreRefused() throws Exception {
+        MockFolder folder = this.createFolderWithBuilds();
+
+        CLICommandInvoker.Result result = new CLICommandInvoker(this.jenkins, "purge-job-history")
+                .invokeWithArgs("-R", "-p", "100000", "folder");
+
+        Assert.assertEquals(result.stderr(), 3, result.returnCode());
+        Assert.assertTrue(result.stderr(), result.stderr().contains("jobs can be purged in parallel"));
+        Assert.assertEquals(2, ((FreeStyleProject) folder.getItem("a")).getBuilds().size());
+    }
+
+    private MockFolder createFolderWithBuilds() throws Exception {
+        MockFolder folder = this.jenkins.createFolder("folder");
+        for (String name : new String[] {"a", "b"}) {
+            FreeStyleProject project = folder.createProject(FreeStyleProject.class, name);
+            this.jenkins.buildAndAssertSuccess(project);
+            this.jenkins.buildAndAssertSuccess(project);
+        }
+        return folder;
+    }
+}
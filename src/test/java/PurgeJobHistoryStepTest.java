@@ -0,0 +1,98 @@
+import hudson.model.Cause;
+import hudson.model.CauseAction;
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.User;
+import hudson.model.queue.QueueTaskFuture;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+
+public class PurgeJobHistoryStepTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Before
+    public void setUp() {
+        // builds run as SYSTEM, so the step purges as the user who started them
+        this.jenkins.jenkins.setSecurityRealm(this.jenkins.createDummySecurityRealm());
+        this.jenkins.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.READ, Item.READ, Item.BUILD, Run.DELETE).everywhere().to("purger")
+                .grant(Jenkins.READ, Item.READ, Item.BUILD).everywhere().to("reader"));
+        User.getById("purger", true);
+        User.getById("reader", true);
+    }
+
+    @Test
+    public void testStepPurgesAndReturnsSummary() throws Exception {
+        FreeStyleProject project = this.createTarget();
+
+        WorkflowJob pipeline = this.jenkins.createProject(WorkflowJob.class, "cleanup");
+        pipeline.setDefinition(new CpsFlowDefinition(
+                "def purged = purgeJobHistory job: 'target', keepLast: 1\n"
+                        + "echo \"jobs=${purged.jobs} deleted=${purged.deleted}\"", true));
+        WorkflowRun run = this.jenkins.assertBuildStatusSuccess(this.startAs(pipeline, "purger"));
+
+        this.jenkins.assertLogContains("target: deleted 2 builds", run);
+        this.jenkins.assertLogContains("jobs=1 deleted=2", run);
+        Assert.assertEquals(1, project.getBuilds().size());
+        Assert.assertEquals(3, project.getLastBuild().getNumber());
+    }
+
+    @Test
+    public void testUnknownJobFailsTheBuild() throws Exception {
+        WorkflowJob pipeline = this.jenkins.createProject(WorkflowJob.class, "cleanup");
+        pipeline.setDefinition(new CpsFlowDefinition("purgeJobHistory job: 'missing'", true));
+        WorkflowRun run = this.jenkins.assertBuildStatus(Result.FAILURE, this.startAs(pipeline, "purger"));
+
+        this.jenkins.assertLogContains("No such item: missing", run);
+    }
+
+    @Test
+    public void testStepPurgesOnlyWhatTheStartingUserMayDelete() throws Exception {
+        FreeStyleProject project = this.createTarget();
+
+        WorkflowJob pipeline = this.jenkins.createProject(WorkflowJob.class, "cleanup");
+        pipeline.setDefinition(new CpsFlowDefinition(
+                "def purged = purgeJobHistory job: 'target'\n"
+                        + "echo \"deleted=${purged.deleted} kept=${purged.kept}\"", true));
+        WorkflowRun run = this.jenkins.assertBuildStatusSuccess(this.startAs(pipeline, "reader"));
+
+        this.jenkins.assertLogContains("deleted=0 kept=3", run);
+        Assert.assertEquals(3, project.getBuilds().size());
+    }
+
+    @Test
+    public void testBuildStartedByNoUserIsRefused() throws Exception {
+        FreeStyleProject project = this.createTarget();
+
+        WorkflowJob pipeline = this.jenkins.createProject(WorkflowJob.class, "cleanup");
+        pipeline.setDefinition(new CpsFlowDefinition("purgeJobHistory job: 'target'", true));
+        WorkflowRun run = this.jenkins.assertBuildStatus(Result.FAILURE, pipeline.scheduleBuild2(0));
+
+        this.jenkins.assertLogContains("purgeJobHistory does not run as SYSTEM", run);
+        Assert.assertEquals(3, project.getBuilds().size());
+    }
+
+    private FreeStyleProject createTarget() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("target");
+        for (int i = 0; i < 3; i++) {
+            this.jenkins.buildAndAssertSuccess(project);
+        }
+        return project;
+    }
+
+    private QueueTaskFuture<WorkflowRun> startAs(WorkflowJob pipeline, String user) {
+        return pipeline.scheduleBuild2(0, new CauseAction(new Cause.UserIdCause(user)));
+    }
+}
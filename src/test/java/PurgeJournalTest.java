@@ -0,0 +1,76 @@
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import jenkins.plugins.purgejobhistory.PurgeJournal;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeTask;
+import jenkins.plugins.purgejobhistory.PurgeTaskManager;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class PurgeJournalTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testJournalIsReadBackAfterRestart() throws Exception {
+        PurgeJournal journal = PurgeJournal.create("test", new PurgeOptions(false, true, true), ACL.SYSTEM_USERNAME);
+        journal.watermark("folder/partial job", 42);
+        journal.watermark("folder/partial job", 17);
+        journal.jobDone("done");
+        journal.close();
+        // a crash in the middle of a write leaves a line without its end of line
+        Files.write(new File(this.jenkins.jenkins.getRootDir(), "purge-job-history-journal/test.log").toPath(),
+                "D folder/partial job".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        List<PurgeJournal> journals = PurgeJournal.loadAll();
+        Assert.assertEquals(1, journals.size());
+        PurgeJournal reloaded = journals.get(0);
+        Assert.assertEquals("test", reloaded.getId());
+        Assert.assertEquals(ACL.SYSTEM_USERNAME, reloaded.getUser());
+        Assert.assertTrue(reloaded.getOptions().isForce());
+        Assert.assertTrue(reloaded.isDone("done"));
+        Assert.assertFalse(reloaded.isDone("folder/partial job"));
+        Assert.assertEquals(17, reloaded.getWatermark("folder/partial job"));
+        Assert.assertEquals(0, reloaded.getWatermark("other"));
+
+        reloaded.delete();
+        Assert.assertTrue(PurgeJournal.loadAll().isEmpty());
+    }
+
+    @Test
+    public void testInterruptedPurgeResumesFromJournal() throws Exception {
+        FreeStyleProject done = this.jenkins.createFreeStyleProject("done");
+        FreeStyleProject partial = this.jenkins.createFreeStyleProject("partial");
+        for (int i = 0; i < 5; i++) {
+            this.jenkins.buildAndAssertSuccess(done);
+            this.jenkins.buildAndAssertSuccess(partial);
+        }
+        PurgeJournal journal = PurgeJournal.create("interrupted", new PurgeOptions(false, false, true),
+                ACL.SYSTEM_USERNAME);
+        journal.jobDone("done");
+        journal.watermark("partial", 3);
+        journal.close();
+
+        PurgeTaskManager.get().resumeInterrupted();
+        PurgeTask task = PurgeTaskManager.get().getTask("interrupted");
+        Assert.assertNotNull(task);
+        Assert.assertTrue(task.waitForCompletion(60, TimeUnit.SECONDS));
+        Assert.assertEquals(PurgeTask.State.COMPLETED, task.getState());
+
+        Assert.assertEquals(5, done.getBuilds().size());
+        Assert.assertEquals(3, partial.getBuilds().size());
+        Assert.assertNotNull(partial.getBuildByNumber(3));
+        Assert.assertNull(partial.getBuildByNumber(2));
+        Assert.assertTrue(PurgeJournal.loadAll().isEmpty());
+    }
+}
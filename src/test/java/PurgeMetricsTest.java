@@ -0,0 +1,49 @@
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import net.sf.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+
+public class PurgeMetricsTest {
+
+    private static final String METRICS = "purge-job-history/metrics/api/json";
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testEndpointReportsDeletedAndSkippedBuilds() throws Exception {
+        this.jenkins.jenkins.setSecurityRealm(this.jenkins.createDummySecurityRealm());
+        this.jenkins.jenkins.setAuthorizationStrategy(new MockAuthorizationStrategy()
+                .grant(Jenkins.ADMINISTER).everywhere().to("admin")
+                .grant(Jenkins.READ, Item.READ).everywhere().to("reader"));
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("measured");
+        this.jenkins.buildAndAssertSuccess(project).keepLog(true);
+        this.jenkins.buildAndAssertSuccess(project);
+        this.jenkins.buildAndAssertSuccess(project);
+
+        PurgeProgress progress = new PurgeProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(new PurgeOptions(), progress).purge(project);
+        }
+        Assert.assertEquals(2, progress.getBuildsDeleted());
+
+        JSONObject metrics = this.jenkins.createWebClient().login("admin").getJSON(METRICS).getJSONObject();
+        Assert.assertEquals(1, metrics.getLong("purges"));
+        Assert.assertEquals(2, metrics.getLong("buildsDeleted"));
+        Assert.assertEquals(progress.getBytesReclaimed(), metrics.getLong("bytesFreed"));
+        Assert.assertEquals(1, metrics.getJSONObject("buildsSkipped").getLong("keep_forever"));
+        Assert.assertEquals(2, metrics.getJSONObject("deleteLatency").getLong("count"));
+
+        this.jenkins.createWebClient().login("reader").assertFails(METRICS, 403);
+    }
+}
@@ -0,0 +1,102 @@
+import hudson.model.FreeStyleProject;
+import hudson.model.RunMap;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.lazy.LazyBuildMixIn;
+import jenkins.plugins.purgejobhistory.BuildRecord;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class PurgeStreamingMemoryTest {
+
+    private static final int NUMBER_OF_BUILDS = 5_000;
+
+    private static final int KEEP_FOREVER_EVERY = 100;
+
+    private static final int CHUNK_SIZE = 500;
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testStreamingPurgeRetainsAtMostOneChunk() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("huge");
+        this.generateSyntheticBuilds(project.getBuildDir());
+        project.updateNextBuildNumber(NUMBER_OF_BUILDS + 1);
+        this.jenkins.jenkins.reload();
+        project = this.jenkins.jenkins.getItemByFullName("huge", FreeStyleProject.class);
+
+        PurgeOptions options = new PurgeOptions();
+        options.setStreaming(true);
+        options.setChunkSize(CHUNK_SIZE);
+        SamplingProgress progress = new SamplingProgress(
+                ((LazyBuildMixIn.LazyLoadingJob<?, ?>) project).getLazyBuildMixIn()._getRuns());
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(options, progress).purge(project);
+        }
+
+        int kept = NUMBER_OF_BUILDS / KEEP_FOREVER_EVERY;
+        Assert.assertEquals(NUMBER_OF_BUILDS - kept, progress.getBuildsDeleted());
+        Assert.assertEquals(kept, BuildRecord.listBuildNumbers(project.getBuildDir()).length);
+        Assert.assertTrue(progress.samples > 0);
+        Assert.assertTrue(String.format("%d builds were loaded at once", progress.peak),
+                progress.peak <= CHUNK_SIZE);
+    }
+
+    private void generateSyntheticBuilds(File buildDir) throws Exception {
+        for (int number = 1; number <= NUMBER_OF_BUILDS; number++) {
+            File dir = new File(buildDir, String.valueOf(number));
+            Assert.assertTrue(dir.mkdirs());
+            String xml = "<?xml version='1.1' encoding='UTF-8'?>\n"
+                    + "<build>\n"
+                    + "  <actions/>\n"
+                    + "  <queueId>" + number + "</queueId>\n"
+                    + "  <timestamp>" + (1_500_000_000_000L + number * 60_000L) + "</timestamp>\n"
+                    + "  <startTime>" + (1_500_000_000_000L + number * 60_000L) + "</startTime>\n"
+                    + "  <result>SUCCESS</result>\n"
+                    + "  <duration>1000</duration>\n"
+                    + "  <charset>UTF-8</charset>\n"
+                    + "  <keepLog>" + (number % KEEP_FOREVER_EVERY == 0) + "</keepLog>\n"
+                    + "  <builtOn></builtOn>\n"
+                    + "  <workspace>/tmp</workspace>\n"
+                    + "</build>\n";
+            Files.write(new File(dir, "build.xml").toPath(), xml.getBytes(StandardCharsets.UTF_8));
+            Files.write(new File(dir, "log").toPath(), ("Build " + number + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Samples how many builds of the job are loaded as the purge goes.
+     */
+    private static final class SamplingProgress extends PurgeProgress {
+
+        private final RunMap<?> runMap;
+
+        int samples;
+
+        int peak;
+
+        SamplingProgress(RunMap<?> runMap) {
+            this.runMap = runMap;
+        }
+
+        @Override
+        public void buildDeleted(long bytes) {
+            super.buildDeleted(bytes);
+            // listing the loaded builds walks the whole index, so only look once in a while
+            if (getBuildsDeleted() % 50 == 0) {
+                samples++;
+                peak = Math.max(peak, runMap.getLoadedBuilds().size());
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+import hudson.model.FreeStyleProject;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.concurrent.TimeUnit;
+
+public class PurgeThrottleTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testBuildsPerSecondStretchesThePurge() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("paced");
+        for (int i = 0; i < 5; i++) {
+            this.jenkins.buildAndAssertSuccess(project);
+        }
+
+        PurgeOptions options = new PurgeOptions(true, false, false);
+        options.setBuildsPerSecond(4);
+        PurgeProgress progress = new PurgeProgress();
+        long start = System.nanoTime();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(options, progress).purge(project);
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assert.assertEquals(5, progress.getBuildsDeleted());
+        Assert.assertEquals(0, project.getBuilds().size());
+        // the first build goes right away, each of the other 4 a quarter of a second after the previous one
+        Assert.assertTrue("Purged 5 builds in " + elapsed + " ms", elapsed >= 1000);
+    }
+}
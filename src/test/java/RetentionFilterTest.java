@@ -0,0 +1,208 @@
+import hudson.model.Result;
+import jenkins.plugins.purgejobhistory.BuildRecord;
+import jenkins.plugins.purgejobhistory.RetentionFilter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class RetentionFilterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File buildDir;
+
+    @Before
+    public void setUp() throws IOException {
+        this.buildDir = this.folder.newFolder("builds");
+    }
+
+    @Test
+    public void testEmptyFilterSelectsEveryBuild() throws Exception {
+        RetentionFilter filter = new RetentionFilter();
+        Assert.assertTrue(filter.isEmpty());
+        Assert.assertEquals(Arrays.asList(10, 7, 4, 2), this.select(filter, 10, 7, 4, 2));
+        Assert.assertEquals(Collections.emptyList(), this.select(filter));
+    }
+
+    @Test
+    public void testOlderThanDays() throws Exception {
+        this.writeBuild(5, 0, "SUCCESS");
+        this.writeBuild(4, 1, "SUCCESS");
+        this.writeBuild(3, 3, "SUCCESS");
+        this.writeBuild(2, 5, "SUCCESS");
+        this.writeBuild(1, 10, "SUCCESS");
+
+        RetentionFilter filter = new RetentionFilter();
+        filter.setOlderThanDays(2);
+        Assert.assertEquals(Arrays.asList(3, 2, 1), this.select(filter, 5, 4, 3, 2, 1));
+        filter.setOlderThanDays(30);
+        Assert.assertEquals(Collections.emptyList(), this.select(filter, 5, 4, 3, 2, 1));
+        filter.setOlderThanDays(-1);
+        Assert.assertEquals(0, filter.getOlderThanDays());
+        Assert.assertEquals(Arrays.asList(5, 4, 3, 2, 1), this.select(filter, 5, 4, 3, 2, 1));
+    }
+
+    @Test
+    public void testBuildRangeWithGapsInNumbering() throws Exception {
+        RetentionFilter filter = new RetentionFilter();
+        filter.setFromBuild(3);
+        filter.setToBuild(8);
+        Assert.assertEquals(Arrays.asList(7, 4), this.select(filter, 10, 7, 4, 2));
+
+        // both bounds fall in the same gap
+        filter.setFromBuild(8);
+        filter.setToBuild(9);
+        Assert.assertEquals(Collections.emptyList(), this.select(filter, 10, 7, 4, 2));
+
+        filter.setFromBuild(7);
+        filter.setToBuild(7);
+        Assert.assertEquals(Collections.singletonList(7), this.select(filter, 10, 7, 4, 2));
+    }
+
+    @Test
+    public void testBuildRangeOutsideTheHistory() throws Exception {
+        RetentionFilter filter = new RetentionFilter();
+        filter.setFromBuild(20);
+        Assert.assertEquals(Collections.emptyList(), this.select(filter, 10, 7, 4, 2));
+
+        filter = new RetentionFilter();
+        filter.setToBuild(1);
+        Assert.assertEquals(Collections.emptyList(), this.select(filter, 10, 7, 4, 2));
+
+        filter = new RetentionFilter();
+        filter.setFromBuild(1);
+        filter.setToBuild(100);
+        Assert.assertEquals(Arrays.asList(10, 7, 4, 2), this.select(filter, 10, 7, 4, 2));
+    }
+
+    @Test
+    public void testFromBuildAfterToBuildSelectsNothing() throws Exception {
+        RetentionFilter filter = new RetentionFilter();
+        filter.setFromBuild(8);
+        filter.setToBuild(3);
+        Assert.assertEquals(Collections.emptyList(), this.select(filter, 10, 7, 4, 2));
+    }
+
+    @Test
+    public void testKeepLast() throws Exception {
+        RetentionFilter filter = new RetentionFilter();
+        filter.setKeepLast(2);
+        Assert.assertEquals(Arrays.asList(4, 2), this.select(filter, 10, 7, 4, 2));
+        filter.setKeepLast(4);
+        Assert.assertEquals(Collections.emptyList(), this.select(filter, 10, 7, 4, 2));
+        filter.setKeepLast(50);
+        Assert.assertEquals(Collections.emptyList(), this.select(filter, 10, 7, 4, 2));
+    }
+
+    @Test
+    public void testKeepLastWithBuildRange() throws Exception {
+        RetentionFilter filter = new RetentionFilter();
+        filter.setKeepLast(1);
+        filter.setToBuild(10);
+        Assert.assertEquals(Arrays.asList(7, 4, 2), this.select(filter, 10, 7, 4, 2));
+
+        // the most recent builds are kept even when the range is below them
+        filter.setKeepLast(2);
+        filter.setToBuild(7);
+        Assert.assertEquals(Arrays.asList(4, 2), this.select(filter, 10, 7, 4, 2));
+
+        filter.setFromBuild(5);
+        Assert.assertEquals(Collections.emptyList(), this.select(filter, 10, 7, 4, 2));
+    }
+
+    @Test
+    public void testKeepLastWithOlderThanDays() throws Exception {
+        this.writeBuild(5, 3, "SUCCESS");
+        this.writeBuild(4, 4, "SUCCESS");
+        this.writeBuild(3, 6, "SUCCESS");
+        this.writeBuild(2, 7, "SUCCESS");
+        this.writeBuild(1, 8, "SUCCESS");
+
+        RetentionFilter filter = new RetentionFilter();
+        filter.setOlderThanDays(2);
+        filter.setKeepLast(3);
+        Assert.assertEquals(Arrays.asList(2, 1), this.select(filter, 5, 4, 3, 2, 1));
+
+        filter.setKeepLast(1);
+        filter.setOlderThanDays(5);
+        Assert.assertEquals(Arrays.asList(3, 2, 1), this.select(filter, 5, 4, 3, 2, 1));
+    }
+
+    @Test
+    public void testResults() {
+        RetentionFilter filter = new RetentionFilter();
+        Assert.assertTrue(filter.matchesResult((String) null));
+        Assert.assertTrue(filter.matchesResult("SUCCESS"));
+
+        filter.setResults(Arrays.asList("failure", " ABORTED ", ""));
+        Assert.assertFalse(filter.isEmpty());
+        Assert.assertEquals(Arrays.asList("FAILURE", "ABORTED"), filter.getResults());
+        Assert.assertTrue(filter.matchesResult("FAILURE"));
+        Assert.assertTrue(filter.matchesResult(Result.ABORTED));
+        Assert.assertFalse(filter.matchesResult("SUCCESS"));
+        Assert.assertFalse(filter.matchesResult((Result) null));
+
+        try {
+            filter.setResults(Collections.singletonList("BROKEN"));
+            Assert.fail("Unknown results should be refused");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("BROKEN"));
+        }
+        Assert.assertEquals(Arrays.asList("FAILURE", "ABORTED"), filter.getResults());
+    }
+
+    @Test
+    public void testKeepLastCountsBuildsOfEveryResult() throws Exception {
+        this.writeBuild(5, 0, "FAILURE");
+        this.writeBuild(4, 0, "SUCCESS");
+        this.writeBuild(3, 0, "FAILURE");
+        this.writeBuild(2, 0, "SUCCESS");
+        this.writeBuild(1, 0, "FAILURE");
+
+        RetentionFilter filter = new RetentionFilter();
+        filter.setKeepLast(2);
+        filter.setResults(Collections.singletonList("FAILURE"));
+        List<Integer> deleted = new ArrayList<>();
+        for (int number : this.select(filter, 5, 4, 3, 2, 1)) {
+            if (filter.matchesResult(BuildRecord.read(this.buildDir, number).getResult())) {
+                deleted.add(number);
+            }
+        }
+        Assert.assertEquals(Arrays.asList(3, 1), deleted);
+    }
+
+    private List<Integer> select(RetentionFilter filter, int... numbers) throws IOException {
+        int[] range = filter.selectRange(this.buildDir, numbers);
+        Assert.assertTrue(0 <= range[0] && range[0] <= range[1] && range[1] <= numbers.length);
+        List<Integer> selected = new ArrayList<>();
+        for (int i = range[0]; i < range[1]; i++) {
+            selected.add(numbers[i]);
+        }
+        return selected;
+    }
+
+    private void writeBuild(int number, int ageInDays, String result) throws IOException {
+        File dir = new File(this.buildDir, Integer.toString(number));
+        Assert.assertTrue(dir.mkdirs());
+        long timestamp = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(ageInDays);
+        String xml = "<?xml version='1.1' encoding='UTF-8'?>\n"
+                + "<build>\n"
+                + "  <timestamp>" + timestamp + "</timestamp>\n"
+                + "  <result>" + result + "</result>\n"
+                + "</build>\n";
+        Files.write(new File(dir, "build.xml").toPath(), xml.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,197 @@
+import com.cloudbees.hudson.plugins.folder.Folder;
+import hudson.ExtensionList;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.model.StreamTaskListener;
+import hudson.tasks.ArtifactArchiver;
+import jenkins.model.ArtifactManager;
+import jenkins.model.ArtifactManagerConfiguration;
+import jenkins.model.ArtifactManagerFactory;
+import jenkins.model.ArtifactManagerFactoryDescriptor;
+import jenkins.model.Jenkins;
+import jenkins.plugins.purgejobhistory.ItemTraversal;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import jenkins.plugins.purgejobhistory.PurgeSchedule;
+import jenkins.plugins.purgejobhistory.ScheduledPurge;
+import jenkins.util.VirtualFile;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+import org.jvnet.hudson.test.TestExtension;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class ScheduledPurgeTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testTraversalResumesAfterCursor() throws Exception {
+        Folder a = this.jenkins.createProject(Folder.class, "a");
+        a.createProject(FreeStyleProject.class, "x");
+        a.createProject(FreeStyleProject.class, "y");
+        this.jenkins.createFreeStyleProject("B");
+        this.jenkins.createFreeStyleProject("c");
+
+        Assert.assertEquals(List.of("a", "a/x", "a/y", "B", "c"), names(null));
+        Assert.assertEquals(List.of("a/y", "B", "c"), names("a/x"));
+        Assert.assertEquals(List.of("B", "c"), names("a/y"));
+        Assert.assertEquals(List.of("c"), names("b"));
+        // the cursor job was deleted meanwhile
+        Assert.assertEquals(List.of("a/x", "a/y", "B", "c"), names("a/w"));
+        Assert.assertEquals(List.of(), names("c"));
+    }
+
+    @Test
+    public void testSlicesCoverEveryJobThenWrapAround() throws Exception {
+        List<FreeStyleProject> projects = new ArrayList<>();
+        Folder folder = this.jenkins.createProject(Folder.class, "folder");
+        for (int i = 0; i < 5; i++) {
+            FreeStyleProject project = folder.createProject(FreeStyleProject.class, "job" + i);
+            this.jenkins.buildAndAssertSuccess(project);
+            this.jenkins.buildAndAssertSuccess(project);
+            projects.add(project);
+        }
+        PurgeSchedule schedule = PurgeSchedule.get();
+        schedule.setMaxJobsPerRun(2);
+        schedule.setKeepLast(1);
+
+        runSlice(schedule);
+        Assert.assertEquals("folder/job1", schedule.getCursor());
+        runSlice(schedule);
+        Assert.assertEquals("folder/job3", schedule.getCursor());
+        runSlice(schedule);
+        Assert.assertNull(schedule.getCursor());
+        for (FreeStyleProject project : projects) {
+            Assert.assertEquals(1, project.getBuilds().size());
+            Assert.assertEquals(2, project.getLastBuild().getNumber());
+        }
+    }
+
+    @Test
+    public void testConfigurationSurvivesReload() throws Exception {
+        PurgeSchedule schedule = PurgeSchedule.get();
+        schedule.setEnabled(true);
+        schedule.setSpec("H 3 * * *");
+        schedule.setMaxJobsPerRun(7);
+        schedule.setTimeBudgetSeconds(30);
+        schedule.setKeepLast(5);
+        schedule.setResults("FAILURE,ABORTED");
+        schedule.setStreaming(true);
+
+        this.jenkins.configRoundtrip();
+
+        PurgeSchedule reloaded = new PurgeSchedule();
+        Assert.assertTrue(reloaded.isEnabled());
+        Assert.assertEquals("H 3 * * *", reloaded.getSpec());
+        Assert.assertEquals(7, reloaded.getMaxJobsPerRun());
+        Assert.assertEquals(30, reloaded.getTimeBudgetSeconds());
+        Assert.assertEquals(5, reloaded.getKeepLast());
+        Assert.assertEquals("FAILURE,ABORTED", reloaded.getResults());
+        Assert.assertTrue(reloaded.isStreaming());
+        Assert.assertFalse(reloaded.isForce());
+    }
+
+    @Test
+    public void testFailingJobDoesNotHoldTheScheduleUp() throws Exception {
+        ArtifactManagerConfiguration.get().getArtifactManagerFactories().add(new FailingArtifactManagerFactory());
+        List<FreeStyleProject> projects = new ArrayList<>();
+        Folder folder = this.jenkins.createProject(Folder.class, "folder");
+        for (int i = 0; i < 3; i++) {
+            FreeStyleProject project = folder.createProject(FreeStyleProject.class, "job" + i);
+            project.getBuildersList().add(new TestBuilder() {
+                @Override
+                public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                        throws InterruptedException, IOException {
+                    build.getWorkspace().child("a.txt").write("artifact", "UTF-8");
+                    return true;
+                }
+            });
+            project.getPublishersList().add(new ArtifactArchiver("a.txt"));
+            this.jenkins.buildAndAssertSuccess(project);
+            this.jenkins.buildAndAssertSuccess(project);
+            projects.add(project);
+        }
+        PurgeSchedule schedule = PurgeSchedule.get();
+        schedule.setMaxJobsPerRun(2);
+        schedule.setKeepLast(1);
+
+        PurgeProgress progress = runSlice(schedule);
+        Assert.assertEquals(1, progress.getJobsFailed());
+        Assert.assertEquals("folder/job1", schedule.getCursor());
+        Assert.assertEquals(1, projects.get(1).getBuilds().size());
+        runSlice(schedule);
+        Assert.assertNull(schedule.getCursor());
+        Assert.assertEquals(1, projects.get(2).getBuilds().size());
+    }
+
+    private List<String> names(String cursor) {
+        List<String> names = new ArrayList<>();
+        for (Item item : new ItemTraversal(this.jenkins.jenkins.getItems(), true).inNameOrderAfter(cursor)) {
+            names.add(item.getFullName());
+        }
+        return names;
+    }
+
+    private PurgeProgress runSlice(PurgeSchedule schedule) throws Exception {
+        return ExtensionList.lookupSingleton(ScheduledPurge.class)
+                .runSlice(schedule, new StreamTaskListener(System.out, Charset.defaultCharset()));
+    }
+
+    /**
+     * Stands in for an artifact store that cannot be reached.
+     */
+    public static final class FailingArtifactManager extends ArtifactManager {
+
+        @Override
+        public void onLoad(Run<?, ?> build) {
+        }
+
+        @Override
+        public void archive(FilePath workspace, Launcher launcher, BuildListener listener,
+                            Map<String, String> artifacts) {
+        }
+
+        @Override
+        public boolean delete() throws IOException {
+            throw new IOException("The artifact store cannot be reached");
+        }
+
+        @Override
+        public VirtualFile root() {
+            return VirtualFile.forFile(new File(Jenkins.get().getRootDir(), "unreachable-artifacts"));
+        }
+    }
+
+    /**
+     * Stores the artifacts of {@code job0} nowhere.
+     */
+    public static final class FailingArtifactManagerFactory extends ArtifactManagerFactory {
+
+        @Override
+        public ArtifactManager managerFor(Run<?, ?> build) {
+            return "job0".equals(build.getParent().getName()) ? new FailingArtifactManager() : null;
+        }
+    }
+
+    @TestExtension("testFailingJobDoesNotHoldTheScheduleUp")
+    public static final class FailingArtifactManagerFactoryDescriptor extends ArtifactManagerFactoryDescriptor {
+
+        public FailingArtifactManagerFactoryDescriptor() {
+            super(FailingArtifactManagerFactory.class);
+        }
+    }
+}
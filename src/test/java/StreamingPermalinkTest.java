@@ -0,0 +1,61 @@
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.lazy.LazyBuildMixIn;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import jenkins.plugins.purgejobhistory.RetentionFilter;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.FailureBuilder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+public class StreamingPermalinkTest {
+
+    @Rule
+    public JenkinsRule jenkins = new JenkinsRule();
+
+    @Test
+    public void testPermalinksAreResolvedAfterUnloadedBuildsAreDeleted() throws Exception {
+        FreeStyleProject project = this.jenkins.createFreeStyleProject("streamed");
+        this.jenkins.buildAndAssertSuccess(project);
+        this.jenkins.buildAndAssertSuccess(project);
+        project.getBuildersList().add(new FailureBuilder());
+        this.jenkins.buildAndAssertStatus(Result.FAILURE, project);
+        Assert.assertEquals(2, project.getLastSuccessfulBuild().getNumber());
+        File permalinks = new File(project.getBuildDir(), "permalinks");
+        Assert.assertTrue(this.read(permalinks).contains("lastSuccessfulBuild 2"));
+
+        // drop every build from memory, so that #1 and #2 are deleted from disk without being loaded
+        ((LazyBuildMixIn.LazyLoadingJob<?, ?>) project).getLazyBuildMixIn()._getRuns().purgeCache();
+
+        RetentionFilter filter = new RetentionFilter();
+        filter.setResults(Collections.singletonList("SUCCESS"));
+        PurgeOptions options = new PurgeOptions();
+        options.setStreaming(true);
+        options.setFilter(filter);
+        PurgeProgress progress = new PurgeProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            new PurgeEngine(options, progress).purge(project);
+        }
+
+        Assert.assertEquals(2, progress.getBuildsDeleted());
+        Assert.assertFalse(this.read(permalinks).contains("lastSuccessfulBuild 2"));
+        Assert.assertNull(project.getLastSuccessfulBuild());
+        Assert.assertNull(project.getLastStableBuild());
+        Assert.assertEquals(3, project.getLastFailedBuild().getNumber());
+        Assert.assertEquals(3, project.getLastBuild().getNumber());
+    }
+
+    private String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,182 @@
+package jenkins.plugins.purgejobhistory.benchmark;
+
+import hudson.ExtensionList;
+import hudson.model.AbstractItem;
+import hudson.model.Action;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.ParametersAction;
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.security.SecurityRealm;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nonnull;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.model.Jenkins;
+import jenkins.model.TransientActionFactory;
+import jenkins.plugins.purgejobhistory.PurgeJobHistory;
+import jenkins.plugins.purgejobhistory.PurgeJobHistoryAction;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Measures what the purge actions cost every render of every item, as a user who is not an administrator.
+ * {@code legacy} swaps in factories that behave like the ones the plugin used to register: two actions per item,
+ * each with its own CLI command instance, and a permission check each time the icon is asked for. {@code current}
+ * uses the plugin as it is.
+ */
+@JmhBenchmark
+@BenchmarkMode(Mode.AverageTime)
+public class ActionInjectionBenchmark {
+
+    /**
+     * The synthetic instance, secured, with either set of factories.
+     */
+    public static class RenderState extends SyntheticJenkinsState {
+
+        /**
+         * Which factories contribute the purge actions.
+         */
+        @Param({"legacy", "current"})
+        public String factories;
+
+        /**
+         * The user browsing.
+         */
+        private final Authentication user = new UsernamePasswordAuthenticationToken("viewer", "",
+                Collections.singleton(SecurityRealm.AUTHENTICATED_AUTHORITY2));
+
+        /**
+         * The jobs, resolved once.
+         */
+        private List<Job<?, ?>> jobs;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setup() throws Exception {
+            super.setup();
+            getJenkins().setAuthorizationStrategy(new MockAuthorizationStrategy()
+                    .grant(Jenkins.READ, Item.READ, Run.DELETE).everywhere().to("viewer"));
+            if ("legacy".equals(factories)) {
+                ExtensionList<TransientActionFactory> list = ExtensionList.lookup(TransientActionFactory.class);
+                list.remove(ExtensionList.lookupSingleton(PurgeJobHistoryAction.ActionInjector.class));
+                list.add(new LegacyItemInjector());
+                list.add(new LegacyRootInjector());
+            }
+            jobs = getJobs();
+        }
+    }
+
+    /**
+     * Lists the actions of every job and asks each for its icon twice, as the side panel of an item page does.
+     *
+     * @param state     the instance.
+     * @param blackhole receives the icons.
+     */
+    @Benchmark
+    public void sidePanel(RenderState state, Blackhole blackhole) {
+        try (ACLContext ctx = ACL.as2(state.user)) {
+            for (Job<?, ?> job : state.jobs) {
+                for (Action action : job.getAllActions()) {
+                    blackhole.consume(action.getIconFileName());
+                    blackhole.consume(action.getIconFileName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Looks up an unrelated kind of action on every job, as list view columns and other plugins do.
+     *
+     * @param state     the instance.
+     * @param blackhole receives the actions.
+     */
+    @Benchmark
+    public void otherActionLookup(RenderState state, Blackhole blackhole) {
+        try (ACLContext ctx = ACL.as2(state.user)) {
+            for (Job<?, ?> job : state.jobs) {
+                blackhole.consume(job.getAction(ParametersAction.class));
+            }
+        }
+    }
+
+    /**
+     * The item action as it used to be.
+     */
+    private static final class LegacyAction implements Action {
+
+        private final PurgeJobHistory purgeJobHistory = new PurgeJobHistory();
+
+        private final AbstractItem item;
+
+        private final boolean root;
+
+        LegacyAction(AbstractItem item, boolean root) {
+            this.item = item;
+            this.root = root;
+        }
+
+        @Override
+        public String getIconFileName() {
+            if (root) {
+                return null;
+            }
+            return purgeJobHistory.checkPermission(item) ? "symbol-trash-bin-outline plugin-ionicons-api" : null;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Purge Build History";
+        }
+
+        @Override
+        public String getUrlName() {
+            return "purge-job-history";
+        }
+    }
+
+    /**
+     * The item action factory as it used to be.
+     */
+    private static final class LegacyItemInjector extends TransientActionFactory<AbstractItem> {
+
+        @Override
+        public Class<AbstractItem> type() {
+            return AbstractItem.class;
+        }
+
+        @Nonnull
+        @Override
+        public Collection<? extends Action> createFor(@Nonnull AbstractItem item) {
+            return Collections.singleton(new LegacyAction(item, false));
+        }
+    }
+
+    /**
+     * The root action factory as it used to be, contributing an invisible copy of the root action to every item.
+     */
+    private static final class LegacyRootInjector extends TransientActionFactory<AbstractItem> {
+
+        @Override
+        public Class<AbstractItem> type() {
+            return AbstractItem.class;
+        }
+
+        @Nonnull
+        @Override
+        public Collection<? extends Action> createFor(@Nonnull AbstractItem item) {
+            return Collections.singleton(new LegacyAction(item, true));
+        }
+    }
+}
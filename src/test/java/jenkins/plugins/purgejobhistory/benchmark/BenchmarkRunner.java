@@ -0,0 +1,53 @@
+package jenkins.plugins.purgejobhistory.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import jenkins.benchmark.jmh.BenchmarkFinder;
+import org.junit.Test;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of this package. Not a regular test: run it with {@code mvn -Pbenchmark test}.
+ * Each benchmark picks its own mode.
+ * The size of the synthetic instance can be changed with {@code -Dbenchmark.param.jobs=200},
+ * {@code -Dbenchmark.param.depth=3}, {@code -Dbenchmark.param.buildsPerJob=1000} or
+ * {@code -Dbenchmark.param.filesPerBuild=20}, comma separated to compare several values.
+ * The results are written to {@code target/jmh-report.json}.
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * The prefix of the system properties overriding benchmark parameters.
+     */
+    private static final String PARAM_PREFIX = "benchmark.param.";
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @throws Exception if a benchmark failed.
+     */
+    @Test
+    public void runJmhBenchmarks() throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .timeUnit(TimeUnit.MILLISECONDS)
+                .warmupIterations(2)
+                .measurementIterations(5)
+                .threads(1)
+                .forks(1)
+                .shouldFailOnError(true)
+                .shouldDoGC(true)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-report.json");
+        for (Map.Entry<Object, Object> property : System.getProperties().entrySet()) {
+            String name = property.getKey().toString();
+            if (name.startsWith(PARAM_PREFIX)) {
+                options.param(name.substring(PARAM_PREFIX.length()), property.getValue().toString().split(","));
+            }
+        }
+        new BenchmarkFinder(getClass()).findBenchmarks(options);
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,164 @@
+package jenkins.plugins.purgejobhistory.benchmark;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Job;
+import hudson.model.PermalinkProjectAction.Permalink;
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import jenkins.plugins.purgejobhistory.BulkDeleteScope;
+import jenkins.plugins.purgejobhistory.PurgeJobHistory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Deletes the whole history of a single job of {@link HistoryState#builds} builds, newest first.
+ * {@code perBuild} calls {@code Run.delete()} for each build, so that the permalinks move back and the
+ * {@code permalinks} file is rewritten after nearly every deletion; {@code scoped} deletes them within a
+ * {@link BulkDeleteScope}, which resolves the permalinks once per chunk.
+ * The {@code writes} and {@code bytesWritten} counters are the write calls and bytes the JVM wrote meanwhile, from
+ * {@code /proc/self/io}; they stay at {@code 0} where it does not exist.
+ * This does not extend {@link SyntheticJenkinsState}: one long history is the point, not a wide instance.
+ */
+@JmhBenchmark
+@BenchmarkMode(Mode.SingleShotTime)
+public class BulkDeleteBenchmark {
+
+    /**
+     * One job whose builds are written back and whose permalinks point at its newest builds before each iteration.
+     */
+    public static class HistoryState extends JmhBenchmarkState {
+
+        /**
+         * How the builds are deleted.
+         */
+        @Param({"perBuild", "scoped"})
+        public String strategy;
+
+        /**
+         * The number of builds of the job.
+         */
+        @Param("10000")
+        public int builds;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setup() throws Exception {
+            Jenkins jenkins = getJenkins();
+            FreeStyleProject job = jenkins.createProject(FreeStyleProject.class, "history");
+            SyntheticJenkinsState.writeBuilds(job.getBuildDir(), builds, 2);
+            job.updateNextBuildNumber(builds + 1);
+            jenkins.reload();
+        }
+
+        /**
+         * Writes back the builds deleted by the previous iteration, and resolves the permalinks as a live job has.
+         *
+         * @throws Exception if something went wrong.
+         */
+        @Setup(Level.Iteration)
+        public void refill() throws Exception {
+            Job<?, ?> job = getJob();
+            SyntheticJenkinsState.writeBuilds(job.getBuildDir(), builds, 2);
+            SyntheticJenkinsState.evictBuilds(job);
+            for (Permalink permalink : job.getPermalinks()) {
+                permalink.resolve(job);
+            }
+        }
+
+        Job<?, ?> getJob() {
+            return getJenkins().getItemByFullName("history", Job.class);
+        }
+    }
+
+    /**
+     * The I/O done by an iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Io {
+
+        /**
+         * The number of write calls.
+         */
+        public long writes;
+
+        /**
+         * The number of bytes written.
+         */
+        public long bytesWritten;
+
+        /**
+         * Clears the counts before each iteration.
+         */
+        @Setup(Level.Iteration)
+        public void clear() {
+            writes = 0;
+            bytesWritten = 0;
+        }
+    }
+
+    /**
+     * Deletes every build of the job.
+     *
+     * @param state the instance.
+     * @param io    counts the I/O.
+     * @throws Exception if a deletion failed.
+     */
+    @Benchmark
+    public void delete(HistoryState state, Io io) throws Exception {
+        long[] before = readIo();
+        Job<?, ?> job = state.getJob();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            if ("scoped".equals(state.strategy)) {
+                try (BulkDeleteScope scope = PurgeJobHistory.bulkDelete(job)) {
+                    for (Run<?, ?> run : job.getBuilds()) {
+                        scope.delete(run);
+                    }
+                }
+            } else {
+                for (Run<?, ?> run : job.getBuilds()) {
+                    run.delete();
+                }
+            }
+        }
+        long[] after = readIo();
+        io.writes += after[0] - before[0];
+        io.bytesWritten += after[1] - before[1];
+    }
+
+    /**
+     * Returns the write calls and bytes written by the JVM so far.
+     */
+    private static long[] readIo() throws IOException {
+        long[] io = new long[2];
+        File file = new File("/proc/self/io");
+        if (!file.canRead()) {
+            return io;
+        }
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII)) {
+            if (line.startsWith("syscw:")) {
+                io[0] = Long.parseLong(line.substring(6).trim());
+            } else if (line.startsWith("wchar:")) {
+                io[1] = Long.parseLong(line.substring(6).trim());
+            }
+        }
+        return io;
+    }
+}
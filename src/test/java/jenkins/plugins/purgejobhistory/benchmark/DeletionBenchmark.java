@@ -0,0 +1,76 @@
+package jenkins.plugins.purgejobhistory.benchmark;
+
+import hudson.model.AbstractItem;
+import hudson.model.Job;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Purges every job of the synthetic instance with each deletion strategy:
+ * {@code run} loads every build and calls {@code Run.delete()}, {@code streaming} deletes builds that are not in
+ * memory straight from disk, and {@code trash} renames build directories into the trash.
+ * Each iteration deletes everything once, so this runs in single shot mode and writes the builds back in between.
+ */
+@JmhBenchmark
+@BenchmarkMode(Mode.SingleShotTime)
+public class DeletionBenchmark {
+
+    /**
+     * The synthetic instance, with every build back on disk and out of memory before each iteration.
+     */
+    public static class PurgeState extends SyntheticJenkinsState {
+
+        /**
+         * The deletion strategy.
+         */
+        @Param({"run", "streaming", "trash"})
+        public String strategy;
+
+        /**
+         * Writes back the builds deleted by the previous iteration.
+         *
+         * @throws Exception if something went wrong.
+         */
+        @Setup(Level.Iteration)
+        public void refill() throws Exception {
+            regenerateBuilds();
+        }
+
+        PurgeOptions options() {
+            PurgeOptions options = new PurgeOptions();
+            options.setStreaming("streaming".equals(strategy));
+            options.setTrash("trash".equals(strategy));
+            return options;
+        }
+    }
+
+    /**
+     * Purges every job.
+     *
+     * @param state     the instance.
+     * @param blackhole receives the progress.
+     * @throws Exception if the purge failed.
+     */
+    @Benchmark
+    public void purge(PurgeState state, Blackhole blackhole) throws Exception {
+        PurgeProgress progress = new PurgeProgress();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            PurgeEngine engine = new PurgeEngine(state.options(), progress);
+            for (Job<?, ?> job : state.getJobs()) {
+                engine.purge((AbstractItem) job);
+            }
+        }
+        blackhole.consume(progress.getBuildsDeleted());
+    }
+}
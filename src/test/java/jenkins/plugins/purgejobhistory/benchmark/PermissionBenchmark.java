@@ -0,0 +1,111 @@
+package jenkins.plugins.purgejobhistory.benchmark;
+
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.security.SecurityRealm;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.model.Jenkins;
+import jenkins.plugins.purgejobhistory.PermissionCache;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+
+/**
+ * Compares checking {@link Run#DELETE} on every build with checking it once per job, and with a
+ * {@link PermissionCache} per job, as a user who is not an administrator.
+ */
+@JmhBenchmark
+@BenchmarkMode(Mode.AverageTime)
+public class PermissionBenchmark {
+
+    /**
+     * The synthetic instance, secured, with every build loaded.
+     */
+    public static class SecuredState extends SyntheticJenkinsState {
+
+        /**
+         * The user purging.
+         */
+        private final Authentication user = new UsernamePasswordAuthenticationToken("purger", "",
+                Collections.singleton(SecurityRealm.AUTHENTICATED_AUTHORITY2));
+
+        /**
+         * The builds, loaded once so that only the checks are measured.
+         */
+        private final List<Run<?, ?>> runs = new ArrayList<>();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void setup() throws Exception {
+            super.setup();
+            getJenkins().setAuthorizationStrategy(new MockAuthorizationStrategy()
+                    .grant(Jenkins.READ, Item.READ, Run.DELETE).everywhere().to("purger"));
+            for (Job<?, ?> job : getJobs()) {
+                runs.addAll(job.getBuilds());
+            }
+        }
+    }
+
+    /**
+     * Checks every build on its own.
+     *
+     * @param state     the instance.
+     * @param blackhole receives the results.
+     */
+    @Benchmark
+    public void perRun(SecuredState state, Blackhole blackhole) {
+        try (ACLContext ctx = ACL.as2(state.user)) {
+            for (Run<?, ?> run : state.runs) {
+                blackhole.consume(run.hasPermission(Run.DELETE));
+            }
+        }
+    }
+
+    /**
+     * Checks every job once, as the purge does before deleting builds without loading them.
+     *
+     * @param state     the instance.
+     * @param blackhole receives the results.
+     */
+    @Benchmark
+    public void perJob(SecuredState state, Blackhole blackhole) {
+        try (ACLContext ctx = ACL.as2(state.user)) {
+            for (Job<?, ?> job : state.getJobs()) {
+                blackhole.consume(job.hasPermission(Run.DELETE));
+            }
+        }
+    }
+
+    /**
+     * Checks every build through a cache per job, as the purge does for builds it loads.
+     *
+     * @param state     the instance.
+     * @param blackhole receives the results.
+     */
+    @Benchmark
+    public void cached(SecuredState state, Blackhole blackhole) {
+        try (ACLContext ctx = ACL.as2(state.user)) {
+            Job<?, ?> job = null;
+            PermissionCache cache = null;
+            for (Run<?, ?> run : state.runs) {
+                if (run.getParent() != job) {
+                    job = run.getParent();
+                    cache = new PermissionCache(job);
+                }
+                blackhole.consume(cache.canDelete(run));
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package jenkins.plugins.purgejobhistory.benchmark;
+
+import hudson.model.Job;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import java.util.List;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.plugins.purgejobhistory.PurgeEngine;
+import jenkins.plugins.purgejobhistory.PurgeMetrics;
+import jenkins.plugins.purgejobhistory.PurgeOptions;
+import jenkins.plugins.purgejobhistory.PurgeProgress;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Purges every folder of the synthetic instance with a reset of the next build numbers, when only
+ * {@link ResetState#builtPercent} of the jobs have builds again, as for branches of which few were built since the
+ * last cleanup.
+ * {@code perJob} writes the next build number of every job left without builds, as the purge used to;
+ * {@code batched} lets the purge reset them once per subtree, skipping the jobs already at {@code 1}.
+ * The {@code writes} counter is the number of {@code nextBuildNumber} files written.
+ */
+@JmhBenchmark
+@BenchmarkMode(Mode.SingleShotTime)
+public class ResetBenchmark {
+
+    /**
+     * The synthetic instance, with the builds of some jobs back on disk before each iteration.
+     */
+    public static class ResetState extends SyntheticJenkinsState {
+
+        /**
+         * How the next build numbers are reset.
+         */
+        @Param({"perJob", "batched"})
+        public String strategy;
+
+        /**
+         * The share of the jobs with builds, in percent.
+         */
+        @Param("10")
+        public int builtPercent;
+
+        /**
+         * Empties every job, then writes back the builds of some of them.
+         *
+         * @throws Exception if something went wrong.
+         */
+        @Setup(Level.Iteration)
+        public void refill() throws Exception {
+            List<Job<?, ?>> jobs = getJobs();
+            try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+                new PurgeEngine(new PurgeOptions(true, true, true), new PurgeProgress()).purgeAll();
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                if (i * 100 < builtPercent * jobs.size()) {
+                    Job<?, ?> job = jobs.get(i);
+                    writeBuilds(job.getBuildDir(), buildsPerJob, filesPerBuild);
+                    job.updateNextBuildNumber(buildsPerJob + 1);
+                    evictBuilds(job);
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of {@code nextBuildNumber} files written by an iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Writes {
+
+        /**
+         * The number of writes.
+         */
+        public long writes;
+
+        /**
+         * Clears the count before each iteration.
+         */
+        @Setup(Level.Iteration)
+        public void clear() {
+            writes = 0;
+        }
+    }
+
+    /**
+     * Purges every job, resetting the next build numbers.
+     *
+     * @param state  the instance.
+     * @param writes counts the next build numbers written.
+     * @throws Exception if the purge failed.
+     */
+    @Benchmark
+    public void purge(ResetState state, Writes writes) throws Exception {
+        boolean batched = "batched".equals(state.strategy);
+        long before = PurgeMetrics.get().getBuildNumbersReset();
+        try (ACLContext ctx = ACL.as2(ACL.SYSTEM2)) {
+            PurgeEngine engine = new PurgeEngine(new PurgeOptions(batched, false, true), new PurgeProgress());
+            engine.purgeAll();
+        }
+        if (batched) {
+            writes.writes += PurgeMetrics.get().getBuildNumbersReset() - before;
+        } else {
+            for (Job<?, ?> job : state.getJobs()) {
+                if (job.getLastBuild() == null) {
+                    // what Job.updateNextBuildNumber(1) always wrote for an empty job
+                    job.updateNextBuildNumber(1);
+                    writes.writes++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package jenkins.plugins.purgejobhistory.benchmark;
+
+import hudson.model.Job;
+import hudson.model.Run;
+import java.io.File;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.plugins.purgejobhistory.BuildRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares loading every build through the {@code RunList} with reading only the {@link BuildRecord}s, starting
+ * each time from builds which are not in memory.
+ */
+@JmhBenchmark
+@BenchmarkMode(Mode.AverageTime)
+public class RunLoadingBenchmark {
+
+    /**
+     * The synthetic instance, with no build in memory before each invocation.
+     */
+    public static class ColdState extends SyntheticJenkinsState {
+
+        /**
+         * Drops every build from memory.
+         */
+        @Setup(Level.Invocation)
+        public void evict() {
+            for (Job<?, ?> job : getJobs()) {
+                evictBuilds(job);
+            }
+        }
+    }
+
+    /**
+     * Loads every build of every job, as a purge without streaming does.
+     *
+     * @param state     the instance.
+     * @param blackhole receives the builds.
+     */
+    @Benchmark
+    public void runList(ColdState state, Blackhole blackhole) {
+        for (Job<?, ?> job : state.getJobs()) {
+            for (Run<?, ?> run : job.getBuilds()) {
+                blackhole.consume(run);
+            }
+        }
+    }
+
+    /**
+     * Reads the record of every build of every job, as a streaming purge does.
+     *
+     * @param state     the instance.
+     * @param blackhole receives the records.
+     * @throws Exception if a record can not be read.
+     */
+    @Benchmark
+    public void buildRecords(ColdState state, Blackhole blackhole) throws Exception {
+        for (Job<?, ?> job : state.getJobs()) {
+            File buildDir = job.getBuildDir();
+            for (int number : BuildRecord.listBuildNumbers(buildDir)) {
+                blackhole.consume(BuildRecord.read(buildDir, number));
+            }
+        }
+    }
+}
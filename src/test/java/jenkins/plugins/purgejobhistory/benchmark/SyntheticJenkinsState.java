@@ -0,0 +1,159 @@
+package jenkins.plugins.purgejobhistory.benchmark;
+
+import com.cloudbees.hudson.plugins.folder.Folder;
+import hudson.model.FreeStyleProject;
+import hudson.model.Job;
+import hudson.model.TopLevelItem;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import jenkins.model.ModifiableTopLevelItemGroup;
+import jenkins.model.lazy.LazyBuildMixIn;
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * A Jenkins instance with a synthetic {@code $JENKINS_HOME}: {@link #jobs} freestyle jobs spread over
+ * {@link #FANOUT} chains of {@link #depth} nested folders, each with {@link #buildsPerJob} builds of
+ * {@link #filesPerBuild} files written straight to disk, then loaded lazily by a reload as on a real controller.
+ * Every parameter can be overridden with {@code -Dbenchmark.param.<name>=<values>}, see {@link BenchmarkRunner}.
+ */
+public abstract class SyntheticJenkinsState extends JmhBenchmarkState {
+
+    /**
+     * How many folder chains the jobs are spread over.
+     */
+    static final int FANOUT = 4;
+
+    /**
+     * The number of jobs.
+     */
+    @Param("20")
+    public int jobs;
+
+    /**
+     * How deep the jobs are nested in folders.
+     */
+    @Param("2")
+    public int depth;
+
+    /**
+     * The number of builds of each job.
+     */
+    @Param("100")
+    public int buildsPerJob;
+
+    /**
+     * The number of files in each build directory, including {@code build.xml} and {@code log}.
+     */
+    @Param("5")
+    public int filesPerBuild;
+
+    /**
+     * The full names of the jobs, which survive the reload.
+     */
+    private final List<String> jobNames = new ArrayList<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setup() throws Exception {
+        Jenkins jenkins = getJenkins();
+        for (int i = 0; i < jobs; i++) {
+            ModifiableTopLevelItemGroup parent = jenkins;
+            for (int level = 0; level < depth; level++) {
+                String name = "folder-" + (i % FANOUT) + "-" + level;
+                TopLevelItem folder = parent.getItem(name);
+                if (folder == null) {
+                    folder = parent.createProject(jenkins.getDescriptorByType(Folder.DescriptorImpl.class), name, true);
+                }
+                parent = (Folder) folder;
+            }
+            FreeStyleProject job = (FreeStyleProject) parent.createProject(
+                    jenkins.getDescriptorByType(FreeStyleProject.DescriptorImpl.class), "job-" + i, true);
+            writeBuilds(job.getBuildDir(), buildsPerJob, filesPerBuild);
+            job.updateNextBuildNumber(buildsPerJob + 1);
+            jobNames.add(job.getFullName());
+        }
+        jenkins.reload();
+    }
+
+    /**
+     * Returns the jobs.
+     *
+     * @return the jobs.
+     */
+    public List<Job<?, ?>> getJobs() {
+        List<Job<?, ?>> result = new ArrayList<>(jobNames.size());
+        for (String name : jobNames) {
+            result.add(getJenkins().getItemByFullName(name, Job.class));
+        }
+        return result;
+    }
+
+    /**
+     * Writes back the builds of every job and makes the jobs pick them up, after a benchmark deleted them.
+     *
+     * @throws Exception if something went wrong.
+     */
+    public void regenerateBuilds() throws Exception {
+        for (Job<?, ?> job : getJobs()) {
+            writeBuilds(job.getBuildDir(), buildsPerJob, filesPerBuild);
+            evictBuilds(job);
+        }
+    }
+
+    /**
+     * Drops the builds of a job from memory, so that the next access loads them from disk.
+     *
+     * @param job the job.
+     */
+    public static void evictBuilds(Job<?, ?> job) {
+        ((LazyBuildMixIn.LazyLoadingJob<?, ?>) job).getLazyBuildMixIn()._getRuns().purgeCache();
+    }
+
+    /**
+     * Writes the directories of builds {@code 1..count}, skipping those that already exist.
+     *
+     * @param buildDir the builds directory of the job.
+     * @param count    the number of builds.
+     * @param files    the number of files per build, at least {@code build.xml} and {@code log}.
+     * @throws Exception if something went wrong.
+     */
+    static void writeBuilds(File buildDir, int count, int files) throws Exception {
+        for (int number = 1; number <= count; number++) {
+            File dir = new File(buildDir, String.valueOf(number));
+            if (dir.isDirectory()) {
+                continue;
+            }
+            File archive = new File(dir, "archive");
+            if (!archive.mkdirs()) {
+                throw new IllegalStateException("Can not create " + archive);
+            }
+            long timestamp = System.currentTimeMillis() - (count - number) * 60_000L;
+            String xml = "<?xml version='1.1' encoding='UTF-8'?>\n"
+                    + "<build>\n"
+                    + "  <actions/>\n"
+                    + "  <queueId>" + number + "</queueId>\n"
+                    + "  <timestamp>" + timestamp + "</timestamp>\n"
+                    + "  <startTime>" + timestamp + "</startTime>\n"
+                    + "  <result>" + (number % 10 == 0 ? "FAILURE" : "SUCCESS") + "</result>\n"
+                    + "  <duration>1000</duration>\n"
+                    + "  <charset>UTF-8</charset>\n"
+                    + "  <keepLog>false</keepLog>\n"
+                    + "  <builtOn></builtOn>\n"
+                    + "  <workspace>/tmp</workspace>\n"
+                    + "</build>\n";
+            Files.write(new File(dir, "build.xml").toPath(), xml.getBytes(StandardCharsets.UTF_8));
+            Files.write(new File(dir, "log").toPath(), ("Build " + number + "\n").getBytes(StandardCharsets.UTF_8));
+            for (int i = 2; i < files; i++) {
+                Files.write(new File(archive, "artifact-" + i + ".txt").toPath(),
+                        ("Artifact " + i + " of build " + number + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package jenkins.plugins.purgejobhistory.benchmark;
+
+import hudson.model.Item;
+import jenkins.benchmark.jmh.JmhBenchmark;
+import jenkins.plugins.purgejobhistory.ItemTraversal;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the lazy single pass {@link ItemTraversal} used by purges with {@code Jenkins.getAllItems()}.
+ */
+@JmhBenchmark
+@BenchmarkMode(Mode.AverageTime)
+public class TraversalBenchmark {
+
+    /**
+     * The synthetic instance.
+     */
+    public static class TreeState extends SyntheticJenkinsState {
+    }
+
+    /**
+     * Walks every item the way a recursive purge does.
+     *
+     * @param state     the instance.
+     * @param blackhole receives the items.
+     */
+    @Benchmark
+    public void itemTraversal(TreeState state, Blackhole blackhole) {
+        for (Item item : new ItemTraversal(state.getJenkins().getItems(), true)) {
+            blackhole.consume(item);
+        }
+    }
+
+    /**
+     * Walks every item through {@code Jenkins.getAllItems()}, which builds the whole list first.
+     *
+     * @param state     the instance.
+     * @param blackhole receives the items.
+     */
+    @Benchmark
+    public void getAllItems(TreeState state, Blackhole blackhole) {
+        for (Item item : state.getJenkins().getAllItems()) {
+            blackhole.consume(item);
+        }
+    }
+}